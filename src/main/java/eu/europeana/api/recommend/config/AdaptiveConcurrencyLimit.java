@@ -0,0 +1,138 @@
+package eu.europeana.api.recommend.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that adapts itself to the measured latency (gradient algorithm, similar to Netflix'
+ * concurrency-limits Gradient2). We keep a short-term and a long-term (exponential) average of the response time.
+ * When the short-term average rises above the long-term average (times a tolerance) requests are queueing somewhere,
+ * so the limit is lowered proportionally. When latency is stable the limit grows slowly (by the square root of the
+ * limit per update). Requests that time out or fail lower the limit as well.
+ *
+ * @author Patrick Ehlert
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final String METRIC_LIMIT = "recommend.concurrency.limit";
+    private static final String METRIC_INFLIGHT = "recommend.concurrency.inflight";
+
+    // nr of samples over which we average the short-term and long-term response time
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+    // how much the short-term response time may exceed the long-term one before we lower the limit
+    private static final double TOLERANCE = 1.5;
+    // how fast the limit moves towards a newly calculated value
+    private static final double SMOOTHING = 0.2;
+    // limit is never decreased more than this factor in one update
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double DROP_BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private volatile double limit;
+    private double shortRtt;
+    private double longRtt;
+
+    /**
+     * Create a new adaptive concurrency limit
+     * @param initialLimit the limit to start with
+     * @param minLimit the minimum limit
+     * @param maxLimit the maximum limit
+     * @param meterRegistry registry where the current limit and nr of requests in flight are published
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, MeterRegistry meterRegistry) {
+        if (minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid concurrency limit bounds " + minLimit + " - " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        Gauge.builder(METRIC_LIMIT, this, AdaptiveConcurrencyLimit::getLimit)
+                .description("Current limit of concurrent recommendation requests")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_INFLIGHT, this, AdaptiveConcurrencyLimit::getInflight)
+                .description("Number of recommendation requests in flight")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Try to start a new request
+     * @return true if the request can be handled, false if the limit is reached. If true is returned,
+     * {@link #release(long, boolean)} must be called when the request is finished.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finish a request and update the limit
+     * @param rttNanos the response time of the request in nanoseconds
+     * @param dropped true if the request timed out or failed, otherwise false
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int current = inflight.getAndDecrement();
+        update(rttNanos, current, dropped);
+    }
+
+    private synchronized void update(long rttNanos, int inflightAtRelease, boolean dropped) {
+        if (dropped) {
+            limit = clamp(limit * DROP_BACKOFF);
+            return;
+        }
+        if (longRtt == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+            return;
+        }
+        shortRtt = average(shortRtt, rttNanos, SHORT_WINDOW);
+        longRtt = average(longRtt, rttNanos, LONG_WINDOW);
+        // when latency improved a lot, let the long-term average recover faster
+        if (longRtt / shortRtt > 2) {
+            longRtt = longRtt * 0.95;
+        }
+
+        // when less than half the limit is used, the response time says nothing about whether we can handle more
+        if (inflightAtRelease < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+    }
+
+    private static double average(double average, double sample, int window) {
+        return average + (sample - average) / window;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+}
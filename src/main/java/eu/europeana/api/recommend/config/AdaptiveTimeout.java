@@ -0,0 +1,206 @@
+package eu.europeana.api.recommend.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import java.util.stream.DoubleStream;
+
+/**
+ * Keeps track of the response times of a backend system and uses that to calculate a response timeout.
+ * The timeout is the observed latency at a particular percentile (e.g. p99) multiplied by a factor, bounded by a
+ * configured minimum and maximum. As long as there are not enough recent measurements (e.g. at startup or after an
+ * idle period) we use the maximum timeout.
+ * Latencies are recorded in a Micrometer timer, so they are also available as metric.
+ */
+public class AdaptiveTimeout {
+
+    private static final String METRIC_NAME = "recommend.backend.latency";
+    private static final String METRIC_TAG = "backend";
+    // nr of measurements in the window we need before we use the percentile
+    private static final long MIN_SAMPLES = 20;
+    // how often we recalculate the timeout
+    private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofSeconds(1);
+    // over what period we gather latencies
+    private static final Duration WINDOW = Duration.ofMinutes(2);
+    // nr of time slots in which we count measurements in the window
+    private static final int WINDOW_SLOTS = 12;
+    // other percentiles we always keep track of (available as metric and via getLatency())
+    private static final double[] EXTRA_PERCENTILES = {0.5, 0.9, 0.95};
+
+    private final Timer latency;
+    private final WindowCounter samples;
+    private final LongSupplier clock;
+    private final double percentile;
+    private final double[] trackedPercentiles;
+    private final double factor;
+    private final Duration minTimeout;
+    private final Duration maxTimeout;
+    private final long refreshIntervalNanos;
+
+    private volatile Duration timeout;
+    private volatile long lastRefresh;
+
+    /**
+     * Create a new adaptive timeout
+     * @param backend name of the backend system, used to tag the latency metric
+     * @param meterRegistry registry where latency measurements are stored
+     * @param percentile the percentile to use (between 0 and 1, e.g. 0.99)
+     * @param factor value with which the latency at the percentile is multiplied
+     * @param minTimeout the minimum timeout
+     * @param maxTimeout the maximum timeout
+     * @param extraPercentiles optional, other percentiles that should be available via {@link #getLatency(double)}
+     *                         (next to the percentile used for timeouts and 0.5, 0.9 and 0.95)
+     */
+    public AdaptiveTimeout(String backend, MeterRegistry meterRegistry, double percentile, double factor,
+                           Duration minTimeout, Duration maxTimeout, double... extraPercentiles) {
+        this(backend, meterRegistry, percentile, factor, minTimeout, maxTimeout, DEFAULT_REFRESH_INTERVAL,
+                System::nanoTime, extraPercentiles);
+    }
+
+    AdaptiveTimeout(String backend, MeterRegistry meterRegistry, double percentile, double factor,
+                    Duration minTimeout, Duration maxTimeout, Duration refreshInterval) {
+        this(backend, meterRegistry, percentile, factor, minTimeout, maxTimeout, refreshInterval, System::nanoTime);
+    }
+
+    AdaptiveTimeout(String backend, MeterRegistry meterRegistry, double percentile, double factor,
+                    Duration minTimeout, Duration maxTimeout, Duration refreshInterval, LongSupplier clock,
+                    double... extraPercentiles) {
+        if (minTimeout.compareTo(maxTimeout) > 0) {
+            throw new IllegalArgumentException("Minimum timeout " + minTimeout + " is larger than maximum " + maxTimeout);
+        }
+        this.trackedPercentiles = DoubleStream.concat(DoubleStream.of(percentile),
+                        DoubleStream.concat(DoubleStream.of(EXTRA_PERCENTILES), DoubleStream.of(extraPercentiles)))
+                .distinct().sorted().toArray();
+        this.latency = Timer.builder(METRIC_NAME)
+                .description("Response time of backend systems")
+                .tag(METRIC_TAG, backend)
+                .publishPercentiles(trackedPercentiles)
+                .distributionStatisticExpiry(WINDOW)
+                .register(meterRegistry);
+        this.samples = new WindowCounter(WINDOW.toNanos() / WINDOW_SLOTS, WINDOW_SLOTS);
+        this.clock = clock;
+        this.percentile = percentile;
+        this.factor = factor;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+        this.timeout = maxTimeout;
+        this.lastRefresh = clock.getAsLong() - refreshIntervalNanos;
+    }
+
+    /**
+     * Record the response time of a request
+     * @param nanos the response time in nanoseconds
+     */
+    public void record(long nanos) {
+        latency.record(nanos, TimeUnit.NANOSECONDS);
+        samples.increment(clock.getAsLong());
+    }
+
+    /**
+     * @return the timeout to use for the next request
+     */
+    public Duration getTimeout() {
+        long now = clock.getAsLong();
+        if (now - lastRefresh >= refreshIntervalNanos) {
+            lastRefresh = now;
+            timeout = calculateTimeout();
+        }
+        return timeout;
+    }
+
+    /**
+     * @return the maximum timeout
+     */
+    public Duration getMaxTimeout() {
+        return maxTimeout;
+    }
+
+    /**
+     * @param p the percentile to check
+     * @return true if the latency at the provided percentile is tracked, otherwise false
+     */
+    public boolean isTracked(double p) {
+        return DoubleStream.of(trackedPercentiles).anyMatch(tracked -> tracked == p);
+    }
+
+    /**
+     * Return the recently observed latency at the provided percentile
+     * @param p the percentile, must be tracked (see {@link #isTracked(double)})
+     * @return the latency, or null if there are not enough (recent) measurements or the percentile is not available
+     */
+    public Duration getLatency(double p) {
+        // the timer's count is cumulative, so we check the number of measurements in the window ourselves
+        if (samples.sum(clock.getAsLong()) < MIN_SAMPLES) {
+            return null;
+        }
+        for (ValueAtPercentile value : latency.takeSnapshot().percentileValues()) {
+            if (value.percentile() == p && value.value() > 0) {
+                return Duration.ofNanos((long) value.value(TimeUnit.NANOSECONDS));
+            }
+        }
+        return null;
+    }
+
+    private Duration calculateTimeout() {
+        Duration observed = getLatency(percentile);
+        if (observed == null) {
+            return maxTimeout;
+        }
+        Duration result = Duration.ofNanos((long) (observed.toNanos() * factor));
+        if (result.compareTo(minTimeout) < 0) {
+            return minTimeout;
+        }
+        if (result.compareTo(maxTimeout) > 0) {
+            return maxTimeout;
+        }
+        return result;
+    }
+
+    /**
+     * Counts the measurements in the last window, using a ring of time slots that are reset when they're reused
+     */
+    private static final class WindowCounter {
+
+        private final long slotNanos;
+        private final AtomicLongArray counts;
+        private final AtomicLongArray slotIds;
+
+        private WindowCounter(long slotNanos, int nrSlots) {
+            this.slotNanos = slotNanos;
+            this.counts = new AtomicLongArray(nrSlots);
+            this.slotIds = new AtomicLongArray(nrSlots);
+            for (int i = 0; i < nrSlots; i++) {
+                slotIds.set(i, Long.MIN_VALUE);
+            }
+        }
+
+        void increment(long now) {
+            long slotId = Math.floorDiv(now, slotNanos);
+            int index = (int) Math.floorMod(slotId, counts.length());
+            long current = slotIds.get(index);
+            if (current != slotId && slotIds.compareAndSet(index, current, slotId)) {
+                // measurements counted concurrently may be lost, which is fine for this purpose
+                counts.set(index, 0);
+            }
+            counts.incrementAndGet(index);
+        }
+
+        long sum(long now) {
+            long slotId = Math.floorDiv(now, slotNanos);
+            long result = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                long age = slotId - slotIds.get(i);
+                if (age >= 0 && age < counts.length()) {
+                    result += counts.get(i);
+                }
+            }
+            return result;
+        }
+    }
+}
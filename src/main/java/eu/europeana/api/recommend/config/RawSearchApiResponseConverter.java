@@ -0,0 +1,62 @@
+package eu.europeana.api.recommend.config;
+
+import eu.europeana.api.recommend.model.RawSearchApiResponse;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes the raw body of a {@link RawSearchApiResponse} to our response as it is received from Search API.
+ * Data is written by the thread that handles the request, so we never do blocking I/O on a webclient thread.
+ */
+public class RawSearchApiResponseConverter extends AbstractHttpMessageConverter<RawSearchApiResponse> {
+
+    // number of data buffers we request from the webclient in advance
+    private static final int PREFETCH = 4;
+
+    /**
+     * Initialize a new converter for raw Search API responses
+     */
+    public RawSearchApiResponseConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return RawSearchApiResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected RawSearchApiResponse readInternal(Class<? extends RawSearchApiResponse> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Reading raw Search API responses is not supported", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(RawSearchApiResponse response, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        try {
+            for (DataBuffer dataBuffer : Flux.from(response.getBody()).toIterable(PREFETCH)) {
+                try (InputStream in = dataBuffer.asInputStream(true)) {
+                    in.transferTo(out);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new HttpMessageNotWritableException("Error streaming response from Search API", e);
+        }
+        out.flush();
+    }
+}
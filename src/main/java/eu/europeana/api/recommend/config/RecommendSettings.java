@@ -47,9 +47,231 @@ public class RecommendSettings {
     @Value("${milvus.collection}")
     private String milvusCollection;
 
+    @Value("${milvus.threads:16}")
+    private int milvusThreads;
+
+    @Value("${milvus.queue.size:1000}")
+    private int milvusQueueSize;
+
+    @Value("${set.metadata.timeout.ms:10000}")
+    private int setMetadataTimeout;
+
+    @Value("${set.items.timeout.ms:5000}")
+    private int setItemsTimeout;
+
+    @Value("${entity.set.timeout.ms:2000}")
+    private int entitySetTimeout;
+
+    @Value("${request.deadline.record.ms:0}")
+    private int requestDeadlineRecord;
+
+    @Value("${request.deadline.set.ms:0}")
+    private int requestDeadlineSet;
+
+    @Value("${request.deadline.entity.ms:0}")
+    private int requestDeadlineEntity;
+
+    @Value("${request.deadline.reserve.ms:1000}")
+    private int requestDeadlineReserve;
+
+    @Value("${concurrency.limit.enabled:false}")
+    private boolean concurrencyLimitEnabled;
+
+    @Value("${concurrency.limit.initial:100}")
+    private int concurrencyLimitInitial;
+
+    @Value("${concurrency.limit.min:10}")
+    private int concurrencyLimitMin;
+
+    @Value("${concurrency.limit.max:1000}")
+    private int concurrencyLimitMax;
+
+    @Value("${concurrency.limit.retry.after.seconds:1}")
+    private int concurrencyLimitRetryAfter;
+
+    @Value("${bulkhead.record.max.concurrent:0}")
+    private int bulkheadRecordMaxConcurrent;
+
+    @Value("${bulkhead.record.max.queue:0}")
+    private int bulkheadRecordMaxQueue;
+
+    @Value("${bulkhead.set.max.concurrent:0}")
+    private int bulkheadSetMaxConcurrent;
+
+    @Value("${bulkhead.set.max.queue:0}")
+    private int bulkheadSetMaxQueue;
+
+    @Value("${bulkhead.entity.max.concurrent:0}")
+    private int bulkheadEntityMaxConcurrent;
+
+    @Value("${bulkhead.entity.max.queue:0}")
+    private int bulkheadEntityMaxQueue;
+
+    @Value("${rate.limit.enabled:false}")
+    private boolean rateLimitEnabled;
+
+    @Value("${rate.limit.default.per.second:20}")
+    private double rateLimitDefaultRate;
+
+    @Value("${rate.limit.default.burst:100}")
+    private int rateLimitDefaultBurst;
+
+    @Value("${rate.limit.trusted.keys:}")
+    private String[] rateLimitTrustedKeys;
+
+    @Value("${rate.limit.trusted.per.second:0}")
+    private double rateLimitTrustedRate;
+
+    @Value("${rate.limit.trusted.burst:1000}")
+    private int rateLimitTrustedBurst;
+
+    @Value("${rate.limit.unknown.per.second:5}")
+    private double rateLimitUnknownRate;
+
+    @Value("${rate.limit.unknown.burst:20}")
+    private int rateLimitUnknownBurst;
+
+    @Value("${rate.limit.max.streams:2}")
+    private int rateLimitMaxStreams;
+
+    @Value("${rate.limit.max.keys:10000}")
+    private int rateLimitMaxKeys;
+
+    @Value("${rate.limit.idle.seconds:600}")
+    private int rateLimitIdleTime;
+
+    @Value("${candidate.cache.ttl.seconds:300}")
+    private int candidateCacheTtl;
+
+    @Value("${candidate.cache.max.candidates:1000000}")
+    private int candidateCacheMaxCandidates;
+
+    @Value("${candidate.oversample.size:200}")
+    private int candidateOversampleSize;
+
+    @Value("${stream.concurrency:8}")
+    private int streamConcurrency;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${search.api.passthrough:false}")
+    private boolean searchApiPassthrough;
+
+    @Value("${search.api.hedge.enabled:false}")
+    private boolean searchApiHedgeEnabled;
+
+    @Value("${search.api.hedge.delay.ms:0}")
+    private int searchApiHedgeDelayMs;
+
+    @Value("${search.api.hedge.percentile:0.95}")
+    private double searchApiHedgePercentile;
+
+    @Value("${search.api.hedge.budget.percentage:5}")
+    private double searchApiHedgeBudgetPercentage;
+
+    @Value("${search.api.chunk.size:0}")
+    private int searchApiChunkSize;
+
     @Value("${webclient.max.memsizemb:10}")
     private Integer webClientMaxMemMb;
 
+    @Value("${webclient.timeout.percentile:0.99}")
+    private Double webClientTimeoutPercentile;
+
+    @Value("${webclient.timeout.factor:2}")
+    private Double webClientTimeoutFactor;
+
+    @Value("${webclient.timeout.min.ms:1000}")
+    private Integer webClientTimeoutMinMs;
+
+    @Value("${webclient.timeout.max.ms:10000}")
+    private Integer webClientTimeoutMaxMs;
+
+    @Value("${embedding.api.timeout.max.ms:30000}")
+    private Integer embeddingsApiTimeoutMaxMs;
+
+    @Value("${webclient.http2.enabled:false}")
+    private boolean webClientHttp2Enabled;
+
+    @Value("${webclient.h2c.enabled:false}")
+    private boolean webClientH2cEnabled;
+
+    @Value("${webclient.http2.maxconnections:2}")
+    private int webClientHttp2MaxConnections;
+
+    @Value("${webclient.http2.maxstreams:100}")
+    private int webClientHttp2MaxStreams;
+
+    @Value("${response.cache.enabled:false}")
+    private boolean responseCacheEnabled;
+
+    @Value("${response.cache.ttl.seconds:300}")
+    private int responseCacheTtl;
+
+    @Value("${response.cache.max.stale.seconds:3600}")
+    private int responseCacheMaxStale;
+
+    @Value("${response.cache.maxsize.mb:100}")
+    private int responseCacheMaxSizeMb;
+
+    @Value("${response.cache.prewarm.top.n:0}")
+    private int responseCachePrewarmTopN;
+
+    @Value("${response.cache.prewarm.interval.seconds:60}")
+    private int responseCachePrewarmInterval;
+
+    @Value("${response.cache.prewarm.max.per.run:50}")
+    private int responseCachePrewarmMaxPerRun;
+
+    @Value("${response.cache.prewarm.concurrency:2}")
+    private int responseCachePrewarmConcurrency;
+
+    @Value("${request.coalescing.enabled:true}")
+    private boolean requestCoalescingEnabled;
+
+    @Value("${http.cache.max.age.seconds:60}")
+    private int httpCacheMaxAge;
+
+    @Value("${http.cache.s.maxage.seconds:300}")
+    private int httpCacheSMaxAge;
+
+    @Value("${http.etag.version:}")
+    private String httpETagVersion;
+
+    @Value("${notfound.cache.record.ttl.seconds:60}")
+    private int notFoundCacheRecordTtl;
+
+    @Value("${notfound.cache.set.ttl.seconds:60}")
+    private int notFoundCacheSetTtl;
+
+    @Value("${notfound.cache.entity.ttl.seconds:300}")
+    private int notFoundCacheEntityTtl;
+
+    @Value("${notfound.cache.maxsize:100000}")
+    private int notFoundCacheMaxSize;
+
+    @Value("${item.store.file:}")
+    private String itemStoreFile;
+
+    @Value("${item.store.source.file:}")
+    private String itemStoreSourceFile;
+
+    @Value("${item.store.refresh.minutes:10}")
+    private int itemStoreRefreshMinutes;
+
+    @Value("${record.filter.file:}")
+    private String recordFilterFile;
+
+    @Value("${record.filter.ids.file:}")
+    private String recordFilterIdsFile;
+
+    @Value("${record.filter.fpp:0.001}")
+    private double recordFilterFpp;
+
+    @Value("${record.filter.refresh.minutes:10}")
+    private int recordFilterRefreshMinutes;
+
 
     public String getSearchApiEndpoint() {
         return this.searchApiEndpoint;
@@ -87,10 +309,544 @@ public class RecommendSettings {
         return milvusCollection;
     }
 
+    /**
+     * @return the maximum number of threads used for (blocking) requests to Milvus
+     */
+    public int getMilvusThreads() {
+        return milvusThreads;
+    }
+
+    /**
+     * @return the maximum number of requests to Milvus that can be queued when all Milvus threads are busy
+     */
+    public int getMilvusQueueSize() {
+        return milvusQueueSize;
+    }
+
+    /**
+     * @return the maximum time (in ms) to wait for recommendations based on set metadata, 0 means no timeout
+     */
+    public int getSetMetadataTimeout() {
+        return setMetadataTimeout;
+    }
+
+    /**
+     * @return the maximum time (in ms) to wait for recommendations based on the items in a set, 0 means no timeout
+     */
+    public int getSetItemsTimeout() {
+        return setItemsTimeout;
+    }
+
+    /**
+     * @return the maximum time (in ms) to wait for recommendations based on the best items set of an entity, 0 means
+     * no timeout
+     */
+    public int getEntitySetTimeout() {
+        return entitySetTimeout;
+    }
+
+    /**
+     * @return the time budget (in ms) for generating record recommendations, 0 means no deadline
+     */
+    public int getRequestDeadlineRecord() {
+        return requestDeadlineRecord;
+    }
+
+    /**
+     * @return the time budget (in ms) for generating set recommendations, 0 means no deadline
+     */
+    public int getRequestDeadlineSet() {
+        return requestDeadlineSet;
+    }
+
+    /**
+     * @return the time budget (in ms) for generating entity recommendations, 0 means no deadline
+     */
+    public int getRequestDeadlineEntity() {
+        return requestDeadlineEntity;
+    }
+
+    /**
+     * @return the part of a request's time budget (in ms) that optional recommendation branches may not use, so there
+     * is still time left to generate the response
+     */
+    public int getRequestDeadlineReserve() {
+        return requestDeadlineReserve;
+    }
+
+    /**
+     * @return true if the number of concurrent recommendation requests is limited, otherwise false
+     */
+    public boolean isConcurrencyLimitEnabled() {
+        return concurrencyLimitEnabled;
+    }
+
+    /**
+     * @return the concurrency limit to start with, the limit adapts itself to the measured response times
+     */
+    public int getConcurrencyLimitInitial() {
+        return concurrencyLimitInitial;
+    }
+
+    /**
+     * @return the minimum concurrency limit
+     */
+    public int getConcurrencyLimitMin() {
+        return concurrencyLimitMin;
+    }
+
+    /**
+     * @return the maximum concurrency limit
+     */
+    public int getConcurrencyLimitMax() {
+        return concurrencyLimitMax;
+    }
+
+    /**
+     * @return the number of seconds after which clients may retry a request that was rejected because of the
+     * concurrency limit (sent in the Retry-After header)
+     */
+    public int getConcurrencyLimitRetryAfter() {
+        return concurrencyLimitRetryAfter;
+    }
+
+    /**
+     * @return the maximum number of record recommendation requests in progress, 0 means no limit
+     */
+    public int getBulkheadRecordMaxConcurrent() {
+        return bulkheadRecordMaxConcurrent;
+    }
+
+    /**
+     * @return the maximum number of record recommendation requests waiting for a request in progress to finish
+     */
+    public int getBulkheadRecordMaxQueue() {
+        return bulkheadRecordMaxQueue;
+    }
+
+    /**
+     * @return the maximum number of set recommendation requests in progress, 0 means no limit
+     */
+    public int getBulkheadSetMaxConcurrent() {
+        return bulkheadSetMaxConcurrent;
+    }
+
+    /**
+     * @return the maximum number of set recommendation requests waiting for a request in progress to finish
+     */
+    public int getBulkheadSetMaxQueue() {
+        return bulkheadSetMaxQueue;
+    }
+
+    /**
+     * @return the maximum number of entity recommendation requests in progress, 0 means no limit
+     */
+    public int getBulkheadEntityMaxConcurrent() {
+        return bulkheadEntityMaxConcurrent;
+    }
+
+    /**
+     * @return the maximum number of entity recommendation requests waiting for a request in progress to finish
+     */
+    public int getBulkheadEntityMaxQueue() {
+        return bulkheadEntityMaxQueue;
+    }
+
+    /**
+     * @return true if the number of requests per API key is limited, otherwise false
+     */
+    public boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    /**
+     * @return the number of requests per second that API keys (that are not trusted) may send on average
+     */
+    public double getRateLimitDefaultRate() {
+        return rateLimitDefaultRate;
+    }
+
+    /**
+     * @return the maximum number of requests that API keys (that are not trusted) may send in one burst
+     */
+    public int getRateLimitDefaultBurst() {
+        return rateLimitDefaultBurst;
+    }
+
+    /**
+     * @return the API keys that have the trusted rate limit (e.g. our own applications)
+     */
+    public String[] getRateLimitTrustedKeys() {
+        return (rateLimitTrustedKeys == null ? null : rateLimitTrustedKeys.clone());
+    }
+
+    /**
+     * @return the number of requests per second that trusted API keys may send on average, 0 means no limit
+     */
+    public double getRateLimitTrustedRate() {
+        return rateLimitTrustedRate;
+    }
+
+    /**
+     * @return the maximum number of requests that trusted API keys may send in one burst
+     */
+    public int getRateLimitTrustedBurst() {
+        return rateLimitTrustedBurst;
+    }
+
+    /**
+     * @return the number of requests per second that an API key that is not (yet) known to be valid may send on
+     * average
+     */
+    public double getRateLimitUnknownRate() {
+        return rateLimitUnknownRate;
+    }
+
+    /**
+     * @return the maximum number of requests that an API key that is not (yet) known to be valid may send in one
+     * burst
+     */
+    public int getRateLimitUnknownBurst() {
+        return rateLimitUnknownBurst;
+    }
+
+    /**
+     * @return the maximum number of streaming requests that one API key may have in progress at the same time, 0 for
+     * no limit
+     */
+    public int getRateLimitMaxStreams() {
+        return rateLimitMaxStreams;
+    }
+
+    /**
+     * @return the maximum number of API keys for which we keep track of the rate limit
+     */
+    public int getRateLimitMaxKeys() {
+        return rateLimitMaxKeys;
+    }
+
+    /**
+     * @return the number of seconds after which we forget the rate limit state of an API key that isn't used
+     */
+    public int getRateLimitIdleTime() {
+        return rateLimitIdleTime;
+    }
+
+    /**
+     * @return the number of seconds ranked recommendation candidates are cached for pagination, 0 means disabled
+     */
+    public int getCandidateCacheTtl() {
+        return candidateCacheTtl;
+    }
+
+    /**
+     * @return the maximum total number of recommendation candidates that are cached
+     */
+    public int getCandidateCacheMaxCandidates() {
+        return candidateCacheMaxCandidates;
+    }
+
+    /**
+     * @return the minimum number of recommendation candidates we generate for a record or set, so later pages can be
+     * returned from the candidate cache
+     */
+    public int getCandidateOversampleSize() {
+        return candidateOversampleSize;
+    }
+
+    /**
+     * @return the maximum number of records for which recommendations are generated concurrently when streaming
+     * recommendations for many records
+     */
+    public int getStreamConcurrency() {
+        return streamConcurrency;
+    }
+
+    /**
+     * @return true if blocking requests (and request handling in an embedded server) should run on virtual threads,
+     * otherwise false
+     */
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * @return true if Search API responses should be streamed to our clients as-is (without deserializing them)
+     */
+    public boolean isSearchApiPassthrough() {
+        return searchApiPassthrough;
+    }
+
+    /**
+     * @return the maximum number of records we request from Search API in one query, 0 means no maximum
+     */
+    public int getSearchApiChunkSize() {
+        return searchApiChunkSize;
+    }
+
+    /**
+     * @return true if we should send hedged requests when generating responses with Search API
+     */
+    public boolean isSearchApiHedgeEnabled() {
+        return searchApiHedgeEnabled;
+    }
+
+    /**
+     * @return the fixed delay (in ms) after which a hedged request is sent, 0 means we use an observed percentile
+     */
+    public int getSearchApiHedgeDelayMs() {
+        return searchApiHedgeDelayMs;
+    }
+
+    /**
+     * @return the Search API response time percentile after which a hedged request is sent
+     */
+    public double getSearchApiHedgePercentile() {
+        return searchApiHedgePercentile;
+    }
+
+    /**
+     * @return the maximum number of hedged requests as percentage of all requests
+     */
+    public double getSearchApiHedgeBudgetPercentage() {
+        return searchApiHedgeBudgetPercentage;
+    }
+
     public Integer getWebClientMaxMemMb() {
         return webClientMaxMemMb;
     }
 
+    /**
+     * @return the percentile of observed response times that is used to calculate request timeouts
+     */
+    public Double getWebClientTimeoutPercentile() {
+        return webClientTimeoutPercentile;
+    }
+
+    /**
+     * @return the factor with which the response time percentile is multiplied to calculate request timeouts
+     */
+    public Double getWebClientTimeoutFactor() {
+        return webClientTimeoutFactor;
+    }
+
+    /**
+     * @return the minimum request timeout in milliseconds
+     */
+    public Integer getWebClientTimeoutMinMs() {
+        return webClientTimeoutMinMs;
+    }
+
+    /**
+     * @return the maximum request timeout in milliseconds
+     */
+    public Integer getWebClientTimeoutMaxMs() {
+        return webClientTimeoutMaxMs;
+    }
+
+    /**
+     * @return the maximum request timeout for Embeddings API in milliseconds
+     */
+    public Integer getEmbeddingsApiTimeoutMaxMs() {
+        return embeddingsApiTimeoutMaxMs;
+    }
+
+    /**
+     * @return true if webclients should try to use HTTP/2 (over TLS) for https endpoints
+     */
+    public boolean isWebClientHttp2Enabled() {
+        return webClientHttp2Enabled;
+    }
+
+    /**
+     * @return true if webclients should try to use HTTP/2 cleartext (h2c) for http endpoints
+     */
+    public boolean isWebClientH2cEnabled() {
+        return webClientH2cEnabled;
+    }
+
+    /**
+     * @return the maximum number of HTTP/2 connections per upstream API
+     */
+    public int getWebClientHttp2MaxConnections() {
+        return webClientHttp2MaxConnections;
+    }
+
+    /**
+     * @return the maximum number of concurrent streams per HTTP/2 connection
+     */
+    public int getWebClientHttp2MaxStreams() {
+        return webClientHttp2MaxStreams;
+    }
+
+    /**
+     * @return true if we should cache complete recommendation responses
+     */
+    public boolean isResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    /**
+     * @return the number of seconds after which a cached response is refreshed in the background
+     */
+    public int getResponseCacheTtl() {
+        return responseCacheTtl;
+    }
+
+    /**
+     * @return the maximum age (in seconds) of a cached response that we return
+     */
+    public int getResponseCacheMaxStale() {
+        return responseCacheMaxStale;
+    }
+
+    /**
+     * @return the maximum total size (in MB) of all cached responses
+     */
+    public int getResponseCacheMaxSizeMb() {
+        return responseCacheMaxSizeMb;
+    }
+
+    /**
+     * @return the number of most popular cached responses that are refreshed before they become stale, 0 means no
+     * responses are refreshed in advance
+     */
+    public int getResponseCachePrewarmTopN() {
+        return responseCachePrewarmTopN;
+    }
+
+    /**
+     * @return the number of seconds between checks for popular cached responses that need to be refreshed
+     */
+    public int getResponseCachePrewarmInterval() {
+        return responseCachePrewarmInterval;
+    }
+
+    /**
+     * @return the maximum number of popular cached responses that are refreshed in one check
+     */
+    public int getResponseCachePrewarmMaxPerRun() {
+        return responseCachePrewarmMaxPerRun;
+    }
+
+    /**
+     * @return the maximum number of popular cached responses that are refreshed concurrently
+     */
+    public int getResponseCachePrewarmConcurrency() {
+        return responseCachePrewarmConcurrency;
+    }
+
+    /**
+     * @return true if identical requests that arrive while the same request is in flight should wait for the result
+     * of that request, instead of generating the same response again
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return requestCoalescingEnabled;
+    }
+
+    /**
+     * @return the max-age (in seconds) of the Cache-Control header of recommendation responses, 0 means clients
+     * always have to revalidate
+     */
+    public int getHttpCacheMaxAge() {
+        return httpCacheMaxAge;
+    }
+
+    /**
+     * @return the s-maxage (in seconds) of the Cache-Control header of recommendation responses, used by shared caches
+     * (e.g. a CDN). 0 means no s-maxage is set
+     */
+    public int getHttpCacheSMaxAge() {
+        return httpCacheSMaxAge;
+    }
+
+    /**
+     * @return optional version value that's included in all ETags (together with the Milvus collection name). Change
+     * this to invalidate all ETags, e.g. when the data in the Milvus collection was replaced
+     */
+    public String getHttpETagVersion() {
+        return httpETagVersion;
+    }
+
+    /**
+     * @return the number of seconds we remember that a record doesn't exist, 0 means we don't cache this
+     */
+    public int getNotFoundCacheRecordTtl() {
+        return notFoundCacheRecordTtl;
+    }
+
+    /**
+     * @return the number of seconds we remember that a set doesn't exist, 0 means we don't cache this
+     */
+    public int getNotFoundCacheSetTtl() {
+        return notFoundCacheSetTtl;
+    }
+
+    /**
+     * @return the number of seconds we remember that an entity doesn't exist, 0 means we don't cache this
+     */
+    public int getNotFoundCacheEntityTtl() {
+        return notFoundCacheEntityTtl;
+    }
+
+    /**
+     * @return the maximum number of not found ids we remember (per type)
+     */
+    public int getNotFoundCacheMaxSize() {
+        return notFoundCacheMaxSize;
+    }
+
+    /**
+     * @return the location of the local item store file (memory-mapped), empty if no local store is used
+     */
+    public String getItemStoreFile() {
+        return itemStoreFile;
+    }
+
+    /**
+     * @return the location of a json lines file with item metadata (1 item per line) from which the local item store
+     * file is built, empty if the item store file is built elsewhere
+     */
+    public String getItemStoreSourceFile() {
+        return itemStoreSourceFile;
+    }
+
+    /**
+     * @return the interval (in minutes) at which we check if the local item store needs to be reloaded
+     */
+    public int getItemStoreRefreshMinutes() {
+        return itemStoreRefreshMinutes;
+    }
+
+    /**
+     * @return the location of the record existence filter file (memory-mapped), empty if no filter is used
+     */
+    public String getRecordFilterFile() {
+        return recordFilterFile;
+    }
+
+    /**
+     * @return the location of a text file with all known record ids (1 per line) from which the record existence
+     * filter file is built, empty if the filter file is built elsewhere
+     */
+    public String getRecordFilterIdsFile() {
+        return recordFilterIdsFile;
+    }
+
+    /**
+     * @return the false positive probability of a record existence filter that's built from an ids file
+     */
+    public double getRecordFilterFpp() {
+        return recordFilterFpp;
+    }
+
+    /**
+     * @return the interval (in minutes) at which we check if the record existence filter needs to be reloaded
+     */
+    public int getRecordFilterRefreshMinutes() {
+        return recordFilterRefreshMinutes;
+    }
+
     @PostConstruct
     private void validateAndLogSettings() {
         searchApiEndpoint = addProtocolIfMissing(addTrailingSlashIfMissing(searchApiEndpoint));
@@ -100,10 +856,32 @@ public class RecommendSettings {
 
         LOG.info("Recommendation API settings:");
         LOG.info("  Milvus {}:{}, collection {}", milvusHostName, milvusPort, milvusCollection);
+        LOG.info("  Virtual threads enabled: {}", virtualThreadsEnabled);
         LOG.info("  Embeddings endpoint: {}", embeddingsApiEndpoint);
-        LOG.info("  Search API endpoint: {}", searchApiEndpoint);
+        LOG.info("  Search API endpoint: {}, passthrough = {}", searchApiEndpoint, searchApiPassthrough);
         LOG.info("  Set    API endpoint: {}", setApiEndpoint);
         LOG.info("  Entity API endpoint: {}", entityApiEndpoint);
+        LOG.info("  HTTP/2 enabled: {}, h2c enabled: {}", webClientHttp2Enabled, webClientH2cEnabled);
+        LOG.info("  Record filter file: {}", recordFilterFile);
+        LOG.info("  Item store file: {}", itemStoreFile);
+        LOG.info("  Response cache enabled: {}, ttl = {}s, max stale = {}s", responseCacheEnabled, responseCacheTtl,
+                responseCacheMaxStale);
+        LOG.info("  Response cache pre-warming top {} every {}s, max {} per run, concurrency = {}",
+                responseCachePrewarmTopN, responseCachePrewarmInterval, responseCachePrewarmMaxPerRun,
+                responseCachePrewarmConcurrency);
+        LOG.info("  Request coalescing enabled: {}", requestCoalescingEnabled);
+        LOG.info("  Request deadlines record = {}ms, set = {}ms, entity = {}ms, reserve = {}ms", requestDeadlineRecord,
+                requestDeadlineSet, requestDeadlineEntity, requestDeadlineReserve);
+        LOG.info("  Concurrency limit enabled: {}, initial = {}, min = {}, max = {}", concurrencyLimitEnabled,
+                concurrencyLimitInitial, concurrencyLimitMin, concurrencyLimitMax);
+        LOG.info("  Bulkheads (max concurrent/queue) record = {}/{}, set = {}/{}, entity = {}/{}",
+                bulkheadRecordMaxConcurrent, bulkheadRecordMaxQueue, bulkheadSetMaxConcurrent, bulkheadSetMaxQueue,
+                bulkheadEntityMaxConcurrent, bulkheadEntityMaxQueue);
+        LOG.info("  Rate limit enabled: {}, default = {}/s (burst {}), trusted = {}/s (burst {}) for {} keys, "
+                + "unknown keys = {}/s (burst {}), max streams = {}", rateLimitEnabled, rateLimitDefaultRate, rateLimitDefaultBurst,
+                rateLimitTrustedRate, rateLimitTrustedBurst, (rateLimitTrustedKeys == null ? 0 : rateLimitTrustedKeys.length),
+                rateLimitUnknownRate, rateLimitUnknownBurst, rateLimitMaxStreams);
+        LOG.info("  HTTP cache max-age = {}s, s-maxage = {}s", httpCacheMaxAge, httpCacheSMaxAge);
     }
 
     private String addProtocolIfMissing(String hostName) {
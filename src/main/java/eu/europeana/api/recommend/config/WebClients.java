@@ -1,18 +1,30 @@
 package eu.europeana.api.recommend.config;
 
+import eu.europeana.api.recommend.exception.DeadlineExceededException;
+import eu.europeana.api.recommend.util.Deadline;
+import eu.europeana.api.recommend.util.ResilienceUtils;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.Http2AllocationStrategy;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientRequest;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Configures the various webclients we use to send/receive data.
@@ -24,53 +36,92 @@ public class WebClients {
 
     private static final int BYTES_PER_MB = 1024 * 1024;
 
-    // TODO for now we set a timeout for all request of 10 seconds
-    private static final int TIMEOUT = 10;
-
     private RecommendSettings config;
     private BuildInfo buildInfo;
+    private MeterRegistry meterRegistry;
     // defaults to 10; will be overwritten when defined in properties
     private int maxMemSizeMb = 10;
+    // timeout defaults; will be overwritten when defined in properties
+    private double timeoutPercentile = 0.99;
+    private double timeoutFactor = 2;
+    private int timeoutMinMs = 1000;
+    private int timeoutMaxMs = 10_000;
+    private int embeddingsTimeoutMaxMs = 30_000;
 
+    private final Map<String, AdaptiveTimeout> timeouts = new ConcurrentHashMap<>();
 
-    public WebClients(RecommendSettings config, BuildInfo buildInfo) {
+    public WebClients(RecommendSettings config, BuildInfo buildInfo, MeterRegistry meterRegistry) {
         this.config = config;
         this.buildInfo = buildInfo;
+        this.meterRegistry = meterRegistry;
         if (null != config.getWebClientMaxMemMb()){
             maxMemSizeMb = config.getWebClientMaxMemMb();
         }
+        if (null != config.getWebClientTimeoutPercentile()) {
+            timeoutPercentile = config.getWebClientTimeoutPercentile();
+        }
+        if (null != config.getWebClientTimeoutFactor()) {
+            timeoutFactor = config.getWebClientTimeoutFactor();
+        }
+        if (null != config.getWebClientTimeoutMinMs()) {
+            timeoutMinMs = config.getWebClientTimeoutMinMs();
+        }
+        if (null != config.getWebClientTimeoutMaxMs()) {
+            timeoutMaxMs = config.getWebClientTimeoutMaxMs();
+        }
+        if (null != config.getEmbeddingsApiTimeoutMaxMs()) {
+            embeddingsTimeoutMaxMs = config.getEmbeddingsApiTimeoutMaxMs();
+        }
     }
 
     @Bean
     public WebClient getSearchApiClient() {
-        return createWebClient(config.getSearchApiEndpoint());
+        // hedged requests are sent after the Search API latency at the configured percentile, so we track that as well
+        if (config.isSearchApiHedgeEnabled()) {
+            return createWebClient(ResilienceUtils.SEARCH_API, config.getSearchApiEndpoint(), timeoutMaxMs,
+                    config.getSearchApiHedgePercentile());
+        }
+        return createWebClient(ResilienceUtils.SEARCH_API, config.getSearchApiEndpoint(), timeoutMaxMs);
     }
 
     @Bean
     public WebClient getEntityApiClient() {
-        return createWebClient(config.getEntityApiEndpoint());
+        return createWebClient(ResilienceUtils.ENTITY_API, config.getEntityApiEndpoint(), timeoutMaxMs);
     }
 
     @Bean
     public WebClient getSetApiClient() {
-        return createWebClient(config.getSetApiEndpoint());
+        return createWebClient(ResilienceUtils.SET_API, config.getSetApiEndpoint(), timeoutMaxMs);
     }
 
     @Bean
     public WebClient getEmbeddingsClient() {
-        return createWebClient(config.getEmbeddingsApiEndpoint());
+        return createWebClient(ResilienceUtils.EMBEDDINGS_API, config.getEmbeddingsApiEndpoint(), embeddingsTimeoutMaxMs);
+    }
+
+    /**
+     * Return the adaptive timeout used by the webclient of a particular backend system
+     * @param backend name of the backend system (see {@link ResilienceUtils})
+     * @return adaptive timeout, or null if there is no webclient for the provided backend
+     */
+    public AdaptiveTimeout getAdaptiveTimeout(String backend) {
+        return timeouts.get(backend);
     }
 
-    private WebClient createWebClient(String endpoint) {
-        return getApiClient(endpoint, true, maxMemSizeMb, TIMEOUT);
+    private WebClient createWebClient(String backend, String endpoint, int maxTimeoutMs, double... extraPercentiles) {
+        AdaptiveTimeout timeout = timeouts.computeIfAbsent(backend, name -> new AdaptiveTimeout(name, meterRegistry,
+                timeoutPercentile, timeoutFactor, Duration.ofMillis(Math.min(timeoutMinMs, maxTimeoutMs)),
+                Duration.ofMillis(maxTimeoutMs), extraPercentiles));
+        return getApiClient(backend, endpoint, true, maxMemSizeMb, timeout);
     }
 
-    private WebClient getApiClient(String apiEndpoint, boolean exchangeStrategy, int maxMemSizeMB, int timeoutInSec) {
+    private WebClient getApiClient(String backend, String apiEndpoint, boolean exchangeStrategy, int maxMemSizeMB,
+                                   AdaptiveTimeout timeout) {
         LOG.debug("Creating webclient for {}", apiEndpoint);
         WebClient.Builder webClientBuilder = WebClient.builder()
-                .clientConnector(new ReactorClientHttpConnector(HttpClient.create()
+                .clientConnector(new ReactorClientHttpConnector(createHttpClient(apiEndpoint)
                         .compress(true)
-                        .responseTimeout(Duration.ofSeconds(timeoutInSec))));
+                        .responseTimeout(timeout.getMaxTimeout())));
         if (exchangeStrategy) {
              webClientBuilder.exchangeStrategies(ExchangeStrategies.builder()
                     .codecs(configurer -> configurer
@@ -81,15 +132,80 @@ public class WebClients {
         return webClientBuilder
                 .baseUrl(apiEndpoint)
                 .defaultHeader(HttpHeaders.USER_AGENT, generateUserAgentName())
+                .filter(adaptiveTimeout(backend, timeout))
                 .filter(logRequest())
                 .filter(logResponse())
                 .build();
     }
 
+    /**
+     * Creates a Reactor Netty HttpClient. If enabled we use HTTP/2 (h2 for https endpoints, h2c for http endpoints)
+     * with HTTP/1.1 as fallback when the server can't negotiate HTTP/2. With HTTP/2 all requests to the same API are
+     * multiplexed over a small number of connections, so we need fewer TLS handshakes and sockets.
+     */
+    private HttpClient createHttpClient(String apiEndpoint) {
+        boolean isHttps = apiEndpoint != null && apiEndpoint.toLowerCase(Locale.GERMAN).startsWith("https://");
+        HttpProtocol http2Protocol = null;
+        if (isHttps && config.isWebClientHttp2Enabled()) {
+            http2Protocol = HttpProtocol.H2;
+        } else if (!isHttps && apiEndpoint != null && config.isWebClientH2cEnabled()) {
+            http2Protocol = HttpProtocol.H2C;
+        }
+        if (http2Protocol == null) {
+            return HttpClient.create();
+        }
+
+        LOG.info("Using {} for {}", http2Protocol, apiEndpoint);
+        ConnectionProvider provider = ConnectionProvider.builder("http2-" + apiEndpoint)
+                .allocationStrategy(Http2AllocationStrategy.builder()
+                        .minConnections(1)
+                        .maxConnections(Math.max(1, config.getWebClientHttp2MaxConnections()))
+                        .maxConcurrentStreams(Math.max(1, config.getWebClientHttp2MaxStreams()))
+                        .build())
+                .build();
+        return HttpClient.create(provider).protocol(http2Protocol, HttpProtocol.HTTP11);
+    }
+
     private String generateUserAgentName() {
         return buildInfo.getAppName() + " v" + buildInfo.getAppVersion();
     }
 
+    /**
+     * Sets the response timeout of each request to the current adaptive timeout value and records the response time
+     * of each request (including failed ones, so the timeout can grow again when a backend becomes slower).
+     * If the request has a deadline, the response timeout is limited to the remaining time of the deadline. Requests
+     * that were cut short by the deadline are not recorded, because their response time says nothing about the backend.
+     */
+    private ExchangeFilterFunction adaptiveTimeout(String backend, AdaptiveTimeout timeout) {
+        return (clientRequest, next) -> Mono.deferContextual(context -> {
+            Duration adaptiveTimeout = timeout.getTimeout();
+            Duration responseTimeout = adaptiveTimeout;
+            Deadline deadline = Deadline.from(context);
+            if (deadline != null) {
+                if (deadline.isExpired()) {
+                    return Mono.error(new DeadlineExceededException(backend));
+                }
+                responseTimeout = deadline.limit(responseTimeout);
+            }
+            Duration finalResponseTimeout = responseTimeout;
+            boolean limitedByDeadline = responseTimeout.compareTo(adaptiveTimeout) < 0;
+            ClientRequest request = ClientRequest.from(clientRequest)
+                    .httpRequest(httpRequest -> {
+                        HttpClientRequest reactorRequest = httpRequest.getNativeRequest();
+                        reactorRequest.responseTimeout(finalResponseTimeout);
+                    })
+                    .build();
+            long start = System.nanoTime();
+            return next.exchange(request)
+                    .doOnSuccess(response -> timeout.record(System.nanoTime() - start))
+                    .doOnError(e -> {
+                        if (!limitedByDeadline) {
+                            timeout.record(System.nanoTime() - start);
+                        }
+                    });
+        });
+    }
+
     private ExchangeFilterFunction logRequest() {
         return (clientRequest, next) -> {
             LOG.debug("Request: {} {}", clientRequest.method(), clientRequest.url());
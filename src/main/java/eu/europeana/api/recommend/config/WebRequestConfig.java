@@ -1,7 +1,11 @@
 package eu.europeana.api.recommend.config;
 
+import eu.europeana.api.recommend.web.ConcurrencyLimitFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.web.filter.CorsFilter;
@@ -9,9 +13,10 @@ import org.springframework.web.servlet.config.annotation.ContentNegotiationConfi
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import java.util.Collections;
+import java.util.List;
 
 /**
- * Setup CORS for all requests
+ * Setup CORS for all requests and the concurrency limit for recommendation requests
  *
  * @author Patrick Ehlert
  * Created on 23 Jul 2020
@@ -38,6 +43,14 @@ public class WebRequestConfig {
             public void configureContentNegotiation(ContentNegotiationConfigurer configurer) {
                configurer.favorPathExtension(true);
             }
+
+            /**
+             * Make sure raw (streamed) Search API responses are written as-is
+             */
+            @Override
+            public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+                converters.add(0, new RawSearchApiResponseConverter());
+            }
         };
     }
 
@@ -59,4 +72,19 @@ public class WebRequestConfig {
         source.registerCorsConfiguration("/**", config);
         return new CorsFilter(source);
     }
+
+    /**
+     * Limit the number of concurrent recommendation requests, other requests (e.g. actuator or Swagger) are not limited
+     * @param settings application settings
+     * @param meterRegistry registry for the concurrency limit metrics
+     * @return FilterRegistrationBean
+     */
+    @Bean
+    public FilterRegistrationBean<ConcurrencyLimitFilter> concurrencyLimitFilter(RecommendSettings settings,
+                                                                                 MeterRegistry meterRegistry) {
+        FilterRegistrationBean<ConcurrencyLimitFilter> registration =
+                new FilterRegistrationBean<>(new ConcurrencyLimitFilter(settings, meterRegistry));
+        registration.addUrlPatterns("/recommend/*", "/record/*", "/set/*", "/entity/*");
+        return registration;
+    }
 }
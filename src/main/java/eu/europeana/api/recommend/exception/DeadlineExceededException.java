@@ -0,0 +1,24 @@
+package eu.europeana.api.recommend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception that is thrown when the time budget of a request is used up before we could send a request to a
+ * required backend system
+ *
+ * @author Patrick Ehlert
+ */
+@ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+public class DeadlineExceededException extends RecommendException {
+
+    public DeadlineExceededException(String backend) {
+        super("Request deadline exceeded before sending request to " + backend);
+    }
+
+    @Override
+    public boolean logStacktrace() {
+        return false;
+    }
+
+}
@@ -0,0 +1,29 @@
+package eu.europeana.api.recommend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception that is thrown when there are already too many requests in progress (and waiting) for a type of
+ * recommendations
+ *
+ * @author Patrick Ehlert
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class EndpointBusyException extends RecommendException {
+
+    public EndpointBusyException(String type) {
+        super("Too many " + type + " recommendation requests in progress, please try again later");
+    }
+
+    @Override
+    public boolean doLog() {
+        return false;
+    }
+
+    @Override
+    public boolean logStacktrace() {
+        return false;
+    }
+
+}
@@ -6,11 +6,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.europeana.api.commons_sb3.error.EuropeanaGlobalExceptionHandler;
 import eu.europeana.api.recommend.config.RecommendSettings;
 import eu.europeana.api.recommend.model.SearchApiError;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.micrometer.core.instrument.util.StringEscapeUtils;
 import io.micrometer.core.instrument.util.StringUtils;
 import jakarta.servlet.http.HttpServletResponse;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.MissingRequestHeaderException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -77,6 +80,31 @@ public class GlobalExceptionHandler extends EuropeanaGlobalExceptionHandler {
         response.sendError(HttpStatus.BAD_GATEWAY.value(), StringEscapeUtils.escapeJson(e.getMessage()));
     }
 
+    /**
+     * Return 429 with a Retry-After header when an API key sent too many requests
+     * @param e caught {@link RateLimitExceededException}
+     * @param response the response of the failing request
+     * @throws IOException if there's an error sending back the response
+     */
+    @ExceptionHandler
+    public void handleRateLimitExceeded(RateLimitExceededException e, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), StringEscapeUtils.escapeJson(e.getMessage()));
+    }
+
+    /**
+     * Return 503 instead of 500 when we don't send a request to a backend system, because its circuit breaker is open
+     * or because there are already too many concurrent requests to that system
+     * @param e caught {@link CallNotPermittedException} or {@link BulkheadFullException}
+     * @param response the response of the failing request
+     * @throws IOException if there's an error sending back the response
+     */
+    @ExceptionHandler({CallNotPermittedException.class, BulkheadFullException.class})
+    public void handleBackendUnavailable(RuntimeException e, HttpServletResponse response) throws IOException {
+        LOG.warn("Backend system unavailable: {}", e.getMessage());
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), StringEscapeUtils.escapeJson(e.getMessage()));
+    }
+
     /**
      * Handle all exceptions from API backend systems (WebClient calls) and return 502 response instead
      * @param ex caught {@link WebClientResponseException}
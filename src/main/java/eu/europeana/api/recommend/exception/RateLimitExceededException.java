@@ -0,0 +1,42 @@
+package eu.europeana.api.recommend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception that is thrown when an API key sent more requests than it's allowed to
+ *
+ * @author Patrick Ehlert
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class RateLimitExceededException extends RecommendException {
+
+    private final int retryAfterSeconds;
+
+    public RateLimitExceededException(int retryAfterSeconds) {
+        this("Too many requests, please try again in " + retryAfterSeconds + " seconds", retryAfterSeconds);
+    }
+
+    protected RateLimitExceededException(String msg, int retryAfterSeconds) {
+        super(msg);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the number of seconds after which the client may send a new request
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public boolean doLog() {
+        return false;
+    }
+
+    @Override
+    public boolean logStacktrace() {
+        return false;
+    }
+
+}
@@ -0,0 +1,23 @@
+package eu.europeana.api.recommend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception that is thrown when we receive more record ids in a batch request than we allow
+ *
+ * @author Patrick Ehlert
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class TooManyRecordIdsException extends RecommendException {
+
+    public TooManyRecordIdsException(int nrIds, int maxIds) {
+        super("Too many record ids: " + nrIds + ", maximum is " + maxIds);
+    }
+
+    @Override
+    public boolean logStacktrace() {
+        return false;
+    }
+
+}
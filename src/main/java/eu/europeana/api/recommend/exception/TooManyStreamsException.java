@@ -0,0 +1,19 @@
+package eu.europeana.api.recommend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception that is thrown when an API key starts a new streaming request while it already has the maximum number of
+ * streaming requests in progress
+ *
+ * @author Patrick Ehlert
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class TooManyStreamsException extends RateLimitExceededException {
+
+    public TooManyStreamsException(int maxStreams, int retryAfterSeconds) {
+        super("Too many streaming requests in progress, maximum is " + maxStreams, retryAfterSeconds);
+    }
+
+}
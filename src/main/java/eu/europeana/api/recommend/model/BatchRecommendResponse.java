@@ -0,0 +1,47 @@
+package eu.europeana.api.recommend.model;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Response containing recommendations for several records
+ *
+ * @author Patrick Ehlert
+ */
+public class BatchRecommendResponse implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = -3090516617482630871L;
+
+    private final String apikey;
+    private boolean success = true;
+    @SuppressWarnings("java:S1948") // we only use serializable lists
+    private final List<RecordRecommendations> results;
+
+    /**
+     * Initialize a new response
+     * @param apikey API key to include in the response
+     * @param results the recommendations per record, in the order in which the records were requested
+     */
+    public BatchRecommendResponse(String apikey, List<RecordRecommendations> results) {
+        this.apikey = apikey;
+        this.results = List.copyOf(results);
+    }
+
+    public String getApikey() {
+        return apikey;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public int getResultsCount() {
+        return results.size();
+    }
+
+    public List<RecordRecommendations> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,37 @@
+package eu.europeana.api.recommend.model;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.Serial;
+
+/**
+ * Search API response that is not deserialized, but contains the raw (json) response body as it is received from
+ * Search API. This allows us to stream the response straight to our own client without building an object graph
+ * and serializing it again.
+ * Note that the body can only be written once and that the other fields of this object (e.g. itemsCount) are not set.
+ */
+public class RawSearchApiResponse extends SearchApiResponse {
+
+    @Serial
+    private static final long serialVersionUID = 2474195745391830211L;
+
+    private final transient Publisher<DataBuffer> body;
+
+    /**
+     * Initialize a new raw Search API response
+     * @param apikey the API key that was used for the request
+     * @param body publisher of the response body data
+     */
+    public RawSearchApiResponse(String apikey, Publisher<DataBuffer> body) {
+        super(apikey);
+        this.body = body;
+    }
+
+    /**
+     * @return the publisher of the raw response body
+     */
+    public Publisher<DataBuffer> getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,66 @@
+package eu.europeana.api.recommend.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Recommendations for 1 record, as part of a {@link BatchRecommendResponse} or a stream of recommendations
+ *
+ * @author Patrick Ehlert
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RecordRecommendations implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 2417264528405617853L;
+
+    private final String id;
+    private final int itemsCount;
+    @SuppressWarnings("java:S1948") // Jackson will make sure we use a serializable map
+    private final Map[] items;
+    private final String error;
+
+    /**
+     * Initialize new recommendations for a record
+     * @param id the Europeana id of the record for which we recommend items
+     * @param items the recommended items
+     */
+    public RecordRecommendations(String id, Map[] items) {
+        this(id, items, null);
+    }
+
+    /**
+     * Initialize new recommendations for a record for which we couldn't generate recommendations
+     * @param id the Europeana id of the record for which we recommend items
+     * @param error message describing why there are no recommendations
+     */
+    public RecordRecommendations(String id, String error) {
+        this(id, new Map[0], error);
+    }
+
+    private RecordRecommendations(String id, Map[] items, String error) {
+        this.id = id;
+        this.items = items.clone();
+        this.itemsCount = items.length;
+        this.error = error;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getItemsCount() {
+        return itemsCount;
+    }
+
+    public Map[] getItems() {
+        return items.clone();
+    }
+
+    public String getError() {
+        return error;
+    }
+}
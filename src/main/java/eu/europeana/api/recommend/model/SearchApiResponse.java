@@ -1,5 +1,7 @@
 package eu.europeana.api.recommend.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.LinkedHashMap;
@@ -19,6 +21,10 @@ public class SearchApiResponse implements Serializable {
     protected int      totalResults  = 0 ;
     @SuppressWarnings("java:S1948") // Jackson will make sure we use a serializable map
     private Map[] items = new LinkedHashMap[0];
+    @JsonIgnore
+    private String contentHash;
+    @JsonIgnore
+    private boolean partial;
 
     SearchApiResponse() {
         // empty constructor required by Jackson
@@ -32,6 +38,18 @@ public class SearchApiResponse implements Serializable {
         this.apikey = apikey;
     }
 
+    /**
+     * Initialize a new Search API response with the provided API key and items
+     * @param apikey API key to include in the response
+     * @param items the items to include in the response
+     */
+    public SearchApiResponse(String apikey, Map[] items) {
+        this.apikey = apikey;
+        this.items = items.clone();
+        this.itemsCount = items.length;
+        this.totalResults = items.length;
+    }
+
     public String getApikey() {
         return apikey;
     }
@@ -52,4 +70,36 @@ public class SearchApiResponse implements Serializable {
         return items.clone();
     }
 
+    /**
+     * @return hash of the recommended content (used to generate an ETag), or null if there is none. The hash is not
+     * part of the response json
+     */
+    @JsonIgnore
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash hash of the recommended content, see also ETagUtils
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return true if optional recommendations were skipped because of the request deadline, otherwise false. Partial
+     * responses should not be cached. This is not part of the response json
+     */
+    @JsonIgnore
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @param partial true if optional recommendations were skipped because of the request deadline
+     */
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
 }
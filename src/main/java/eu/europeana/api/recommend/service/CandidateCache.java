@@ -0,0 +1,87 @@
+package eu.europeana.api.recommend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.model.Recommendation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Short-lived in-memory cache of ranked recommendation candidates (a cursor), so we can return later pages of
+ * recommendations for a record, set or entity without generating recommendations (with Milvus) again.
+ * When we generate recommendations we ask for more candidates than needed for the requested page, so usually the
+ * first request fills the cache and subsequent pages only need a Search API request.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class CandidateCache {
+
+    /**
+     * Ranked list of candidate recommendations
+     * @param recommendations candidates, most relevant first
+     * @param complete true if there are no more candidates than the ones in the list, false if there may be more
+     */
+    public record Candidates(List<Recommendation> recommendations, boolean complete) {}
+
+    private static final Logger LOG = LogManager.getLogger(CandidateCache.class);
+
+    private record Key(NotFoundCache.Type type, String id) {}
+
+    private final int oversampleSize;
+    private Cache<Key, Candidates> cache;
+
+    @Autowired
+    public CandidateCache(RecommendSettings settings, MeterRegistry meterRegistry) {
+        this.oversampleSize = settings.getCandidateOversampleSize();
+        if (settings.getCandidateCacheTtl() <= 0 || settings.getCandidateCacheMaxCandidates() <= 0) {
+            LOG.info("Candidate cache is disabled");
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(settings.getCandidateCacheTtl()))
+                .maximumWeight(settings.getCandidateCacheMaxCandidates())
+                .weigher((Key key, Candidates candidates) -> Math.max(1, candidates.recommendations().size()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "candidates", Tags.empty());
+    }
+
+    /**
+     * @return the minimum number of candidates we should generate when there are no cached candidates
+     */
+    public int getOversampleSize() {
+        return oversampleSize;
+    }
+
+    /**
+     * Return the cached candidates for a record, set or entity
+     * @param type the type of id
+     * @param id the id of the record, set or entity
+     * @return cached candidates, or null if nothing is cached
+     */
+    public Candidates get(NotFoundCache.Type type, String id) {
+        return (cache == null ? null : cache.getIfPresent(new Key(type, id)));
+    }
+
+    /**
+     * Store the candidates for a record, set or entity
+     * @param type the type of id
+     * @param id the id of the record, set or entity
+     * @param candidates the candidates to store
+     */
+    public void put(NotFoundCache.Type type, String id, Candidates candidates) {
+        if (cache != null) {
+            cache.put(new Key(type, id), candidates);
+        }
+    }
+}
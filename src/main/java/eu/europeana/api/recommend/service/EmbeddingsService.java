@@ -7,6 +7,11 @@ import eu.europeana.api.recommend.config.WebClients;
 import eu.europeana.api.recommend.model.Entity;
 import eu.europeana.api.recommend.model.Set;
 import eu.europeana.api.recommend.util.LangUtils;
+import eu.europeana.api.recommend.util.ResilienceUtils;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,10 +36,14 @@ public class EmbeddingsService {
     private static final Logger LOG = LogManager.getLogger(EmbeddingsService.class);
 
     WebClient webClient;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
 
     @Autowired
-    EmbeddingsService(WebClients webclients) {
+    EmbeddingsService(WebClients webclients, CircuitBreakerRegistry circuitBreakers, BulkheadRegistry bulkheads) {
         this.webClient = webclients.getEmbeddingsClient();
+        this.circuitBreaker = circuitBreakers.circuitBreaker(ResilienceUtils.EMBEDDINGS_API);
+        this.bulkhead = bulkheads.bulkhead(ResilienceUtils.EMBEDDINGS_API);
     }
 
     /**
@@ -116,11 +125,11 @@ public class EmbeddingsService {
     private Mono<EmbeddingResponse> doRequest(EmbeddingRecord embedding) {
         EmbeddingRecord[] embeddings = new EmbeddingRecord[1];
         embeddings[0] = embedding;
-        return webClient.post()
+        return ResilienceUtils.decorate(webClient.post()
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .bodyValue(new EmbeddingRequestData(embeddings))
                 .retrieve()
-                .bodyToMono(EmbeddingResponse.class);
+                .bodyToMono(EmbeddingResponse.class), circuitBreaker, bulkhead);
     }
 
     /**
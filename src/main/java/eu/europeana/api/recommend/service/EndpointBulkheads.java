@@ -0,0 +1,101 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.exception.EndpointBusyException;
+import eu.europeana.api.recommend.util.ReactiveBulkhead;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Every type of recommendation (record, set, entity) gets its own concurrency quota and waiting queue, so a slow
+ * backend for one type (e.g. Set API or Entity API) can only use up that type's share of our (and Milvus') capacity.
+ * Record recommendations then keep their latency when set or entity requests pile up.
+ * We don't use separate thread pools, because requests are handled asynchronously and don't hold a thread while
+ * waiting; instead we limit the number of recommendation rankings in progress with a {@link ReactiveBulkhead}.
+ * For each type the number of active and waiting requests, and the number of rejected requests are available as
+ * metrics.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class EndpointBulkheads {
+
+    private static final Logger LOG = LogManager.getLogger(EndpointBulkheads.class);
+
+    private static final String TAG_TYPE = "type";
+
+    private final Map<ResponseCache.Endpoint, ReactiveBulkhead> bulkheads = new EnumMap<>(ResponseCache.Endpoint.class);
+    private final Map<ResponseCache.Endpoint, Counter> rejected = new EnumMap<>(ResponseCache.Endpoint.class);
+
+    public EndpointBulkheads(RecommendSettings settings, MeterRegistry meterRegistry) {
+        add(ResponseCache.Endpoint.RECORD, settings.getBulkheadRecordMaxConcurrent(),
+                settings.getBulkheadRecordMaxQueue(), meterRegistry);
+        add(ResponseCache.Endpoint.SET, settings.getBulkheadSetMaxConcurrent(),
+                settings.getBulkheadSetMaxQueue(), meterRegistry);
+        add(ResponseCache.Endpoint.ENTITY, settings.getBulkheadEntityMaxConcurrent(),
+                settings.getBulkheadEntityMaxQueue(), meterRegistry);
+    }
+
+    private void add(ResponseCache.Endpoint endpoint, int maxConcurrent, int maxQueue, MeterRegistry meterRegistry) {
+        String type = endpoint.name().toLowerCase(Locale.GERMAN);
+        if (maxConcurrent <= 0) {
+            LOG.info("No concurrency limit for {} recommendations", type);
+            return;
+        }
+        ReactiveBulkhead bulkhead = new ReactiveBulkhead(type, maxConcurrent, Math.max(0, maxQueue));
+        bulkheads.put(endpoint, bulkhead);
+        Gauge.builder("recommend.bulkhead.active", bulkhead, ReactiveBulkhead::getRunning)
+                .description("Number of recommendation requests in progress")
+                .tag(TAG_TYPE, type)
+                .register(meterRegistry);
+        Gauge.builder("recommend.bulkhead.queue.depth", bulkhead, ReactiveBulkhead::getQueueDepth)
+                .description("Number of recommendation requests waiting for a request in progress to finish")
+                .tag(TAG_TYPE, type)
+                .register(meterRegistry);
+        rejected.put(endpoint, Counter.builder("recommend.bulkhead.rejected")
+                .description("Number of recommendation requests rejected because too many were in progress and waiting")
+                .tag(TAG_TYPE, type)
+                .register(meterRegistry));
+    }
+
+    /**
+     * Generate recommendations within the quota of the provided type. If the quota is used up the request waits until
+     * another request of the same type finishes, or fails with an {@link EndpointBusyException} if there are already
+     * too many requests waiting
+     * @param endpoint the type of recommendations
+     * @param work the recommendation generation, this is only subscribed to when there's room for it
+     * @return mono with the result of the work
+     * @param <T> type of the result
+     */
+    public <T> Mono<T> execute(ResponseCache.Endpoint endpoint, Mono<T> work) {
+        ReactiveBulkhead bulkhead = bulkheads.get(endpoint);
+        if (bulkhead == null) {
+            return work;
+        }
+        return bulkhead.execute(work, () -> {
+            rejected.get(endpoint).increment();
+            LOG.debug("Rejected {} recommendation request, {} in progress and {} waiting", bulkhead.getName(),
+                    bulkhead.getRunning(), bulkhead.getQueueDepth());
+            return new EndpointBusyException(bulkhead.getName());
+        });
+    }
+
+    /**
+     * Check if requests for the provided type of recommendations are waiting for their turn
+     * @param endpoint the type of recommendations
+     * @return true if the quota of the type is used up and requests are waiting, otherwise false
+     */
+    public boolean isBusy(ResponseCache.Endpoint endpoint) {
+        ReactiveBulkhead bulkhead = bulkheads.get(endpoint);
+        return bulkhead != null && bulkhead.getQueueDepth() > 0;
+    }
+}
@@ -3,6 +3,11 @@ package eu.europeana.api.recommend.service;
 import eu.europeana.api.recommend.config.WebClients;
 import eu.europeana.api.recommend.model.Entity;
 import eu.europeana.api.recommend.util.RequestUtils;
+import eu.europeana.api.recommend.util.ResilienceUtils;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -16,10 +21,14 @@ import reactor.core.publisher.Mono;
 public class EntityApiService {
 
     private WebClient webClient;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
 
     @Autowired
-    public EntityApiService(WebClients webclients) {
+    public EntityApiService(WebClients webclients, CircuitBreakerRegistry circuitBreakers, BulkheadRegistry bulkheads) {
         this.webClient = webclients.getEntityApiClient();
+        this.circuitBreaker = circuitBreakers.circuitBreaker(ResilienceUtils.ENTITY_API);
+        this.bulkhead = bulkheads.bulkhead(ResilienceUtils.ENTITY_API);
     }
 
 
@@ -33,11 +42,11 @@ public class EntityApiService {
      */
     public Mono<Entity> getEntity(String type, int id, String apikey ,String token) {
 
-        return this.webClient.get()
+        return ResilienceUtils.decorate(this.webClient.get()
                 .uri(type + '/' + id)
                 .headers(RequestUtils.generateHeaders(token,apikey))
                 .retrieve()
-                .bodyToMono(Entity.class);
+                .bodyToMono(Entity.class), circuitBreaker, bulkhead);
     }
 
 
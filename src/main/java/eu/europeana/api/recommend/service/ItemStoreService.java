@@ -0,0 +1,153 @@
+package eu.europeana.api.recommend.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.model.Recommendation;
+import eu.europeana.api.recommend.util.ItemStore;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that reads minimal item metadata from a local (memory-mapped) item store, so we don't have to ask Search API
+ * to generate our responses. The store is reloaded in the background when the store file (or the source file it is
+ * built from) changes.
+ * If no store is configured or the store can't be loaded, the service is disabled and all items are retrieved from
+ * Search API as before.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class ItemStoreService {
+
+    private static final Logger LOG = LogManager.getLogger(ItemStoreService.class);
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<LinkedHashMap<String, Object>> ITEM_TYPE = new TypeReference<>() {};
+    private static final String LINK_FIELD = "link";
+
+    private final Path storeFile;
+    private final Path sourceFile;
+    private final String searchApiEndpoint;
+
+    private volatile ItemStore store;
+    private FileTime lastModified;
+    private ScheduledExecutorService refresher;
+
+    @Autowired
+    public ItemStoreService(RecommendSettings settings) {
+        this.storeFile = StringUtils.isBlank(settings.getItemStoreFile()) ? null : Path.of(settings.getItemStoreFile());
+        this.sourceFile = StringUtils.isBlank(settings.getItemStoreSourceFile()) ? null : Path.of(settings.getItemStoreSourceFile());
+        this.searchApiEndpoint = settings.getSearchApiEndpoint();
+        if (storeFile == null) {
+            LOG.info("No local item store configured, items are retrieved from Search API");
+            return;
+        }
+
+        refreshIfModified();
+        if (settings.getItemStoreRefreshMinutes() > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "item-store-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            refresher.scheduleWithFixedDelay(this::refreshIfModified, settings.getItemStoreRefreshMinutes(),
+                    settings.getItemStoreRefreshMinutes(), TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * @return true if a local item store is loaded, otherwise false
+     */
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * Lookup the items for the provided recommendations in the local item store
+     * @param recommendations the recommendations to lookup
+     * @param apikey the API key to include in the item links, if empty the links don't have an API key
+     * @return map with the Europeana id as key and the item json (as map) as value. Items that are not available
+     * locally are not included.
+     */
+    public Map<String, Map<String, Object>> getItems(List<Recommendation> recommendations, String apikey) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        ItemStore current = store;
+        if (current == null) {
+            return result;
+        }
+        for (Recommendation recommendation : recommendations) {
+            String id = recommendation.getRecordId().getEuropeanaId();
+            byte[] value = current.get(id);
+            if (value != null) {
+                try {
+                    Map<String, Object> item = JSON.readValue(value, ITEM_TYPE);
+                    item.put(LINK_FIELD, generateLink(id, apikey));
+                    result.put(id, item);
+                } catch (IOException e) {
+                    LOG.warn("Error parsing local item {}", id, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the link to the record in the same way as Search API does
+     */
+    private String generateLink(String europeanaId, String apikey) {
+        String link = searchApiEndpoint + "v2" + europeanaId + ".json";
+        return (StringUtils.isBlank(apikey) ? link : link + "?wskey=" + apikey);
+    }
+
+    /**
+     * (Re)build and/or (re)load the store if the source file was modified since the last time we loaded it.
+     * Any error is logged and the previously loaded store (if any) remains in use.
+     */
+    synchronized void refreshIfModified() {
+        Path source = (sourceFile == null ? storeFile : sourceFile);
+        try {
+            if (!Files.exists(source)) {
+                LOG.warn("Item store source file {} not found", source);
+                return;
+            }
+            FileTime modified = Files.getLastModifiedTime(source);
+            if (modified.equals(lastModified)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            if (sourceFile != null) {
+                ItemStore.create(sourceFile, storeFile);
+            }
+            store = ItemStore.load(storeFile);
+            lastModified = modified;
+            LOG.info("Loaded item store {} ({} items) in {} ms", storeFile, store.size(),
+                    System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error loading item store from {}", source, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (refresher != null) {
+            LOG.info("Stopping item store refresher...");
+            refresher.shutdownNow();
+        }
+    }
+}
@@ -3,14 +3,22 @@ package eu.europeana.api.recommend.service;
 import eu.europeana.api.recommend.common.MilvusConstants;
 import eu.europeana.api.recommend.common.RecordId;
 import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.exception.DeadlineExceededException;
 import eu.europeana.api.recommend.exception.MilvusException;
 import eu.europeana.api.recommend.model.Recommendation;
+import eu.europeana.api.recommend.util.Deadline;
 import eu.europeana.api.recommend.util.MilvusUtils;
+import eu.europeana.api.recommend.util.ResilienceUtils;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.milvus.client.MilvusClient;
 import io.milvus.client.MilvusServiceClient;
 import io.milvus.grpc.CheckHealthResponse;
 import io.milvus.grpc.GetLoadStateResponse;
 import io.milvus.grpc.LoadState;
+import io.milvus.grpc.SearchResults;
 import io.milvus.param.ConnectParam;
 import io.milvus.param.R;
 import io.milvus.param.collection.GetLoadStateParam;
@@ -24,13 +32,23 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import jakarta.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Service for interacting with Milvus; give a recordId get the associated vector, or do
- * a similarity search
+ * a similarity search. Since the Milvus client is blocking, all requests are executed on a bounded scheduler (or on
+ * virtual threads if enabled).
+ * If a request has a deadline (see {@link Deadline}), the remaining time is used as gRPC deadline for the Milvus
+ * request. Time spent waiting in the scheduler queue counts as well.
  * @author Patrick Ehlert
  */
 @Service
@@ -47,14 +65,33 @@ public class MilvusService {
 
     private RecommendSettings config;
     private MilvusClient milvusClient;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
+    private Scheduler scheduler;
 
     @Autowired
-    public MilvusService(RecommendSettings config) {
+    public MilvusService(RecommendSettings config, CircuitBreakerRegistry circuitBreakers, BulkheadRegistry bulkheads) {
         this.config = config;
+        this.circuitBreaker = circuitBreakers.circuitBreaker(ResilienceUtils.MILVUS);
+        this.bulkhead = bulkheads.bulkhead(ResilienceUtils.MILVUS);
+        this.scheduler = createScheduler(config);
         this.milvusClient = setupMilvusConnection();
         loadCollectionIfNecessary(config.getMilvusCollection());
     }
 
+    /**
+     * The Milvus client is blocking, so we use a separate bounded thread pool for all requests to Milvus, or a new
+     * virtual thread per request if virtual threads are enabled
+     */
+    private static Scheduler createScheduler(RecommendSettings config) {
+        if (config.isVirtualThreadsEnabled()) {
+            LOG.info("Using virtual threads for requests to Milvus");
+            ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("milvus-", 0).factory());
+            return Schedulers.fromExecutorService(executor, "milvus");
+        }
+        return Schedulers.newBoundedElastic(config.getMilvusThreads(), config.getMilvusQueueSize(), "milvus");
+    }
+
     private MilvusClient setupMilvusConnection() {
         ConnectParam connectParam = ConnectParam.newBuilder()
                 .withHost(config.getMilvusHostName())
@@ -119,54 +156,110 @@ public class MilvusService {
             LOG.info("Closing Milvus client...");
             milvusClient.close();
         }
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
     }
 
     /**
      * Return the vectors for one or more provided RecordId (if available in Milvus)
      * @param recordIds list with ids of the records to retrieve
-     * @return list of vectors, or an empty vector for items not available in Milvus.
+     * @return mono with a list of vectors, or an empty list if none of the records are available in Milvus.
      * Note that we use a list of Floats here since that's what Milvus supports when doing search queries
      */
-    public List<List<Float>> getVectorForRecords(List<RecordId> recordIds) {
+    public Mono<List<List<Float>>> getVectorForRecords(List<RecordId> recordIds) {
+        return execute(client -> fetchVectorForRecords(client, recordIds));
+    }
+
+    /**
+     * Execute a (blocking) Milvus request on our scheduler. If there's a deadline, the request gets a client with the
+     * remaining time as timeout, or fails with a DeadlineExceededException when there is no time left.
+     */
+    private <T> Mono<T> execute(Function<MilvusClient, T> request) {
+        return Mono.deferContextual(context -> {
+            Deadline deadline = Deadline.from(context);
+            return Mono.fromCallable(() -> request.apply(getClient(deadline)));
+        }).subscribeOn(scheduler);
+    }
+
+    private MilvusClient getClient(Deadline deadline) throws DeadlineExceededException {
+        if (deadline == null) {
+            return milvusClient;
+        }
+        long remainingMs = deadline.remaining().toMillis();
+        if (remainingMs <= 0) {
+            throw new DeadlineExceededException(ResilienceUtils.MILVUS);
+        }
+        return milvusClient.withTimeout(remainingMs, TimeUnit.MILLISECONDS);
+    }
+
+    private List<List<Float>> fetchVectorForRecords(MilvusClient client, List<RecordId> recordIds) {
+        List<QueryResultsWrapper.RowRecord> result = fetchRecords(client, recordIds);
+        List<List<Float>> results = new ArrayList<>(result.size());
+        for (QueryResultsWrapper.RowRecord rowRecord : result) {
+            results.add((List<Float>) rowRecord.get(MilvusConstants.VECTOR_FIELD_NAME));
+        }
+        return results;
+    }
+
+    /**
+     * Return the vectors for the provided RecordIds (if available in Milvus) per record
+     * @param recordIds list with ids of the records to retrieve
+     * @return mono with a map with the Milvus id of a record as key and its vector as value. Records that are not
+     * available in Milvus are not included.
+     */
+    public Mono<Map<String, List<Float>>> getVectorsPerRecord(List<RecordId> recordIds) {
+        return execute(client -> {
+            Map<String, List<Float>> results = new LinkedHashMap<>();
+            for (QueryResultsWrapper.RowRecord rowRecord : fetchRecords(client, recordIds)) {
+                results.put(rowRecord.get(MilvusConstants.RECORD_ID_FIELD_NAME).toString(),
+                        (List<Float>) rowRecord.get(MilvusConstants.VECTOR_FIELD_NAME));
+            }
+            return results;
+        });
+    }
+
+    private List<QueryResultsWrapper.RowRecord> fetchRecords(MilvusClient client, List<RecordId> recordIds) {
         List<String> milvusRecordIds = new ArrayList<>(recordIds.size());
         for (RecordId recordId : recordIds) {
             milvusRecordIds.add(recordId.getMilvusId());
         }
 
-        R<GetResponse> response = MilvusUtils.checkResponse(
-                milvusClient.get(GetIdsParam.newBuilder()
-                        .withCollectionName(config.getMilvusCollection())
-                        .withPrimaryIds((milvusRecordIds))
-                        .build()));
+        GetIdsParam getParam = GetIdsParam.newBuilder()
+                .withCollectionName(config.getMilvusCollection())
+                .withPrimaryIds((milvusRecordIds))
+                .build();
+        R<GetResponse> response = ResilienceUtils.execute(() -> {
+            R<GetResponse> r = client.get(getParam);
+            MilvusUtils.checkResponse(r);
+            return r;
+        }, circuitBreaker, bulkhead);
 
         List<QueryResultsWrapper.RowRecord> result = response.getData().getRowRecords();
         if (result == null || result.isEmpty()) {
             LOG.debug("No record(s) with id(s) {} found in Milvus", recordIds);
             return Collections.emptyList();
         }
-        List<List<Float>> results = new ArrayList<>(recordIds.size());
-        for (QueryResultsWrapper.RowRecord rowRecord : result) {
-            results.add((List<Float>) rowRecord.get(MilvusConstants.VECTOR_FIELD_NAME));
-        }
-        return results;
+        return result;
     }
 
     /**
      * Return the vector for the provided RecordId (if available in Milvus)
      * @param recordId id of the record to retrieve
-     * @return a vector (with vector being a list of floating point numbers), or an empty list if the record is not
-     * available in Milvus.
+     * @return mono with a vector (with vector being a list of floating point numbers), or an empty list if the record
+     * is not available in Milvus.
      */
-    public List<Float> getVectorForRecord(RecordId recordId) {
-        List<List<Float>> results = getVectorForRecords(List.of(recordId));
-        if (results.isEmpty()) {
-            return Collections.emptyList();
-        } else if (results.size() > 1) {
-            // Should not happen, but for now we keep this check to verify the updater works fine deleting old sets and
-            // adding new sets
-            LOG.warn("{} records found in Milvus with id {}", results.size(), recordId.getMilvusId());
-        }
-        return results.get(0);
+    public Mono<List<Float>> getVectorForRecord(RecordId recordId) {
+        return getVectorForRecords(List.of(recordId)).map(results -> {
+            if (results.isEmpty()) {
+                return Collections.emptyList();
+            } else if (results.size() > 1) {
+                // Should not happen, but for now we keep this check to verify the updater works fine deleting old sets and
+                // adding new sets
+                LOG.warn("{} records found in Milvus with id {}", results.size(), recordId.getMilvusId());
+            }
+            return results.get(0);
+        });
     }
 
     /**
@@ -175,13 +268,47 @@ public class MilvusService {
      * @param pageSize the number of desired results
      * @param recordIdsToExclude optional, if provided these recordIds will be excluded in the results
      * @param weight integer, used to multiply returned similarity score with this factor
-     * @return a map containing the ids of the recommend items (for later ease of use) and the corresponding
+     * @return mono with a map containing the ids of the recommend items (for later ease of use) and the corresponding
      * recommendation object (the similar record and its similarity score)
      */
+    public Mono<Map<String, Recommendation>> getSimilarRecords(List<List<Float>> vectors, int pageSize, List<RecordId> recordIdsToExclude, int weight) {
+        return execute(client -> searchSimilarRecords(client, vectors, pageSize, recordIdsToExclude, weight));
+    }
+
+    /**
+     * Do a similarity search for several vectors in 1 request and return the similar items per vector
+     * @param vectors the vectors to search for
+     * @param pageSize the number of desired results per vector
+     * @param weight integer, used to multiply returned similarity score with this factor
+     * @return mono with a list containing a map of recommendations for each of the provided vectors (in the same
+     * order as the vectors)
+     */
+    public Mono<List<Map<String, Recommendation>>> getSimilarRecordsPerVector(List<List<Float>> vectors, int pageSize, int weight) {
+        return execute(client -> {
+            SearchResultsWrapper data = search(client, vectors, pageSize, null);
+            List<Map<String, Recommendation>> result = new ArrayList<>(vectors.size());
+            for (int i = 0; i < vectors.size(); i++) {
+                result.add(toRecommendations(data.getRowRecords(i), weight));
+            }
+            LOG.debug("Retrieved similar items for {} vectors", vectors.size());
+            return result;
+        });
+    }
+
     // TODO Milvus v2.4. is said to support doubles, so  when that is out there should be no need for data conversion
     //  for data from Embeddings API see also https://github.com/milvus-io/milvus/discussions/18094
-    @SuppressWarnings("java:S2164") // float works fine for our purposes, no need to use double
-    public Map<String, Recommendation> getSimilarRecords(List<List<Float>> vectors, int pageSize, List<RecordId> recordIdsToExclude, int weight) {
+    private Map<String, Recommendation> searchSimilarRecords(MilvusClient client, List<List<Float>> vectors, int pageSize,
+                                                             List<RecordId> recordIdsToExclude, int weight) {
+        SearchResultsWrapper data = search(client, vectors, pageSize, recordIdsToExclude);
+        if (recordIdsToExclude == null) {
+            LOG.debug("Retrieved {} similar items", data.getRowRecords().size());
+        } else {
+            LOG.debug("Retrieved {} items excluding {}", data.getRowRecords().size(), recordIdsToExclude);
+        }
+        return toRecommendations(data.getRowRecords(), weight);
+    }
+
+    private SearchResultsWrapper search(MilvusClient client, List<List<Float>> vectors, int pageSize, List<RecordId> recordIdsToExclude) {
         // create request
         SearchParam.Builder builder = SearchParam.newBuilder()
                 .withCollectionName(config.getMilvusCollection())
@@ -199,18 +326,20 @@ public class MilvusService {
             excludeExpr.deleteCharAt(excludeExpr.length() - 1).append(']');
             builder.withExpr(excludeExpr.toString());
         }
-        SearchResultsWrapper data = new SearchResultsWrapper(milvusClient.search(builder.build()).getData().getResults());
-        if (recordIdsToExclude == null) {
-            LOG.debug("Retrieved {} similar items", data.getRowRecords().size());
-        } else {
-            LOG.debug("Retrieved {} items excluding {}", data.getRowRecords().size(), recordIdsToExclude);
-        }
+        SearchParam searchParam = builder.build();
+        R<SearchResults> response = ResilienceUtils.execute(() -> {
+            R<SearchResults> r = client.search(searchParam);
+            MilvusUtils.checkResponse(r);
+            return r;
+        }, circuitBreaker, bulkhead);
+        return new SearchResultsWrapper(response.getData().getResults());
+    }
 
+    @SuppressWarnings("java:S2164") // float works fine for our purposes, no need to use double
+    private Map<String, Recommendation> toRecommendations(List<QueryResultsWrapper.RowRecord> rowRecords, int weight) {
         // get ids from response
-        Map<String, Recommendation> result = new HashMap<>(data.getRowRecords().size());
-        for (int i = 0; i < data.getRowRecords().size(); i++) {
-            QueryResultsWrapper.RowRecord r = data.getRowRecords().get(i);
-
+        Map<String, Recommendation> result = new HashMap<>(rowRecords.size());
+        for (QueryResultsWrapper.RowRecord r : rowRecords) {
             // milvus returns sorted results, most similar first so no need to order ourselves
             String recordId = r.get(MilvusConstants.RECORD_ID_FIELD_NAME).toString();
             float score = (float) r.get(MilvusConstants.MILVUS_SCORE_FIELD_NAME);
@@ -0,0 +1,80 @@
+package eu.europeana.api.recommend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Short-lived in-memory cache of records, sets and entities that we know don't exist, so repeated requests for the
+ * same non-existing id can be answered without sending requests to Milvus or other APIs.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class NotFoundCache {
+
+    /**
+     * Types of ids that we cache
+     */
+    public enum Type { RECORD, SET, ENTITY }
+
+    private static final Logger LOG = LogManager.getLogger(NotFoundCache.class);
+
+    private final Map<Type, Cache<String, Boolean>> caches = new EnumMap<>(Type.class);
+
+    @Autowired
+    public NotFoundCache(RecommendSettings settings, MeterRegistry meterRegistry) {
+        createCache(Type.RECORD, settings.getNotFoundCacheRecordTtl(), settings.getNotFoundCacheMaxSize(), meterRegistry);
+        createCache(Type.SET, settings.getNotFoundCacheSetTtl(), settings.getNotFoundCacheMaxSize(), meterRegistry);
+        createCache(Type.ENTITY, settings.getNotFoundCacheEntityTtl(), settings.getNotFoundCacheMaxSize(), meterRegistry);
+    }
+
+    private void createCache(Type type, int ttlSeconds, int maxSize, MeterRegistry meterRegistry) {
+        if (ttlSeconds <= 0 || maxSize <= 0) {
+            LOG.info("Not found cache for type {} is disabled", type);
+            return;
+        }
+        Cache<String, Boolean> cache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "notfound." + type.name().toLowerCase(Locale.GERMAN), Tags.empty());
+        caches.put(type, cache);
+    }
+
+    /**
+     * Check if we recently found that an id doesn't exist
+     * @param type the type of id
+     * @param id the id to check
+     * @return true if the id is known not to exist, false if it may exist
+     */
+    public boolean isNotFound(Type type, String id) {
+        Cache<String, Boolean> cache = caches.get(type);
+        return cache != null && cache.getIfPresent(id) != null;
+    }
+
+    /**
+     * Remember that an id doesn't exist
+     * @param type the type of id
+     * @param id the id that doesn't exist
+     */
+    public void putNotFound(Type type, String id) {
+        Cache<String, Boolean> cache = caches.get(type);
+        if (cache != null) {
+            cache.put(id, Boolean.TRUE);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package eu.europeana.api.recommend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.exception.RateLimitExceededException;
+import eu.europeana.api.recommend.exception.TooManyStreamsException;
+import eu.europeana.api.recommend.util.HashUtils;
+import eu.europeana.api.recommend.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Limits the number of requests per API key, so one client can't use up all our (and Milvus and Search API's)
+ * capacity. Every API key that is known to be valid (see {@link ValidApikeys}) gets its own token
+ * bucket. The rate and burst size depend on the class of the key: trusted keys (e.g. for our own applications) can
+ * have a different (or no) limit than other known keys. Since we leave API key validation to Search API, all other
+ * (unknown) keys get a bucket with the (lower) unknown limits. These are kept in a separate cache, so random keys
+ * can't push the buckets of known keys out of the cache, and one client can't use up the limit of other unknown keys.
+ * Token buckets are kept in bounded caches and removed when a key wasn't used for a while, so memory use stays
+ * limited. For each known key in the cache we keep track of allowed and rejected requests (as metrics), for unknown
+ * keys we only count the total. Metrics are tagged with a hash of the key, never the key itself.
+ * Streaming requests are long-running, so besides paying for each record they process, an API key may only have a
+ * limited number of them in progress at the same time.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class RateLimiter {
+
+    /**
+     * Classes of API keys that have their own limits
+     */
+    public enum KeyClass { DEFAULT, TRUSTED, UNKNOWN }
+
+    /**
+     * Token bucket and usage counters of one API key
+     * @param bucket the token bucket, null if the key has no limit
+     */
+    private record KeyUsage(TokenBucket bucket, Counter allowed, Counter rejected) {}
+
+    private static final Logger LOG = LogManager.getLogger(RateLimiter.class);
+
+    private static final String METRIC_REQUESTS = "recommend.ratelimit.requests";
+    private static final String TAG_APIKEY = "apikey";
+    private static final String TAG_CLASS = "class";
+    private static final String TAG_RESULT = "result";
+
+    private static final String UNKNOWN_APIKEY_TAG = "unknown";
+
+    private static final long NANOS_PER_SECOND = Duration.ofSeconds(1).toNanos();
+    private static final int STREAM_RETRY_AFTER_SECONDS = 5;
+
+    private final ValidApikeys validApikeys;
+    private final MeterRegistry meterRegistry;
+    private final Set<String> trustedKeys;
+    private final double defaultRate;
+    private final int defaultBurst;
+    private final double trustedRate;
+    private final int trustedBurst;
+    private final double unknownRate;
+    private final int unknownBurst;
+    private final int maxStreams;
+    private final Map<String, Integer> openStreams = new ConcurrentHashMap<>();
+    private Cache<String, KeyUsage> buckets;
+    private Cache<String, TokenBucket> unknownBuckets;
+    private KeyUsage unknownUsage;
+
+    @Autowired
+    public RateLimiter(RecommendSettings settings, ValidApikeys validApikeys, MeterRegistry meterRegistry) {
+        this.validApikeys = validApikeys;
+        this.meterRegistry = meterRegistry;
+        this.trustedKeys = (settings.getRateLimitTrustedKeys() == null ? Set.of() :
+                Arrays.stream(settings.getRateLimitTrustedKeys()).map(String::trim).collect(Collectors.toSet()));
+        this.defaultRate = settings.getRateLimitDefaultRate();
+        this.defaultBurst = Math.max(1, settings.getRateLimitDefaultBurst());
+        this.trustedRate = settings.getRateLimitTrustedRate();
+        this.trustedBurst = Math.max(1, settings.getRateLimitTrustedBurst());
+        this.unknownRate = settings.getRateLimitUnknownRate();
+        this.unknownBurst = Math.max(1, settings.getRateLimitUnknownBurst());
+        this.maxStreams = settings.getRateLimitMaxStreams();
+        if (!settings.isRateLimitEnabled()) {
+            LOG.info("Rate limiting is disabled");
+            return;
+        }
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofSeconds(settings.getRateLimitIdleTime()))
+                .maximumSize(settings.getRateLimitMaxKeys())
+                // eviction listeners run synchronously, so a removed key can't be recreated before its metrics are gone
+                .evictionListener((String apikey, KeyUsage usage, RemovalCause cause) -> {
+                    if (usage != null) {
+                        meterRegistry.remove(usage.allowed());
+                        meterRegistry.remove(usage.rejected());
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, buckets, "ratelimit", Tags.empty());
+        this.unknownBuckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofSeconds(settings.getRateLimitIdleTime()))
+                .maximumSize(settings.getRateLimitMaxKeys())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, unknownBuckets, "ratelimit.unknown", Tags.empty());
+        // unknown keys share their counters, so random keys don't create new metrics
+        this.unknownUsage = createKeyUsage(UNKNOWN_APIKEY_TAG, KeyClass.UNKNOWN, 0, 1);
+    }
+
+    /**
+     * Return the class of an API key
+     * @param apikey the API key to check
+     * @return the class of the API key
+     */
+    public KeyClass getKeyClass(String apikey) {
+        if (trustedKeys.contains(apikey)) {
+            return KeyClass.TRUSTED;
+        }
+        return validApikeys.isValid(apikey) ? KeyClass.DEFAULT : KeyClass.UNKNOWN;
+    }
+
+    /**
+     * Check if an API key may send another request, and if so take the required tokens from its bucket
+     * @param apikey the API key of the caller
+     * @param cost the number of tokens the request costs (e.g. the number of records in a batch request)
+     * @throws RateLimitExceededException when the API key sent too many requests
+     */
+    public void checkLimit(String apikey, int cost) throws RateLimitExceededException {
+        if (buckets == null || apikey == null) {
+            return;
+        }
+        KeyClass keyClass = getKeyClass(apikey);
+        KeyUsage usage;
+        TokenBucket bucket;
+        if (keyClass == KeyClass.UNKNOWN) {
+            usage = unknownUsage;
+            bucket = (unknownRate > 0 ? unknownBuckets.get(apikey, key -> new TokenBucket(unknownRate, unknownBurst)) : null);
+        } else {
+            usage = buckets.get(apikey, key -> createKeyUsage(key, keyClass));
+            bucket = usage.bucket();
+        }
+        long waitNanos = (bucket == null ? 0 : bucket.tryConsume(cost));
+        if (waitNanos > 0) {
+            usage.rejected().increment();
+            LOG.debug("Rate limit exceeded for API key {} ({})", apikey, keyClass);
+            throw new RateLimitExceededException((int) Math.max(1, (waitNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND));
+        }
+        usage.allowed().increment();
+    }
+
+    /**
+     * Register a new streaming request for an API key. The returned stream gives up its place when it ends, fails or
+     * is cancelled.
+     * @param apikey the API key of the caller
+     * @param stream the streaming response
+     * @return the streaming response
+     * @param <T> type of the stream elements
+     * @throws TooManyStreamsException when the API key already has the maximum number of streams in progress
+     */
+    public <T> Flux<T> limitStreams(String apikey, Flux<T> stream) throws TooManyStreamsException {
+        if (buckets == null || apikey == null || maxStreams <= 0) {
+            return stream;
+        }
+        AtomicBoolean started = new AtomicBoolean();
+        openStreams.compute(apikey, (key, open) -> {
+            int nrOpen = (open == null ? 0 : open);
+            if (nrOpen >= maxStreams) {
+                return open;
+            }
+            started.set(true);
+            return nrOpen + 1;
+        });
+        if (!started.get()) {
+            LOG.debug("Too many streams in progress for API key {}", apikey);
+            throw new TooManyStreamsException(maxStreams, STREAM_RETRY_AFTER_SECONDS);
+        }
+        return stream.doFinally(signal -> openStreams.computeIfPresent(apikey, (key, open) -> (open > 1 ? open - 1 : null)));
+    }
+
+    private KeyUsage createKeyUsage(String apikey, KeyClass keyClass) {
+        if (keyClass == KeyClass.TRUSTED) {
+            return createKeyUsage(toTagValue(apikey), keyClass, trustedRate, trustedBurst);
+        }
+        return createKeyUsage(toTagValue(apikey), keyClass, defaultRate, defaultBurst);
+    }
+
+    private KeyUsage createKeyUsage(String apikeyTag, KeyClass keyClass, double rate, int burst) {
+        Tags tags = Tags.of(TAG_APIKEY, apikeyTag, TAG_CLASS, keyClass.name().toLowerCase(Locale.GERMAN));
+        return new KeyUsage(rate > 0 ? new TokenBucket(rate, burst) : null,
+                Counter.builder(METRIC_REQUESTS)
+                        .description("Number of recommendation requests per API key")
+                        .tags(tags).tag(TAG_RESULT, "allowed")
+                        .register(meterRegistry),
+                Counter.builder(METRIC_REQUESTS)
+                        .description("Number of recommendation requests per API key")
+                        .tags(tags).tag(TAG_RESULT, "rejected")
+                        .register(meterRegistry));
+    }
+
+    /**
+     * API keys shouldn't end up in our metrics (which are stored and shown elsewhere), so we use the first 32 bits of
+     * a hash of the key to tell keys apart.
+     */
+    static String toTagValue(String apikey) {
+        return String.format("%08x", HashUtils.hash64(apikey) >>> 32);
+    }
+}
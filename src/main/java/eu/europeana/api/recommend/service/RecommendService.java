@@ -4,17 +4,28 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.europeana.api.recommend.common.RecordId;
 import eu.europeana.api.recommend.common.model.EmbeddingResponse;
+import eu.europeana.api.recommend.config.RecommendSettings;
 import eu.europeana.api.recommend.exception.*;
 import eu.europeana.api.recommend.model.Set;
 import eu.europeana.api.recommend.model.*;
+import eu.europeana.api.recommend.util.Deadline;
+import eu.europeana.api.recommend.util.ETagUtils;
 import eu.europeana.api.recommend.util.MilvusUtils;
+import eu.europeana.api.recommend.util.WeightedSampling;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
 
 /**
  * Service that interacts with Milvus to retrieve similar records
@@ -33,55 +44,330 @@ public class RecommendService {
     private static final int WEIGHT_SET_ITEMS    = 1;
     private static final int WEIGHT_ENTITY_METADATA  = 10;
     private static final int WEIGHT_ENTITY_SET_ITEMS = 1;
+    // Number of extra entity metadata recommendations we request, so we still have a full page after removing the
+    // items of the entity's best items set (Set API returns the top 100 items of that set)
+    private static final int ENTITY_SET_OVERSAMPLE = 100;
 
     private static final String NOT_FOUND = "not found";
+    private static final ObjectMapper JSON = new ObjectMapper();
 
     private final MilvusService milvus;
     private final EmbeddingsService embeddings;
     private final SearchApiService searchApi;
     private final SetApiService setApi;
     private final EntityApiService entityApi;
+    private final RecordFilterService recordFilter;
+    private final NotFoundCache notFoundCache;
+    private final CandidateCache candidateCache;
+    private final EndpointBulkheads bulkheads;
+    private final Duration setMetadataTimeout;
+    private final Duration setItemsTimeout;
+    private final Duration entitySetTimeout;
+    private final Duration deadlineReserve;
+    private final int streamConcurrency;
+    private final String dataVersion;
 
     @Autowired
-    public RecommendService(MilvusService milvus, EmbeddingsService embeddings, SearchApiService searchApi,
-                            SetApiService setApiService, EntityApiService entityApi) {
+    public RecommendService(RecommendSettings settings, MilvusService milvus, EmbeddingsService embeddings,
+                            SearchApiService searchApi, SetApiService setApiService, EntityApiService entityApi,
+                            RecordFilterService recordFilter, NotFoundCache notFoundCache,
+                            CandidateCache candidateCache, EndpointBulkheads bulkheads) {
         this.milvus = milvus;
         this.embeddings = embeddings;
         this.searchApi = searchApi;
         this.entityApi = entityApi;
         this.setApi = setApiService;
+        this.recordFilter = recordFilter;
+        this.notFoundCache = notFoundCache;
+        this.candidateCache = candidateCache;
+        this.bulkheads = bulkheads;
+        this.setMetadataTimeout = Duration.ofMillis(settings.getSetMetadataTimeout());
+        this.setItemsTimeout = Duration.ofMillis(settings.getSetItemsTimeout());
+        this.entitySetTimeout = Duration.ofMillis(settings.getEntitySetTimeout());
+        this.deadlineReserve = Duration.ofMillis(settings.getRequestDeadlineReserve());
+        this.streamConcurrency = Math.max(1, settings.getStreamConcurrency());
+        this.dataVersion = settings.getMilvusCollection() + "/" + settings.getHttpETagVersion();
     }
 
     /**
-     * Given a record id, this returns a json response containing basic data about similar records or null
+     * Given a record id, this returns a json response containing basic data about similar records
      * @param recordId record id for which similar records need to be found
      * @param pageSize optional, number of similar records to return, between 1 and 50
-     * @param page optional, extra page of similar records, between 1 and 40 // TODO not supported yet
-     * @param seed // TODO not supported yet
+     * @param page optional, extra page of similar records, between 0 and 40
+     * @param seed optional, if provided similar records are picked randomly (weighted by relevance) from the candidate
+     *             pool. The same seed always returns the same recommendations
      * @param apikey optional API key
      * @param token optional authentication token (not used at the moment)
-     * @return json response from Search API with similar records data
-     * @throws RecommendException when the record is not in Milvus and cannot be found with Search API
+     * @return mono with the json response from Search API with similar records data, or an empty mono if the record
+     * exists but is not in Milvus. The mono emits a RecordNotFoundException when the record is not in Milvus and
+     * cannot be found with Search API
      */
     public Mono<SearchApiResponse> getRecommendationsForRecord(RecordId recordId, int pageSize, int page, String seed,
-                                                               String apikey, String token) throws RecommendException {
-        List<Float> vector = milvus.getVectorForRecord(recordId);
-        if (vector == null || vector.isEmpty()) {
-            LOG.warn("Record {} not in Milvus", recordId);
-            if (!searchApi.checkRecordExists(recordId, apikey, token)) {
-                throw new RecordNotFoundException("Record with id " + recordId.getEuropeanaId() + " " + NOT_FOUND);
+                                                               String apikey, String token) {
+        return rankRecommendationsForRecord(recordId, pageSize, page, seed, apikey, token)
+                .flatMap(result -> generateResponse(result, pageSize, apikey, token));
+    }
+
+    /**
+     * Same as {@link #getRecommendationsForRecord(RecordId, int, int, String, String, String)}, but returns the ranked
+     * recommendations without retrieving the data of the recommended records from Search API
+     * @return mono with the recommendations for the requested page, see getRecommendationsForRecord
+     */
+    public Mono<List<Recommendation>> rankRecommendationsForRecord(RecordId recordId, int pageSize, int page, String seed,
+                                                                   String apikey, String token) {
+        if (notFoundCache.isNotFound(NotFoundCache.Type.RECORD, recordId.getEuropeanaId())) {
+            return Mono.error(new RecordNotFoundException("Record with id " + recordId.getEuropeanaId() + " " + NOT_FOUND));
+        }
+        return getPage(NotFoundCache.Type.RECORD, recordId.getEuropeanaId(), pageSize, page, seed,
+                    nrCandidates -> getCandidatesForRecord(recordId, nrCandidates, apikey, token));
+    }
+
+    /**
+     * Generate a response for the provided ranked recommendations, using Search API to retrieve the data of the
+     * recommended records. The response includes a content hash so an ETag can be generated for it, and is marked as
+     * partial if optional recommendations were skipped because of the request deadline.
+     * @param recommendations the ranked recommendations
+     * @param pageSize the number of recommendations to return
+     * @param apikey optional API key
+     * @param token optional authentication token
+     * @return mono with the response
+     */
+    public Mono<SearchApiResponse> generateResponse(List<Recommendation> recommendations, int pageSize,
+                                                    String apikey, String token) {
+        String contentHash = generateContentHash(recommendations);
+        return Mono.deferContextual(context -> searchApi.generateResponse(recommendations, pageSize, apikey, token)
+                .doOnNext(response -> {
+                    response.setContentHash(contentHash);
+                    response.setPartial(Deadline.isDegraded(context));
+                }));
+    }
+
+    /**
+     * Generate a hash of the Milvus collection (and configured ETag version) and the ids of the provided ranked
+     * recommendations, so clients can check if recommendations changed without us asking Search API for the data.
+     * @param recommendations the ranked recommendations
+     * @return content hash (to generate an ETag)
+     */
+    public String generateContentHash(List<Recommendation> recommendations) {
+        List<String> ids = new ArrayList<>(recommendations.size());
+        for (Recommendation recommendation : recommendations) {
+            ids.add(recommendation.getRecordId().getEuropeanaId());
+        }
+        return ETagUtils.generateContentHash(dataVersion, ids);
+    }
+
+    private Mono<List<Recommendation>> getCandidatesForRecord(RecordId recordId, int nrCandidates, String apikey, String token) {
+        return milvus.getVectorForRecord(recordId)
+                .defaultIfEmpty(Collections.emptyList())
+                .flatMap(vector -> {
+                    if (vector.isEmpty()) {
+                        LOG.warn("Record {} not in Milvus", recordId);
+                        return checkRecordExists(recordId, apikey, token);
+                    }
+                    LOG.trace("Vector for record {} = {}", recordId, vector);
+                    return milvus.getSimilarRecords(List.of(vector), nrCandidates, List.of(recordId), 1)
+                            .map(similar -> {
+                                List<Recommendation> sorted = similar.values().stream().sorted(Comparator.reverseOrder()).toList();
+                                LOG.trace("{} recommendations for record {} = {}", sorted.size(), recordId, sorted);
+                                return sorted;
+                            });
+                });
+    }
+
+    /**
+     * Return 1 page of recommendations. If there are no (or not enough) cached candidates, we generate at least the
+     * configured oversample size of candidates and store the ranked list in the candidate cache, so later pages can be
+     * sliced from that list without generating recommendations again. Candidates that are incomplete because of the
+     * request deadline are not cached.
+     * If a seed is provided, the candidate pool is put in weighted random order first (see {@link WeightedSampling}),
+     * so requests with different seeds for the same id get different recommendations, but share the same pool.
+     * The pool is always the first oversample size candidates (which every load contains), so the same seed returns
+     * the same pages when the cache entry expires or is refilled with more candidates, as long as the Milvus
+     * collection doesn't change. Candidates after the pool follow in ranked order.
+     * @param type the type of the id
+     * @param id the id of the record, set or entity
+     * @param pageSize the number of recommendations per page
+     * @param page the requested page (starting with 0)
+     * @param seed optional seed for random sampling of the candidates, if null candidates are returned in ranked order
+     * @param candidateLoader generates a ranked list of (at most) the provided number of candidates
+     * @return mono with the recommendations for the requested page
+     */
+    private Mono<List<Recommendation>> getPage(NotFoundCache.Type type, String id, int pageSize, int page, String seed,
+                                               IntFunction<Mono<List<Recommendation>>> candidateLoader) {
+        int needed = (page + 1) * pageSize;
+        CandidateCache.Candidates cached = candidateCache.get(type, id);
+        if (cached != null && (cached.complete() || cached.recommendations().size() >= needed)) {
+            LOG.debug("Using cached candidates for {} {}, page {}", type, id, page);
+            return Mono.just(slice(sample(cached.recommendations(), seed, candidateCache.getOversampleSize()), pageSize, page));
+        }
+        int nrCandidates = Math.max(needed, candidateCache.getOversampleSize());
+        return candidateLoader.apply(nrCandidates).flatMap(candidates -> Mono.deferContextual(context -> {
+            if (!Deadline.isDegraded(context)) {
+                candidateCache.put(type, id, new CandidateCache.Candidates(candidates, candidates.size() < nrCandidates));
             }
-        } else {
-            LOG.trace("Vector for record {} = {}", recordId, vector);
+            return Mono.just(slice(sample(candidates, seed, candidateCache.getOversampleSize()), pageSize, page));
+        }));
+    }
+
+    private static List<Recommendation> sample(List<Recommendation> candidates, String seed, int poolSize) {
+        if (seed == null) {
+            return candidates;
+        }
+        if (candidates.size() <= poolSize) {
+            return WeightedSampling.order(candidates, Recommendation::getScore, WeightedSampling.parseSeed(seed));
+        }
+        List<Recommendation> result = new ArrayList<>(candidates.size());
+        result.addAll(WeightedSampling.order(candidates.subList(0, poolSize), Recommendation::getScore, WeightedSampling.parseSeed(seed)));
+        result.addAll(candidates.subList(poolSize, candidates.size()));
+        return result;
+    }
+
+    private static List<Recommendation> slice(List<Recommendation> candidates, int pageSize, int page) {
+        int from = page * pageSize;
+        if (from >= candidates.size()) {
+            return Collections.emptyList();
+        }
+        return candidates.subList(from, Math.min(from + pageSize, candidates.size()));
+    }
+
+    /**
+     * Returns an empty mono if the record exists, otherwise a mono with a RecordNotFoundException. This is only called
+     * for records that are not in Milvus.
+     * The record filter is built from an ids dump, so records published after that dump are reported missing until
+     * the filter is refreshed. We therefore only remember records as not found when Search API confirms it, so a stale
+     * filter answer doesn't last longer than the filter itself.
+     */
+    private <T> Mono<T> checkRecordExists(RecordId recordId, String apikey, String token) {
+        // only ask Search API if our local filter can't tell us for certain that the record doesn't exist
+        boolean knownMissing = recordFilter.isKnownMissing(recordId);
+        Mono<Boolean> exists = knownMissing
+                ? Mono.just(Boolean.FALSE)
+                : searchApi.checkRecordExists(recordId, apikey, token);
+        return exists.defaultIfEmpty(Boolean.FALSE).flatMap(recordExists -> {
+            if (Boolean.TRUE.equals(recordExists)) {
+                return Mono.<T>empty();
+            }
+            if (!knownMissing) {
+                notFoundCache.putNotFound(NotFoundCache.Type.RECORD, recordId.getEuropeanaId());
+            }
+            return Mono.error(new RecordNotFoundException("Record with id " + recordId.getEuropeanaId() + " " + NOT_FOUND));
+        });
+    }
+
+    /**
+     * Given several record ids, this returns recommendations for each of the records. All vectors are retrieved from
+     * Milvus in 1 request, followed by 1 multi-vector similarity search. All recommended items are deduplicated and
+     * looked up together, but since Search API returns at most 100 items per request this lookup is split into several
+     * concurrent Search API requests (e.g. up to 10 requests for 20 records with page size 50), see
+     * {@link SearchApiService#getItems(List, String, String)}.
+     * Records that are not available in Milvus get an empty result, we don't check if they exist in Search API.
+     * @param recordIds ids of the records for which similar records need to be found
+     * @param pageSize number of similar records to return per record
+     * @param apikey optional API key (used for requests to Search API if provided)
+     * @param token optional authentication token (used for requests to Search API if provided)
+     * @return mono with the recommendations per record, in the same order as the provided record ids
+     */
+    public Mono<BatchRecommendResponse> getRecommendationsForRecords(List<RecordId> recordIds, int pageSize,
+                                                                     String apikey, String token) {
+        // 1. get all vectors in 1 request
+        return milvus.getVectorsPerRecord(recordIds)
+                .defaultIfEmpty(Collections.emptyMap())
+                .flatMap(vectors -> {
+                    if (vectors.isEmpty()) {
+                        LOG.debug("None of the records {} are in Milvus", recordIds);
+                        return Mono.just(Collections.<String, List<Recommendation>>emptyMap());
+                    }
+                    // 2. do 1 similarity search for all vectors. We ask for 1 extra result because every record is
+                    // the most similar to itself
+                    List<String> milvusIds = new ArrayList<>(vectors.keySet());
+                    return milvus.getSimilarRecordsPerVector(new ArrayList<>(vectors.values()), pageSize + 1, 1)
+                            .map(similar -> {
+                                Map<String, List<Recommendation>> result = new HashMap<>();
+                                for (int i = 0; i < milvusIds.size() && i < similar.size(); i++) {
+                                    String milvusId = milvusIds.get(i);
+                                    result.put(milvusId, similar.get(i).values().stream()
+                                            .filter(r -> !milvusId.equals(r.getRecordId().getMilvusId()))
+                                            .sorted(Comparator.reverseOrder())
+                                            .limit(pageSize)
+                                            .toList());
+                                }
+                                return result;
+                            });
+                })
+                // 3. lookup all (deduplicated) recommended items, in chunks of at most 100 items per Search API request
+                .flatMap(recommendations -> {
+                    Map<String, Recommendation> unique = new LinkedHashMap<>();
+                    for (List<Recommendation> perRecord : recommendations.values()) {
+                        for (Recommendation r : perRecord) {
+                            unique.putIfAbsent(r.getRecordId().getEuropeanaId(), r);
+                        }
+                    }
+                    LOG.debug("{} unique recommendations for {} records", unique.size(), recordIds.size());
+                    return searchApi.getItems(new ArrayList<>(unique.values()), apikey, token)
+                            .map(items -> generateBatchResponse(recordIds, recommendations, items, apikey));
+                });
+    }
 
-            if (!vector.isEmpty()) {
-                Collection<Recommendation> unsorted = milvus.getSimilarRecords(List.of(vector), pageSize, List.of(recordId), 1).values();
-                List<Recommendation> sorted = unsorted.stream().sorted(Comparator.reverseOrder()).toList();
-                LOG.trace("{} recommendations for record {} = {}", sorted.size(), recordId, sorted);
-                return searchApi.generateResponse(sorted, pageSize, apikey, token);
+    private static BatchRecommendResponse generateBatchResponse(List<RecordId> recordIds,
+                                                                Map<String, List<Recommendation>> recommendations,
+                                                                Map<String, Map> items, String apikey) {
+        List<RecordRecommendations> results = new ArrayList<>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            List<Map> recordItems = new ArrayList<>();
+            for (Recommendation r : recommendations.getOrDefault(recordId.getMilvusId(), Collections.emptyList())) {
+                Map item = items.get(r.getRecordId().getEuropeanaId());
+                if (item != null) {
+                    recordItems.add(item);
+                }
             }
+            results.add(new RecordRecommendations(recordId.getEuropeanaId(), recordItems.toArray(new Map[0])));
+        }
+        return new BatchRecommendResponse(apikey, results);
+    }
+
+    /**
+     * Given a stream of record ids, this returns a stream with the recommendations for each record, in the same order
+     * as the provided record ids. Recommendations for at most the configured number of records are generated
+     * concurrently and new records are only processed when there is demand, so memory usage doesn't depend on the
+     * number of records. Each record takes its place in the quota for record recommendations (see
+     * {@link EndpointBulkheads}), so a stream can't use more than its share of our capacity.
+     * Errors for a particular record (e.g. record not found or no room in the quota) don't end the stream, instead
+     * they are included in the result for that record.
+     * @param recordIds stream of ids of the records for which similar records need to be found
+     * @param pageSize number of similar records to return per record
+     * @param apikey optional API key (used for requests to Search API if provided)
+     * @param token optional authentication token (used for requests to Search API if provided)
+     * @return stream with recommendations per record
+     */
+    public Flux<RecordRecommendations> streamRecommendationsForRecords(Flux<RecordId> recordIds, int pageSize,
+                                                                       String apikey, String token) {
+        return recordIds.flatMapSequential(recordId -> bulkheads.execute(ResponseCache.Endpoint.RECORD,
+                                Mono.defer(() -> getRecommendationsForRecord(recordId, pageSize, 0, null, apikey, token)
+                                        .flatMap(this::decodeIfRaw)))
+                        .map(response -> new RecordRecommendations(recordId.getEuropeanaId(), response.getItems()))
+                        .defaultIfEmpty(new RecordRecommendations(recordId.getEuropeanaId(), new Map[0]))
+                        .onErrorResume(e -> {
+                            LOG.debug("No recommendations for record {} in stream: {}", recordId, e.getMessage());
+                            return Mono.just(new RecordRecommendations(recordId.getEuropeanaId(), e.getMessage()));
+                        }),
+                streamConcurrency, streamConcurrency);
+    }
+
+    /**
+     * When Search API passthrough is enabled, responses are not deserialized, but we need the items to include them
+     * in the stream
+     */
+    private Mono<SearchApiResponse> decodeIfRaw(SearchApiResponse response) {
+        if (response instanceof RawSearchApiResponse raw) {
+            return DataBufferUtils.join(raw.getBody()).<SearchApiResponse>handle((dataBuffer, sink) -> {
+                try (InputStream in = dataBuffer.asInputStream(true)) {
+                    sink.next(JSON.readValue(in, SearchApiResponse.class));
+                } catch (IOException e) {
+                    sink.error(e);
+                }
+            });
         }
-        return null;
+        return Mono.just(response);
     }
 
     /**
@@ -89,89 +375,155 @@ public class RecommendService {
      * set. Note that the set has to be a 'closed' set, we return 0 results for open sets (query-based).
      * @param setId set id for which similar records need to be found
      * @param pageSize optional, number of similar records to return, between 1 and 50
-     * @param page optional, extra page of similar records, between 1 and 40 // TODO not supported yet
-     * @param seed // TODO not supported yet
+     * @param page optional, extra page of similar records, between 0 and 40
+     * @param seed optional, if provided similar records are picked randomly (weighted by relevance) from the candidate
+     *             pool. The same seed always returns the same recommendations
      * @param apikey optional API key (used for requests to Set API and Search API if provided)
      * @param token optional authentication token (used for requests to Set API and Search API if provided)
-     * @return json response with similar records data or null if the provided set is an open set
-     * @throws RecommendException when the set cannot be found in Set API
+     * @return mono with the json response with similar records data or an empty mono if the provided set is an open
+     * set. The mono emits a SetNotFoundException when the set cannot be found in Set API
      */
     public Mono<SearchApiResponse> getRecommendationsForSet(String setId, int pageSize, int page, String seed,
-                                                            String apikey, String token) throws RecommendException {
-        // 1. get relevant data from setId
-        Set set = null;
-        try {
-            set = setApi.getSetData(setId, apikey, token).block();
-            LOG.trace("Contents of set {} = {}", setId, set);
-            if (set == null) {
-                throw new SetNotFoundException("Set " + setId + " " + NOT_FOUND);
-            }
-        } catch (RuntimeException e) {
-            if (e.getMessage() != null && e.getMessage().toLowerCase(Locale.getDefault()).contains(NOT_FOUND)) {
-                throw new SetNotFoundException("Set " + setId + " " + NOT_FOUND);
-            }
-            throw e; // rethrow other errors than 404
-        }
-
+                                                            String apikey, String token) {
+        return rankRecommendationsForSet(setId, pageSize, page, seed, apikey, token)
+                // 6. generate response using Search API
+                .flatMap(result -> generateResponse(result, pageSize, apikey, token));
+    }
 
-        // 2. check if it's a closed set (no recommendations for open sets)
-        if (setApi.isOpenSet(set)) {
-            return null;
+    /**
+     * Same as {@link #getRecommendationsForSet(String, int, int, String, String, String)}, but returns the ranked
+     * recommendations without retrieving the data of the recommended records from Search API
+     * @return mono with the recommendations for the requested page, see getRecommendationsForSet
+     */
+    public Mono<List<Recommendation>> rankRecommendationsForSet(String setId, int pageSize, int page, String seed,
+                                                                String apikey, String token) {
+        // 1. get relevant data from setId
+        if (notFoundCache.isNotFound(NotFoundCache.Type.SET, setId)) {
+            return Mono.error(new SetNotFoundException("Set " + setId + " " + NOT_FOUND));
         }
+        return Mono.defer(() -> setApi.getSetData(setId, apikey, token))
+                .onErrorMap(RecommendService::isNotFoundError, e -> {
+                    notFoundCache.putNotFound(NotFoundCache.Type.SET, setId);
+                    return new SetNotFoundException("Set " + setId + " " + NOT_FOUND);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    notFoundCache.putNotFound(NotFoundCache.Type.SET, setId);
+                    return Mono.error(new SetNotFoundException("Set " + setId + " " + NOT_FOUND));
+                }))
+                .flatMap(set -> {
+                    LOG.trace("Contents of set {} = {}", setId, set);
+                    // 2. check if it's a closed set (no recommendations for open sets)
+                    if (setApi.isOpenSet(set)) {
+                        return Mono.<List<Recommendation>>empty();
+                    }
+                    return getPage(NotFoundCache.Type.SET, setId, pageSize, page, seed, nrCandidates -> getCandidatesForSet(set, nrCandidates));
+                });
+    }
 
+    private Mono<List<Recommendation>> getCandidatesForSet(Set set, int pageSize) {
         // 3. Use set metadata to generate vector with Embeddings API and use that to get recommendations, multiply with factor 3
         List<RecordId> setRecordIds = set.getItemsRecordId();
-        Map<String, Recommendation> recommendMetadata = getRecommendationsForSetMetadata(set, setRecordIds, pageSize);
-        LOG.trace("{} recommendations for set meta data {} = {}", recommendMetadata.size(), set.getId(), recommendMetadata);
+        Mono<Map<String, Recommendation>> recommendMetadata = withTimeout(getRecommendationsForSetMetadata(set, setRecordIds, pageSize),
+                setMetadataTimeout, Collections.emptyMap(), "set metadata", set.getId())
+                .doOnNext(recommendations -> LOG.trace("{} recommendations for set meta data {} = {}",
+                        recommendations.size(), set.getId(), recommendations));
 
-        // TODO run getRecommendationsForSetItems in parallel with getRecommendationsForSetMetadata! (better use of Mono)
         // 2024-09-16: PE Note that as part of ticket EA-3933 and changes to Set API we no longer return the items in a set so this part
         // won't be activated
-        // 4. get milvus recommendations for the items in the set
-        Map<String, Recommendation> recommendItems = Collections.emptyMap();
+        // 4. get milvus recommendations for the items in the set (in parallel with the metadata recommendations)
+        Mono<Map<String, Recommendation>> recommendItems;
         if (setRecordIds.isEmpty()) {
             LOG.trace("No set items found");
+            recommendItems = Mono.just(Collections.emptyMap());
         } else {
-            recommendItems = getRecommendationsForSetItems(setRecordIds, pageSize);
-            LOG.trace("{} recommendations for set items {} = {}", recommendItems.size(), set.getId(), recommendItems);
+            recommendItems = withTimeout(getRecommendationsForSetItems(setRecordIds, pageSize),
+                    setItemsTimeout, Collections.emptyMap(), "set items", set.getId())
+                    .doOnNext(recommendations -> LOG.trace("{} recommendations for set items {} = {}",
+                            recommendations.size(), set.getId(), recommendations));
         }
 
         // 5. merge, sort per weight and get most relevant ones
-        List<Recommendation> result = mergeAndSortRecommendations(recommendMetadata, recommendItems);
-        if (result.size() > pageSize) {
-            result = result.subList(0, pageSize);
-        }
-        LOG.trace("Sorted recommendations for set {} = {}", setId, result);
+        return Mono.zip(recommendMetadata, recommendItems, (metadata, items) -> {
+            List<Recommendation> result = limit(mergeAndSortRecommendations(metadata, items), pageSize);
+            LOG.trace("Sorted recommendations for set {} = {}", set.getId(), result);
+            return result;
+        });
+    }
+
+    /**
+     * Limit the time one (optional) branch of recommendations may take. If the branch doesn't finish in time (or returns
+     * nothing) we continue with the fallback value for that branch, so other branches that did finish can still be used.
+     * A timeout of 0 means no timeout.
+     * If the request has a deadline, the branch may only use the remaining time minus the time we reserve for
+     * generating the response. If there's no time left for the branch it is skipped altogether. In both cases the
+     * request is marked as degraded.
+     */
+    private <T> Mono<T> withTimeout(Mono<T> branch, Duration timeout, T fallback, String branchName, String id) {
+        return Mono.deferContextual(context -> {
+            Deadline deadline = Deadline.from(context);
+            Duration limit = timeout;
+            boolean limitedByDeadline = false;
+            if (deadline != null) {
+                Duration available = deadline.remaining().minus(deadlineReserve);
+                if (available.isNegative() || available.isZero()) {
+                    LOG.warn("Skipping recommendations for {} {}, request deadline is almost reached", branchName, id);
+                    deadline.markDegraded();
+                    return Mono.just(fallback);
+                }
+                limitedByDeadline = timeout.isZero() || available.compareTo(timeout) < 0;
+                limit = (limitedByDeadline ? available : timeout);
+            }
 
-        // 6. generate response using Search API
-        return searchApi.generateResponse(result, pageSize, apikey, token);
+            Mono<T> result = branch.onErrorResume(DeadlineExceededException.class, e -> {
+                LOG.warn("Recommendations for {} {} not available before request deadline", branchName, id);
+                if (deadline != null) {
+                    deadline.markDegraded();
+                }
+                return Mono.just(fallback);
+            });
+            if (!limit.isZero()) {
+                Duration finalLimit = limit;
+                boolean finalLimitedByDeadline = limitedByDeadline;
+                result = result.timeout(finalLimit)
+                        .onErrorResume(TimeoutException.class, e -> {
+                            LOG.warn("Recommendations for {} {} not available within {} ms", branchName, id, finalLimit.toMillis());
+                            if (finalLimitedByDeadline) {
+                                deadline.markDegraded();
+                            }
+                            return Mono.just(fallback);
+                        });
+            }
+            return result.defaultIfEmpty(fallback);
+        });
     }
 
     // Try to get generate vector with Embeddings API and use that to get Recommendations, but if Embeddings API is not
     // available, we'll return empty result
-    private Map<String, Recommendation> getRecommendationsForSetMetadata(Set set, List<RecordId> setRecordIds, int pageSize) {
-        EmbeddingResponse embeddingResponse = null;
-        try {
-            embeddingResponse = embeddings.getVectorForSet(set).block();
-        } catch (RuntimeException e) {
-            LOG.error("Error sending request to Embeddings API", e);
-        }
-
-        if (embeddingResponse == null || embeddingResponse.getData().length == 0) {
-            LOG.error("No response from Embeddings API for set {}", set.getId());
-            return Collections.emptyMap();
-        }
-        List<Float> vector = EmbeddingsService.getVectors(embeddingResponse);
-        LOG.trace("Vector for set {} = {}", set.getId(), vector);
-        return milvus.getSimilarRecords(List.of(vector), pageSize, setRecordIds, WEIGHT_SET_METADATA);
+    private Mono<Map<String, Recommendation>> getRecommendationsForSetMetadata(Set set, List<RecordId> setRecordIds, int pageSize) {
+        return Mono.defer(() -> embeddings.getVectorForSet(set))
+                .onErrorResume(e -> {
+                    LOG.error("Error sending request to Embeddings API", e);
+                    return Mono.empty();
+                })
+                .filter(embeddingResponse -> embeddingResponse.getData().length > 0)
+                .map(EmbeddingsService::getVectors)
+                .flatMap(vector -> {
+                    LOG.trace("Vector for set {} = {}", set.getId(), vector);
+                    return milvus.getSimilarRecords(List.of(vector), pageSize, setRecordIds, WEIGHT_SET_METADATA);
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    LOG.error("No response from Embeddings API for set {}", set.getId());
+                    return Collections.<String, Recommendation>emptyMap();
+                }));
     }
 
-    private Map<String, Recommendation> getRecommendationsForSetItems(List<RecordId> setRecordIds, int pageSize) {
-        List<List<Float>> vectors = milvus.getVectorForRecords(setRecordIds);
-        if (vectors.isEmpty()) {
-            return Collections.emptyMap();
-        }
-        return milvus.getSimilarRecords(vectors, pageSize, setRecordIds, WEIGHT_SET_ITEMS);
+    private Mono<Map<String, Recommendation>> getRecommendationsForSetItems(List<RecordId> setRecordIds, int pageSize) {
+        return milvus.getVectorForRecords(setRecordIds).flatMap(vectors -> {
+            if (vectors.isEmpty()) {
+                return Mono.just(Collections.<String, Recommendation>emptyMap());
+            }
+            return milvus.getSimilarRecords(vectors, pageSize, setRecordIds, WEIGHT_SET_ITEMS);
+        });
     }
 
     /**
@@ -183,49 +535,91 @@ public class RecommendService {
      * @param pageSize optional, number of similar records to return, between 1 and 50
      * @param apikey optional API key (used for requests to other APIs if provided)
      * @param token optional authentication token (used for requests to other APIs if provided)
-     * @return json response with similar records data or null if the provided set is an open set
-     * @throws RecommendException when we can't retrieve the requested entity
+     * @return mono with the json response with similar records data. The mono emits an EntityNotFoundException when
+     * we can't retrieve the requested entity
      */
-    public Mono<SearchApiResponse> getRecommendationsForEntity(String type, int id, int pageSize, String apikey, String token)
-        throws RecommendException {
+    public Mono<SearchApiResponse> getRecommendationsForEntity(String type, int id, int pageSize, String apikey, String token) {
+        return rankRecommendationsForEntity(type, id, pageSize, apikey, token)
+                // 5. generate response using Search API
+                .flatMap(result -> generateResponse(result, pageSize, apikey, token));
+    }
 
+    /**
+     * Same as {@link #getRecommendationsForEntity(String, int, int, String, String)}, but returns the ranked
+     * recommendations without retrieving the data of the recommended records from Search API
+     * @return mono with the recommendations, see getRecommendationsForEntity
+     */
+    public Mono<List<Recommendation>> rankRecommendationsForEntity(String type, int id, int pageSize, String apikey, String token) {
         // 1. Get Entity data
-        Entity entity = null;
-        try {
-            entity = entityApi.getEntity(type, id, apikey, token).block();
-            LOG.trace("Contents of entity {}/{} = {}", type, id, entity);
-        } catch (RuntimeException e) {
-            if (e.getMessage() != null && e.getMessage().toLowerCase(Locale.getDefault()).contains(NOT_FOUND)) {
-                throw new EntityNotFoundException("Entity " + type + "/" + id + " " + NOT_FOUND);
-            }
-            throw e; // rethrow other errors than 404
+        String entityKey = type + "/" + id;
+        if (notFoundCache.isNotFound(NotFoundCache.Type.ENTITY, entityKey)) {
+            return Mono.error(new EntityNotFoundException("Entity " + entityKey + " " + NOT_FOUND));
         }
+        Mono<Entity> entity = Mono.defer(() -> entityApi.getEntity(type, id, apikey, token))
+                .doOnNext(e -> LOG.trace("Contents of entity {}/{} = {}", type, id, e))
+                .onErrorMap(RecommendService::isNotFoundError, e -> {
+                    notFoundCache.putNotFound(NotFoundCache.Type.ENTITY, entityKey);
+                    return new EntityNotFoundException("Entity " + entityKey + " " + NOT_FOUND);
+                });
 
-        // TODO run getRecommendationsForEntitySetItems in parallel with getRecommendationsForEntityMetadata! (better use of Mono)
         // 2024-12-04 PE Note that as part of ticket EA-3933 and changes to Set API we can longer return the items in a
-        // set in the same query, so as a temporary solution we are skipping this step
-        // 2. get recommendations for items in associated set (if any), plus the item ids
-        //EntitySetItemsResult recommendEntitySetItems = getRecommendationsForEntitySetItems(type, id, pageSize, apikey, token);
-        List<RecordId> setRecords = Collections.emptyList(); //recommendEntitySetItems.itemsInSet;
-        Map<String, Recommendation> recommendSetItems = Collections.emptyMap(); // recommendEntitySetItems.recommendations;
-        //LOG.trace("{} recommendations for entity set items {}/{} = {}", recommendSetItems.size(), type, id, recommendSetItems);
+        // set in the same query, so usually there won't be any set items.
+        // 2. get recommendations for items in associated set (if any), plus the item ids. This doesn't depend on the
+        // entity data so it's done in parallel with retrieving the entity and its metadata recommendations
+        Mono<EntitySetItemsResult> recommendEntitySetItems = withTimeout(
+                getRecommendationsForEntitySetItems(type, id, pageSize, apikey, token),
+                entitySetTimeout, EntitySetItemsResult.EMPTY, "entity set items", entityKey)
+                .doOnNext(setItems -> LOG.trace("{} recommendations for entity set items {}/{} = {}",
+                        setItems.recommendations().size(), type, id, setItems.recommendations()));
 
         // 3. get recommendations for entity metadata
-        Map<String, Recommendation> recommendMetadata = Collections.emptyMap();
-        if (entity != null) {
-            recommendMetadata = getRecommendationsForEntityMetadata(entity, pageSize, setRecords);
-            LOG.trace("{} recommendations for entity metadata {}/{} = {}", recommendMetadata.size(), type, id, recommendMetadata);
-        }
+        int metadataSize = pageSize + ENTITY_SET_OVERSAMPLE;
+        Mono<EntityMetadataResult> recommendMetadata = entity
+                .flatMap(e -> getRecommendationsForEntityMetadata(e, metadataSize))
+                .doOnNext(metadata -> LOG.trace("{} recommendations for entity metadata {}/{} = {}",
+                        metadata.recommendations().size(), type, id, metadata.recommendations()))
+                .defaultIfEmpty(EntityMetadataResult.EMPTY);
 
         // 4. Merge recommendations, then sort and get the most relevant ones
-        List<Recommendation> result = mergeAndSortRecommendations(recommendMetadata, recommendSetItems);
-        if (result.size() > pageSize) {
-            result = result.subList(0, pageSize);
+        return Mono.zip(recommendMetadata, recommendEntitySetItems)
+                .flatMap(tuple -> {
+                    EntitySetItemsResult setItems = tuple.getT2();
+                    return removeSetItems(tuple.getT1(), setItems.itemsInSet(), metadataSize, pageSize)
+                            .map(metadataNotInSet -> {
+                                List<Recommendation> result = limit(mergeAndSortRecommendations(metadataNotInSet,
+                                        new HashMap<>(setItems.recommendations())), pageSize);
+                                LOG.trace("Sorted recommendations for entity {}/{} = {}", type, id, result);
+                                return result;
+                            });
+                });
+    }
+
+    /**
+     * Since metadata recommendations are generated in parallel with retrieving the set items, we can't exclude the set
+     * items in the Milvus search so we filter them afterwards. To still fill a page the metadata search is oversampled,
+     * but if that's not enough (and Milvus has more results) we search again with the set items excluded.
+     */
+    private Mono<Map<String, Recommendation>> removeSetItems(EntityMetadataResult metadata, List<RecordId> itemsInSet,
+                                                             int requested, int pageSize) {
+        Map<String, Recommendation> result = removeRecords(metadata.recommendations(), itemsInSet);
+        if (result.size() >= pageSize || metadata.recommendations().size() < requested) {
+            return Mono.just(result);
         }
-        LOG.trace("Sorted recommendations for entity {}/{} = {}", type, id, result);
+        LOG.debug("Only {} entity metadata recommendations left after removing set items, searching again", result.size());
+        return milvus.getSimilarRecords(List.of(metadata.vector()), pageSize, itemsInSet, WEIGHT_ENTITY_METADATA);
+    }
 
-        // 5. generate response using Search API
-        return searchApi.generateResponse(result, pageSize, apikey, token);
+    private static Map<String, Recommendation> removeRecords(Map<String, Recommendation> recommendations, List<RecordId> toRemove) {
+        if (toRemove.isEmpty() || recommendations.isEmpty()) {
+            return recommendations;
+        }
+        java.util.Set<String> removeIds = new HashSet<>(toRemove.size());
+        for (RecordId recordId : toRemove) {
+            removeIds.add(recordId.getEuropeanaId());
+        }
+        Map<String, Recommendation> result = new HashMap<>(recommendations);
+        result.values().removeIf(r -> removeIds.contains(r.getRecordId().getEuropeanaId()));
+        return result;
     }
 
     /**
@@ -233,19 +627,37 @@ public class RecommendService {
      * (top 100) items in that set. This step can be skipped if set API is not available/malfunctioning.
      * Milvus is seen as 'must-have' so if there's an error there we'll propagate that.
      */
-    private EntitySetItemsResult getRecommendationsForEntitySetItems(String type, int id, int pageSize, String apikey, String token) {
-        EntitySetItemsResult result = new EntitySetItemsResult();
-        result.itemsInSet = Collections.emptyList();
-        result.recommendations = Collections.emptyMap();
-
-        SetSearch setSearch = null;
-        try {
-            setSearch = setApi.getSetDataForEntity(Entity.generateUri(type, id), apikey, token).block();
-        } catch (RuntimeException e) {
-            LOG.error("Error retrieving associated set data for entity {}/{}", type, id, e);
-            return result;
-        }
+    private Mono<EntitySetItemsResult> getRecommendationsForEntitySetItems(String type, int id, int pageSize, String apikey, String token) {
+        return Mono.defer(() -> setApi.getSetDataForEntity(Entity.generateUri(type, id), apikey, token))
+                .onErrorResume(e -> {
+                    LOG.error("Error retrieving associated set data for entity {}/{}", type, id, e);
+                    return Mono.empty();
+                })
+                .flatMap(setSearch -> {
+                    Set entitySet = getEntitySet(setSearch, type, id);
+                    if (entitySet == null || entitySet.getItemsRecordId().isEmpty()) {
+                        return Mono.<EntitySetItemsResult>empty();
+                    }
+                    // generate vectors
+                    List<RecordId> itemsInSet = entitySet.getItemsRecordId();
+                    return milvus.getVectorForRecords(itemsInSet).flatMap(vectors -> {
+                        LOG.trace("Vectors of items associated with entity {}/{} = {}", type, id, vectors);
+                        if (vectors.isEmpty()) {
+                            LOG.trace("No recommendations for entity set items {}/{}", type, id);
+                            return Mono.just(new EntitySetItemsResult(itemsInSet, Collections.emptyMap()));
+                        }
+                        // Use vectors to get recommendations from Milvus
+                        return milvus.getSimilarRecords(vectors, pageSize, itemsInSet, WEIGHT_ENTITY_SET_ITEMS)
+                                .map(recommendations -> {
+                                    LOG.trace("{} recommendations for entity set items {}/{}: {}", recommendations.size(), type, id, recommendations);
+                                    return new EntitySetItemsResult(itemsInSet, recommendations);
+                                });
+                    });
+                })
+                .defaultIfEmpty(EntitySetItemsResult.EMPTY);
+    }
 
+    private Set getEntitySet(SetSearch setSearch, String type, int id) {
         Set entitySet = null;
         if (setSearch == null || setSearch.getTotal() == 0) {
             LOG.trace("No set associated with entity {}/{}", type, id);
@@ -262,46 +674,42 @@ public class RecommendService {
             LOG.warn("Multiple sets associated with entity {}/{}, using first", type, id);
             entitySet = setSearch.getItems()[0];
         }
-
-        // generate vectors
-        if (entitySet != null) {
-            result.itemsInSet = entitySet.getItemsRecordId();
-            if (!result.itemsInSet.isEmpty()) {
-                List<List<Float>> vectors = milvus.getVectorForRecords(result.itemsInSet);
-                LOG.trace("Vectors of items associated with entity {}/{} = {}", type, id, vectors);
-
-                if (vectors.isEmpty()) {
-                    LOG.trace("No recommendations for entity set items {}/{}", type, id);
-                } else {
-                    // Use vectors to get recommendations from Milvus
-                    result.recommendations = milvus.getSimilarRecords(vectors, pageSize, result.itemsInSet, WEIGHT_ENTITY_SET_ITEMS);
-                    LOG.trace("{} recommendations for entity set items {}/{}: {}", result.recommendations.size(), type, id, result.recommendations);
-                }
-            }
-        }
-        return result;
+        return entitySet;
     }
 
     /**
      * Return recommendations for entity metadata. If the Embeddings API is not available/malfunctioning we skip
      * this step. Entity API or Milvus are seen as 'must have' so if there's a problem there we'll propagate the error
      */
-    private Map<String, Recommendation> getRecommendationsForEntityMetadata(Entity entity, int pageSize, List<RecordId> recordsToExclude) {
+    private Mono<EntityMetadataResult> getRecommendationsForEntityMetadata(Entity entity, int pageSize) {
         // 2b. Generate entity metadata vector
-        EmbeddingResponse embeddingResponse = null;
-        try {
-            embeddingResponse = embeddings.getVectorForEntity(entity).block();
-        } catch (RuntimeException e) {
-            LOG.error("Error sending request to Embeddings API for entity {}/{}", entity.getType(), entity.getId(), e);
-        }
+        return Mono.defer(() -> embeddings.getVectorForEntity(entity))
+                .onErrorResume(e -> {
+                    LOG.error("Error sending request to Embeddings API for entity {}/{}", entity.getType(), entity.getId(), e);
+                    return Mono.empty();
+                })
+                .filter(embeddingResponse -> embeddingResponse.getData().length > 0)
+                .map(EmbeddingsService::getVectors)
+                .flatMap(vector -> {
+                    LOG.trace("Vector for entity {}/{} = {}", entity.getType(), entity.getId(), vector);
+                    return milvus.getSimilarRecords(List.of(vector), pageSize, Collections.emptyList(), WEIGHT_ENTITY_METADATA)
+                            .map(recommendations -> new EntityMetadataResult(vector, recommendations));
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    LOG.error("No response from Embeddings API for entity {}/{}", entity.getType(), entity.getId());
+                    return EntityMetadataResult.EMPTY;
+                }));
+    }
+
+    private static boolean isNotFoundError(Throwable e) {
+        return e.getMessage() != null && e.getMessage().toLowerCase(Locale.getDefault()).contains(NOT_FOUND);
+    }
 
-        if (embeddingResponse == null || embeddingResponse.getData().length == 0) {
-            LOG.error("No response from Embeddings API for entity {}/{}", entity.getType(), entity.getId());
-            return Collections.emptyMap();
+    private static List<Recommendation> limit(List<Recommendation> recommendations, int pageSize) {
+        if (recommendations.size() > pageSize) {
+            return recommendations.subList(0, pageSize);
         }
-        List<Float> vector = EmbeddingsService.getVectors(embeddingResponse);
-        LOG.trace("Vector for entity {}/{} = {}", entity.getType(), entity.getId(), vector);
-        return milvus.getSimilarRecords(List.of(vector), pageSize, recordsToExclude, WEIGHT_ENTITY_METADATA);
+        return recommendations;
     }
 
     List<Recommendation> mergeAndSortRecommendations(Map<String, Recommendation> map1, Map<String, Recommendation> map2) {
@@ -385,9 +793,12 @@ public class RecommendService {
         return "";
     }
 
-    private static class EntitySetItemsResult {
-        List<RecordId> itemsInSet;
-        Map<String, Recommendation> recommendations;
+    private record EntitySetItemsResult(List<RecordId> itemsInSet, Map<String, Recommendation> recommendations) {
+        static final EntitySetItemsResult EMPTY = new EntitySetItemsResult(Collections.emptyList(), Collections.emptyMap());
+    }
+
+    private record EntityMetadataResult(List<Float> vector, Map<String, Recommendation> recommendations) {
+        static final EntityMetadataResult EMPTY = new EntityMetadataResult(null, Collections.emptyMap());
     }
 
 
@@ -0,0 +1,112 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.util.BloomFilter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that keeps a (memory-mapped) Bloom filter of all known record ids, so we can determine locally that a
+ * record doesn't exist instead of asking Search API. The filter is loaded in the background (building it from an ids
+ * file can take a while, so we don't delay startup) and reloaded when the filter file (or the ids file it is built
+ * from) changes.
+ * If no filter is configured or the filter isn't loaded (yet), we don't know anything and all checks are done by
+ * Search API as before.
+ * Note that records published after the ids dump was made are reported missing until the filter is refreshed.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class RecordFilterService {
+
+    private static final Logger LOG = LogManager.getLogger(RecordFilterService.class);
+
+    private final Path filterFile;
+    private final Path idsFile;
+    private final double fpp;
+
+    private volatile BloomFilter filter;
+    private FileTime lastModified;
+    private ScheduledExecutorService refresher;
+
+    @Autowired
+    public RecordFilterService(RecommendSettings settings) {
+        this.filterFile = StringUtils.isBlank(settings.getRecordFilterFile()) ? null : Path.of(settings.getRecordFilterFile());
+        this.idsFile = StringUtils.isBlank(settings.getRecordFilterIdsFile()) ? null : Path.of(settings.getRecordFilterIdsFile());
+        this.fpp = settings.getRecordFilterFpp() > 0 ? settings.getRecordFilterFpp() : 0.001;
+        if (filterFile == null) {
+            LOG.info("No record filter configured, record existence is checked with Search API");
+            return;
+        }
+
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "record-filter-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.execute(this::refreshIfModified);
+        if (settings.getRecordFilterRefreshMinutes() > 0) {
+            refresher.scheduleWithFixedDelay(this::refreshIfModified, settings.getRecordFilterRefreshMinutes(),
+                    settings.getRecordFilterRefreshMinutes(), TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Check if a record is known not to exist.
+     * @param recordId the record to check
+     * @return true if the record definitely doesn't exist, false if it may exist or if there is no filter loaded
+     */
+    public boolean isKnownMissing(RecordId recordId) {
+        BloomFilter current = filter;
+        return current != null && !current.mightContain(recordId.getEuropeanaId());
+    }
+
+    /**
+     * (Re)build and/or (re)load the filter if the source file was modified since the last time we loaded it.
+     * Any error is logged and the previously loaded filter (if any) remains in use.
+     */
+    synchronized void refreshIfModified() {
+        Path source = (idsFile == null ? filterFile : idsFile);
+        try {
+            if (!Files.exists(source)) {
+                LOG.warn("Record filter source file {} not found", source);
+                return;
+            }
+            FileTime modified = Files.getLastModifiedTime(source);
+            if (modified.equals(lastModified)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            if (idsFile != null) {
+                BloomFilter.create(idsFile, fpp).save(filterFile);
+            }
+            filter = BloomFilter.load(filterFile);
+            lastModified = modified;
+            LOG.info("Loaded record filter {} ({} bits, {} hash functions) in {} ms", filterFile,
+                    filter.getNrBits(), filter.getNrHashes(), System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error loading record filter from {}", source, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (refresher != null) {
+            LOG.info("Stopping record filter refresher...");
+            refresher.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.model.RawSearchApiResponse;
+import eu.europeana.api.recommend.model.SearchApiResponse;
+import eu.europeana.api.recommend.util.Deadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coalesces identical recommendation requests that arrive while the same request is still being processed. Instead of
+ * generating the same recommendations again (with Milvus, Embeddings API and Search API), the new request waits for
+ * the result of the request that's in flight.
+ * Responses contain the API key, so only requests with the same API key are coalesced. Like the response cache, we
+ * never coalesce requests with an authentication token.
+ * A shared response is generated within the deadline of the first request, so only requests with the same time budget
+ * are coalesced. Otherwise a client asking for a very short timeout could make identical requests of other clients
+ * fail or return partial results.
+ * Note that a raw (passthrough) Search API response body can only be read once, so when coalescing is enabled it's
+ * buffered in memory so all waiting requests can read it.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class RequestCoalescer {
+
+    private static final Logger LOG = LogManager.getLogger(RequestCoalescer.class);
+
+    private static final String METRIC_COALESCED = "recommend.requests.coalesced";
+
+    /**
+     * @param budget the time budget of the request (see {@link Deadline}), null if there is no deadline
+     */
+    private record InFlightKey(ResponseCache.Key key, String apikey, Duration budget) {}
+
+    private final boolean enabled;
+    private final Map<InFlightKey, Mono<SearchApiResponse>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    @Autowired
+    public RequestCoalescer(RecommendSettings settings, MeterRegistry meterRegistry) {
+        this.enabled = settings.isRequestCoalescingEnabled();
+        this.coalesced = Counter.builder(METRIC_COALESCED)
+                .description("Number of requests that waited for an identical request in flight")
+                .register(meterRegistry);
+        if (!enabled) {
+            LOG.info("Request coalescing is disabled");
+        }
+    }
+
+    /**
+     * Return the result of an identical request that's in flight, or generate a new response
+     * @param key the key identifying the request
+     * @param apikey the API key of the caller
+     * @param token the authentication token of the caller, if not empty the request is not coalesced
+     * @param loader generates a new response
+     * @return mono with the response, or an empty mono if there is no response
+     */
+    public Mono<SearchApiResponse> get(ResponseCache.Key key, String apikey, String token,
+                                       ResponseCache.ResponseLoader loader) {
+        if (!enabled || StringUtils.isNotBlank(token)) {
+            return loader.load();
+        }
+        return Mono.deferContextual(context -> {
+            Deadline deadline = Deadline.from(context);
+            InFlightKey inFlightKey = new InFlightKey(key, apikey, deadline == null ? null : deadline.getBudget());
+            boolean[] isNew = {false};
+            Mono<SearchApiResponse> result = inFlight.computeIfAbsent(inFlightKey, k -> {
+                isNew[0] = true;
+                return share(k, loader);
+            });
+            if (!isNew[0]) {
+                LOG.debug("Waiting for identical request {} in flight", key);
+                coalesced.increment();
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Create a mono that generates the response only once, for all subscribers. When the response is ready (or
+     * generating it failed), new requests will generate a new response again.
+     */
+    private Mono<SearchApiResponse> share(InFlightKey key, ResponseCache.ResponseLoader loader) {
+        AtomicReference<Mono<SearchApiResponse>> self = new AtomicReference<>();
+        Mono<SearchApiResponse> result = Mono.defer(loader::load)
+                .flatMap(RequestCoalescer::toReplayable)
+                .doFinally(signal -> inFlight.remove(key, self.get()))
+                .cache();
+        self.set(result);
+        return result;
+    }
+
+    /**
+     * Make sure a response can be written more than once
+     */
+    private static Mono<SearchApiResponse> toReplayable(SearchApiResponse response) {
+        if (!(response instanceof RawSearchApiResponse raw)) {
+            return Mono.just(response);
+        }
+        return DataBufferUtils.join(raw.getBody()).map(dataBuffer -> {
+            byte[] body = new byte[dataBuffer.readableByteCount()];
+            dataBuffer.read(body);
+            DataBufferUtils.release(dataBuffer);
+            // every subscriber to the body gets its own buffer, wrapping the same (read-only) bytes
+            SearchApiResponse result = new RawSearchApiResponse(raw.getApikey(),
+                    Mono.fromSupplier(() -> DefaultDataBufferFactory.sharedInstance.wrap(body)));
+            result.setContentHash(raw.getContentHash());
+            result.setPartial(raw.isPartial());
+            return result;
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.config.AdaptiveTimeout;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Sends hedged requests: if a request hasn't finished within a certain delay we send a second identical request and
+ * use the response of whichever request finishes first. The delay is either fixed or the recently observed latency at a
+ * particular percentile. To prevent overloading a backend system the number of hedged requests is limited to a
+ * percentage of all requests.
+ */
+public class RequestHedger {
+
+    private static final Logger LOG = LogManager.getLogger(RequestHedger.class);
+
+    private static final String METRIC_SENT = "recommend.backend.hedge.sent";
+    private static final String METRIC_WON = "recommend.backend.hedge.won";
+    private static final String METRIC_TAG = "backend";
+    // maximum number of hedged requests we can save up during quiet periods
+    private static final double MAX_TOKENS = 10;
+
+    private final String backend;
+    private final AdaptiveTimeout latency;
+    private final Duration fixedDelay;
+    private final double percentile;
+    private final double tokensPerRequest;
+    private final Counter sent;
+    private final Counter won;
+
+    private double tokens = 0;
+
+    /**
+     * Create a new request hedger
+     * @param backend name of the backend system, used for logging and metrics
+     * @param latency latency tracker of the backend, used to determine the delay (if no fixed delay is specified)
+     * @param fixedDelay optional, if not null this fixed delay is used instead of an observed latency percentile
+     * @param percentile the latency percentile to use as delay (if there's no fixed delay), must be tracked by the
+     *                   latency tracker
+     * @param budgetPercentage maximum number of hedged requests as percentage of all requests
+     * @param meterRegistry registry for metrics
+     * @throws IllegalArgumentException if there's no fixed delay and the latency percentile is not tracked
+     */
+    public RequestHedger(String backend, AdaptiveTimeout latency, Duration fixedDelay, double percentile,
+                         double budgetPercentage, MeterRegistry meterRegistry) {
+        if (fixedDelay == null && (latency == null || !latency.isTracked(percentile))) {
+            // otherwise we would never know the delay and silently never hedge
+            throw new IllegalArgumentException("Latency percentile " + percentile + " of " + backend
+                    + " is not tracked, so it can't be used for hedging requests");
+        }
+        this.backend = backend;
+        this.latency = latency;
+        this.fixedDelay = fixedDelay;
+        this.percentile = percentile;
+        this.tokensPerRequest = budgetPercentage / 100;
+        this.sent = Counter.builder(METRIC_SENT).description("Number of hedged requests sent")
+                .tag(METRIC_TAG, backend).register(meterRegistry);
+        this.won = Counter.builder(METRIC_WON).description("Number of hedged requests that finished first")
+                .tag(METRIC_TAG, backend).register(meterRegistry);
+    }
+
+    /**
+     * Execute a request, sending a hedged request if the original one takes too long (and the budget allows it)
+     * @param request supplier of the request to send, is invoked once for every request we send
+     * @return the response of the first request to finish
+     * @param <T> response type
+     */
+    public <T> Mono<T> hedge(Supplier<Mono<T>> request) {
+        return Mono.defer(() -> {
+            addTokens();
+            Duration delay = getDelay();
+            if (delay == null) {
+                return request.get();
+            }
+            Mono<T> hedged = Mono.delay(delay)
+                    .flatMap(tick -> {
+                        if (!tryAcquireToken()) {
+                            return Mono.never();
+                        }
+                        LOG.debug("No response from {} after {} ms, sending hedged request", backend, delay.toMillis());
+                        sent.increment();
+                        return request.get()
+                                .doOnNext(response -> won.increment())
+                                .onErrorResume(e -> {
+                                    // the original request determines what error we return
+                                    LOG.debug("Hedged request to {} failed", backend, e);
+                                    return Mono.never();
+                                });
+                    });
+            // the first request to emit a value, complete or error wins, the other one is cancelled
+            return Mono.firstWithSignal(request.get(), hedged);
+        });
+    }
+
+    private Duration getDelay() {
+        if (fixedDelay != null) {
+            return fixedDelay;
+        }
+        return latency.getLatency(percentile);
+    }
+
+    private synchronized void addTokens() {
+        tokens = Math.min(MAX_TOKENS, tokens + tokensPerRequest);
+    }
+
+    private synchronized boolean tryAcquireToken() {
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+}
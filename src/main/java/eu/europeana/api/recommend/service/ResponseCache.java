@@ -0,0 +1,405 @@
+package eu.europeana.api.recommend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.exception.RecommendException;
+import eu.europeana.api.recommend.model.RawSearchApiResponse;
+import eu.europeana.api.recommend.model.SearchApiResponse;
+import eu.europeana.api.recommend.util.HotKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of complete recommendation responses. Entries that are older than the configured time-to-live are
+ * still served (stale-while-revalidate), but trigger a refresh in the background. Entries older than the maximum
+ * staleness are never served.
+ * Responses are stored as pre-encoded json with the API key left out, so one entry can be used for all API keys and
+ * we don't need to serialize the response again.
+ * Requests with an authentication token are never cached, because a token may give access to non-public data.
+ * Since we leave API key validation to Search API, cached responses are only served to API keys that were recently
+ * used successfully for a Search API request (see {@link ValidApikeys}).
+ * The content hash of a response (from which we generate its ETag) is cached as well, so conditional requests can be
+ * answered from the cache. Partial responses (generated when a request ran out of time) are never cached.
+ * The most requested responses are tracked (see {@link HotKeys}) and refreshed periodically before they become
+ * stale, so popular pages are always served from the cache. The number of these refreshes is limited, and we skip them
+ * for endpoints with requests waiting for their turn (see {@link EndpointBulkheads}), so they don't compete with live
+ * traffic.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class ResponseCache {
+
+    /**
+     * Endpoints whose responses we cache
+     */
+    public enum Endpoint { RECORD, SET, ENTITY }
+
+    /**
+     * Identifies a cached response
+     * @param endpoint the requested endpoint
+     * @param id the id of the requested record, set or entity
+     * @param pageSize the requested page size
+     * @param page the requested page
+     * @param seed the requested seed, can be null
+     */
+    public record Key(Endpoint endpoint, String id, int pageSize, int page, String seed) {}
+
+    /**
+     * Generates a new (uncached) response
+     */
+    @FunctionalInterface
+    public interface ResponseLoader {
+        /**
+         * @return mono with the generated response, or an empty mono if there is no response
+         */
+        Mono<SearchApiResponse> load();
+    }
+
+    /**
+     * What we need to refresh a popular response
+     */
+    private record Refresh(String apikey, ResponseLoader loader) {}
+
+    private static final Logger LOG = LogManager.getLogger(ResponseCache.class);
+
+    private static final int BYTES_PER_MB = 1024 * 1024;
+    // locations in the response json where the API key is used
+    private static final byte[][] APIKEY_PREFIXES = {
+            "\"apikey\":\"".getBytes(StandardCharsets.UTF_8),
+            "wskey=".getBytes(StandardCharsets.UTF_8),
+            "utm_campaign=".getBytes(StandardCharsets.UTF_8)
+    };
+
+    private final ObjectMapper objectMapper;
+    private final ValidApikeys validApikeys;
+    private final EndpointBulkheads bulkheads;
+    private final long ttlNanos;
+    private Cache<Key, Entry> cache;
+    private final Set<Key> refreshing = ConcurrentHashMap.newKeySet();
+    private HotKeys<Key, Refresh> hotKeys;
+    private int prewarmTopN;
+    private int prewarmMaxPerRun;
+    private int prewarmConcurrency;
+    private Duration prewarmInterval;
+    private Counter prewarmed;
+    private ScheduledExecutorService prewarmer;
+
+    @Autowired
+    public ResponseCache(RecommendSettings settings, ObjectMapper objectMapper, ValidApikeys validApikeys,
+                         EndpointBulkheads bulkheads, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.validApikeys = validApikeys;
+        this.bulkheads = bulkheads;
+        this.ttlNanos = Duration.ofSeconds(settings.getResponseCacheTtl()).toNanos();
+        if (!settings.isResponseCacheEnabled()) {
+            LOG.info("Response cache is disabled");
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(Math.max(settings.getResponseCacheTtl(), settings.getResponseCacheMaxStale())))
+                .maximumWeight((long) settings.getResponseCacheMaxSizeMb() * BYTES_PER_MB)
+                .weigher((Key key, Entry entry) -> entry.size())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "responses", Tags.empty());
+        if (settings.getResponseCachePrewarmTopN() > 0 && settings.getResponseCachePrewarmInterval() > 0) {
+            initPrewarming(settings, meterRegistry);
+        }
+    }
+
+    private void initPrewarming(RecommendSettings settings, MeterRegistry meterRegistry) {
+        this.prewarmTopN = settings.getResponseCachePrewarmTopN();
+        this.prewarmMaxPerRun = Math.max(1, settings.getResponseCachePrewarmMaxPerRun());
+        this.prewarmConcurrency = Math.max(1, settings.getResponseCachePrewarmConcurrency());
+        this.prewarmInterval = Duration.ofSeconds(settings.getResponseCachePrewarmInterval());
+        // track more keys than we refresh, so keys that are becoming popular can overtake the current top
+        this.hotKeys = new HotKeys<>(prewarmTopN * 2);
+        Gauge.builder("recommend.response.cache.hotkeys", hotKeys, HotKeys::size)
+                .description("Number of popular cached responses that are tracked")
+                .register(meterRegistry);
+        this.prewarmed = Counter.builder("recommend.response.cache.prewarmed")
+                .description("Number of popular cached responses that were refreshed before they became stale")
+                .register(meterRegistry);
+        this.prewarmer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "response-cache-prewarm");
+            t.setDaemon(true);
+            return t;
+        });
+        prewarmer.scheduleWithFixedDelay(this::prewarm, prewarmInterval.toSeconds(), prewarmInterval.toSeconds(),
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Check if there is a cached response that can be served
+     * @param key the key identifying the response
+     * @param apikey the API key of the caller
+     * @param token the authentication token of the caller
+     * @return true if {@link #get(Key, String, String, ResponseLoader)} will return a cached response, otherwise false
+     */
+    public boolean contains(Key key, String apikey, String token) {
+        if (cache == null || StringUtils.isNotBlank(token) || StringUtils.isBlank(apikey)) {
+            return false;
+        }
+        return validApikeys.isValid(apikey) && cache.getIfPresent(key) != null;
+    }
+
+    /**
+     * Return a cached response, or generate and cache a new one
+     * @param key the key identifying the response
+     * @param apikey the API key of the caller, to include in the response
+     * @param token the authentication token of the caller, if not empty the response is not cached
+     * @param loader generates a new response (using the API key and token of the caller)
+     * @return mono with the (cached) response, or an empty mono if there is no response
+     */
+    public Mono<SearchApiResponse> get(Key key, String apikey, String token, ResponseLoader loader) {
+        if (cache == null || StringUtils.isNotBlank(token) || StringUtils.isBlank(apikey)) {
+            return loader.load();
+        }
+        if (hotKeys != null) {
+            hotKeys.record(key, new Refresh(apikey, loader));
+        }
+
+        Entry entry = (validApikeys.isValid(apikey) ? cache.getIfPresent(key) : null);
+        if (entry != null) {
+            if (System.nanoTime() - entry.created() > ttlNanos) {
+                refreshInBackground(key, apikey, loader);
+            }
+            return Mono.just(entry.render(apikey));
+        }
+
+        return loader.load()
+                .defaultIfEmpty(new SearchApiResponse(apikey))
+                .flatMap(r -> {
+                    if (r.isPartial()) {
+                        LOG.debug("Not caching partial response {}", key);
+                        return Mono.just(r);
+                    }
+                    return createEntry(r, apikey).map(newEntry -> {
+                        cache.put(key, newEntry);
+                        return newEntry.render(apikey);
+                    });
+                });
+    }
+
+    private void refreshInBackground(Key key, String apikey, ResponseLoader loader) {
+        LOG.debug("Refreshing stale response {}", key);
+        refresh(key, apikey, loader)
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe();
+    }
+
+    /**
+     * Generate a new response and replace the cached one
+     * @return mono with the new cache entry, or an empty mono if the key was already being refreshed or the refresh
+     * failed
+     */
+    private Mono<Entry> refresh(Key key, String apikey, ResponseLoader loader) {
+        return Mono.defer(() -> {
+            if (!refreshing.add(key)) {
+                return Mono.empty(); // already being refreshed
+            }
+            return Mono.defer(loader::load)
+                    .defaultIfEmpty(new SearchApiResponse(apikey))
+                    .filter(r -> !r.isPartial())
+                    .flatMap(r -> createEntry(r, apikey))
+                    .doOnNext(newEntry -> cache.put(key, newEntry))
+                    .onErrorResume(e -> {
+                        if (e instanceof RecommendException) {
+                            // e.g. record, set or entity no longer exists
+                            cache.invalidate(key);
+                            if (hotKeys != null) {
+                                hotKeys.remove(key);
+                            }
+                        }
+                        LOG.warn("Error refreshing response {}", key, e);
+                        return Mono.empty();
+                    })
+                    .doFinally(signal -> refreshing.remove(key));
+        });
+    }
+
+    /**
+     * Refresh the most popular cached responses that will become stale before the next check. Waits until all
+     * refreshes are done (or the check interval has passed), so checks never overlap.
+     * Live requests have priority, so responses of an endpoint are not refreshed while requests for that endpoint are
+     * waiting for their turn. These responses are refreshed when they are requested again after becoming stale.
+     */
+    void prewarm() {
+        long now = System.nanoTime();
+        List<HotKeys.HotKey<Key, Refresh>> due = hotKeys.getTop(prewarmTopN).stream()
+                .filter(hotKey -> !bulkheads.isBusy(hotKey.key().endpoint()))
+                .filter(hotKey -> isPrewarmDue(hotKey.key(), hotKey.value().apikey(), now))
+                .limit(prewarmMaxPerRun)
+                .toList();
+        if (due.isEmpty()) {
+            return;
+        }
+        LOG.debug("Pre-warming {} popular responses", due.size());
+        try {
+            Flux.fromIterable(due)
+                    .flatMap(hotKey -> Mono.defer(() -> {
+                        // the endpoint may have become busy while we were refreshing other responses
+                        if (bulkheads.isBusy(hotKey.key().endpoint())) {
+                            return Mono.empty();
+                        }
+                        return refresh(hotKey.key(), hotKey.value().apikey(), hotKey.value().loader());
+                    }), prewarmConcurrency)
+                    .doOnNext(newEntry -> prewarmed.increment())
+                    .blockLast(prewarmInterval);
+        } catch (RuntimeException e) {
+            LOG.warn("Error pre-warming popular responses", e);
+        }
+    }
+
+    private boolean isPrewarmDue(Key key, String apikey, long now) {
+        Entry entry = cache.getIfPresent(key);
+        return entry != null && validApikeys.isValid(apikey)
+                && now - entry.created() > ttlNanos - prewarmInterval.toNanos();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (prewarmer != null) {
+            LOG.info("Stopping response cache pre-warming...");
+            prewarmer.shutdownNow();
+        }
+    }
+
+    private Mono<Entry> createEntry(SearchApiResponse response, String apikey) {
+        return encode(response).map(json -> Entry.create(json, apikey, response.getContentHash()));
+    }
+
+    /**
+     * Serialize a response to json bytes
+     */
+    private Mono<byte[]> encode(SearchApiResponse response) {
+        if (response instanceof RawSearchApiResponse raw) {
+            return DataBufferUtils.join(raw.getBody()).map(dataBuffer -> {
+                byte[] result = new byte[dataBuffer.readableByteCount()];
+                dataBuffer.read(result);
+                DataBufferUtils.release(dataBuffer);
+                return result;
+            });
+        }
+        try {
+            return Mono.just(objectMapper.writeValueAsBytes(response));
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+    }
+
+    /**
+     * Cached response json, split into parts at every location where the API key should be inserted
+     */
+    record Entry(List<byte[]> parts, int size, long created, String contentHash) {
+
+        static Entry create(byte[] json, String apikey, String contentHash) {
+            byte[] key = apikey.getBytes(StandardCharsets.UTF_8);
+            List<byte[]> parts = new ArrayList<>();
+            int start = 0;
+            int i = 0;
+            while (i <= json.length - key.length) {
+                if (isApikeyAt(json, i, key)) {
+                    parts.add(copy(json, start, i));
+                    i = i + key.length;
+                    start = i;
+                } else {
+                    i++;
+                }
+            }
+            parts.add(copy(json, start, json.length));
+            return new Entry(parts, json.length, System.nanoTime(), contentHash);
+        }
+
+        /**
+         * @return true if the API key is located at the provided position, preceded by one of the known prefixes and
+         * not followed by another word character
+         */
+        private static boolean isApikeyAt(byte[] json, int position, byte[] key) {
+            if (!matches(json, position, key)) {
+                return false;
+            }
+            int end = position + key.length;
+            if (end < json.length && isWordCharacter(json[end])) {
+                return false;
+            }
+            for (byte[] prefix : APIKEY_PREFIXES) {
+                if (position >= prefix.length && matches(json, position - prefix.length, prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean matches(byte[] json, int position, byte[] value) {
+            for (int j = 0; j < value.length; j++) {
+                if (json[position + j] != value[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isWordCharacter(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+        }
+
+        private static byte[] copy(byte[] source, int from, int to) {
+            byte[] result = new byte[to - from];
+            System.arraycopy(source, from, result, 0, result.length);
+            return result;
+        }
+
+        /**
+         * Generate the json for the provided API key
+         */
+        byte[] toJson(String apikey) {
+            byte[] key = apikey.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size + parts.size() * key.length);
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    out.writeBytes(key);
+                }
+                out.writeBytes(parts.get(i));
+            }
+            return out.toByteArray();
+        }
+
+        SearchApiResponse render(String apikey) {
+            DataBuffer body = DefaultDataBufferFactory.sharedInstance.wrap(toJson(apikey));
+            SearchApiResponse response = new RawSearchApiResponse(apikey, Mono.just(body));
+            response.setContentHash(contentHash);
+            return response;
+        }
+    }
+}
@@ -1,18 +1,34 @@
 package eu.europeana.api.recommend.service;
 
 import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.config.RecommendSettings;
 import eu.europeana.api.recommend.config.WebClients;
+import eu.europeana.api.recommend.model.RawSearchApiResponse;
 import eu.europeana.api.recommend.model.Recommendation;
 import eu.europeana.api.recommend.model.SearchApiResponse;
 import eu.europeana.api.recommend.util.RequestUtils;
+import eu.europeana.api.recommend.util.ResilienceUtils;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Service for interacting with the Europeana Search API. The search API is primarily used to
@@ -20,6 +36,9 @@ import java.util.List;
  * <li>check if the found recommendations exists (Milvus may not be 100% in sync with Search API) and</li>
  * <li>generate the recommendation responses that we sent back</li>
  * </ol>
+ * We leave API key validation to Search API. API keys that Search API accepts are remembered (see
+ * {@link ValidApikeys}). If a response can be generated from the local item store alone, we only ask Search API to
+ * validate the API key (or token) when it isn't known to be valid yet.
  * @author Patrick Ehlert
  */
 @Service
@@ -28,22 +47,47 @@ public class SearchApiService {
     private static final Logger LOG = LogManager.getLogger(SearchApiService.class);
 
     private static final String SOLR_ID_FIELD = "europeana_id";
+    private static final String ITEM_ID_FIELD = "id";
+    // maximum number of items Search API returns in 1 response
+    private static final int MAX_ROWS = 100;
+    // cheapest request we can send to check if Search API accepts an API key or token
+    private static final String VALIDATE_QUERY = "search.json?query=*:*&rows=0&profile=minimal";
 
     private WebClient webClient;
+    private boolean passthrough;
+    private int chunkSize;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
+    private RequestHedger hedger;
+    private ItemStoreService itemStore;
+    private ValidApikeys validApikeys;
 
     @Autowired
-    public SearchApiService(WebClients webclients) {
+    public SearchApiService(WebClients webclients, RecommendSettings config,
+                            CircuitBreakerRegistry circuitBreakers, BulkheadRegistry bulkheads,
+                            MeterRegistry meterRegistry, ItemStoreService itemStore, ValidApikeys validApikeys) {
         this.webClient = webclients.getSearchApiClient();
+        this.itemStore = itemStore;
+        this.validApikeys = validApikeys;
+        this.passthrough = config.isSearchApiPassthrough();
+        this.chunkSize = config.getSearchApiChunkSize();
+        this.circuitBreaker = circuitBreakers.circuitBreaker(ResilienceUtils.SEARCH_API);
+        this.bulkhead = bulkheads.bulkhead(ResilienceUtils.SEARCH_API);
+        if (config.isSearchApiHedgeEnabled()) {
+            Duration fixedDelay = (config.getSearchApiHedgeDelayMs() > 0 ? Duration.ofMillis(config.getSearchApiHedgeDelayMs()) : null);
+            this.hedger = new RequestHedger(ResilienceUtils.SEARCH_API, webclients.getAdaptiveTimeout(ResilienceUtils.SEARCH_API),
+                    fixedDelay, config.getSearchApiHedgePercentile(), config.getSearchApiHedgeBudgetPercentage(), meterRegistry);
+        }
     }
 
     /**
-     * Return true if the record exists, otherwise false
+     * Check if a record exists
      * @param recordId id of the record to check
      * @param apikey optional, if empty apikey parameter is not included (token should be provided)
      * @param token optional, if empty the apikey parameter is used
-     * @return true if the Search API can find the record, otherwise false
+     * @return mono with true if the Search API can find the record, otherwise false
      */
-    public boolean checkRecordExists(RecordId recordId, String apikey,String token) {
+    public Mono<Boolean> checkRecordExists(RecordId recordId, String apikey,String token) {
         String query = "search.json?query="
             + SOLR_ID_FIELD + ":\""
             + recordId.getEuropeanaId()
@@ -51,20 +95,27 @@ public class SearchApiService {
             + "rows=1"
             + "&profile=minimal";
 
-        SearchApiResponse response = webClient.get()
+        return ResilienceUtils.decorate(webClient.get()
                 .uri(query)
                 .headers(RequestUtils.generateHeaders(token,apikey))
                 .retrieve()
-                .bodyToMono(SearchApiResponse.class).block();
-        if (response != null) {
-            return response.getTotalResults() == 1;
-        }
-        return false;
+                .bodyToMono(SearchApiResponse.class), circuitBreaker, bulkhead)
+                .doOnNext(response -> markValid(apikey, token))
+                .map(response -> response.getTotalResults() == 1)
+                .defaultIfEmpty(Boolean.FALSE);
     }
 
     /**
      * Given a set of recommendations, we use a reactive (non-blocking) WebClient to verify with Search API if these
      * records still exist. Also, the response of Search API is used as our final recommendation response.
+     * If passthrough is enabled, the Search API response body is not deserialized, instead a
+     * {@link RawSearchApiResponse} is returned so the body can be streamed to the client as-is. We don't need to
+     * rewrite anything in the body, because Search API returns the same API key that we use in our response.
+     * If hedging is enabled, we send a second request when Search API doesn't respond within the hedging delay.
+     * If a chunk size is set (and passthrough is disabled), we split the query into several smaller queries that are
+     * sent concurrently, and merge the results in the order of the provided recommendations.
+     * If the local item store is enabled, items are read from the store and Search API is only used for items that
+     * are not available locally.
      * @param recommendations the recommendations we want to return
      * @param maxResults the maximum number of results
      * @param apikey optional, if empty apikey parameter is not included (token should be provided)
@@ -76,30 +127,199 @@ public class SearchApiService {
             return Mono.just(new SearchApiResponse(apikey));
         }
 
-        String query = this.generateSearchQuery(recommendations, maxResults, apikey);
-        Mono<SearchApiResponse> response = webClient.get()
-                .uri(query)
-                .headers(RequestUtils.generateHeaders(token,apikey))
-                .retrieve()
-                .bodyToMono(SearchApiResponse.class);
+        List<Recommendation> toReturn = recommendations.subList(0, Math.min(maxResults, recommendations.size()));
+        if (itemStore.isEnabled()) {
+            return generateResponseWithLocalItems(toReturn, apikey, token);
+        }
+
+        if (passthrough) {
+            String query = this.generateSearchQuery(recommendations, maxResults, apikey);
+            return hedge(() -> sendRawRequest(query, apikey, token));
+        }
+
+        Mono<SearchApiResponse> response = fetchItems(toReturn, apikey, token);
 
         if (LOG.isDebugEnabled()) {
-            // WARNING since we do a block here when DEBUG is enabled this will cause us to do the request to
-            //  Search API twice, once here and once in the controller where the other block() is
-            SearchApiResponse searchResponse = response.block();
-            if (searchResponse != null) {
+            response = response.doOnNext(searchResponse -> {
                 int nrResults = searchResponse.getTotalResults();
-                if (nrResults != recommendations.size()) {
-                    LOG.warn("{} results from Search API, expected {}", nrResults, recommendations.size());
+                if (nrResults != toReturn.size()) {
+                    LOG.warn("{} results from Search API, expected {}", nrResults, toReturn.size());
                 } else {
                     LOG.debug("{} results from Search API", nrResults);
                 }
-            }
+            });
         }
 
         return response;
     }
 
+    /**
+     * Lookup the items for the provided recommendations, for example to generate responses for several records at
+     * once. Items are read from the local item store (if enabled), all other items are retrieved from Search API. Since
+     * Search API returns at most 100 items per request, larger lookups are split in several concurrent requests.
+     * @param recommendations the recommendations to lookup, these should not contain duplicates
+     * @param apikey optional, if empty apikey parameter is not included (token should be provided)
+     * @param token optional, if empty the apikey parameter is used
+     * @return mono with a map with the Europeana id as key and the item as value. Items that Search API didn't
+     * return are not included
+     */
+    public Mono<Map<String, Map>> getItems(List<Recommendation> recommendations, String apikey, String token) {
+        Map<String, Map> result = new HashMap<>();
+        if (recommendations == null || recommendations.isEmpty()) {
+            return Mono.just(result);
+        }
+        List<Recommendation> missing = recommendations;
+        if (itemStore.isEnabled()) {
+            result.putAll(itemStore.getItems(recommendations, apikey));
+            missing = recommendations.stream()
+                    .filter(r -> !result.containsKey(r.getRecordId().getEuropeanaId()))
+                    .toList();
+            if (missing.isEmpty()) {
+                return validate(apikey, token).thenReturn(result);
+            }
+        }
+        int size = (chunkSize > 0 ? Math.min(chunkSize, MAX_ROWS) : MAX_ROWS);
+        List<List<Recommendation>> chunks = partition(missing, size);
+        return Flux.fromIterable(chunks)
+                .flatMap(chunk -> {
+                    String query = this.generateSearchQuery(chunk, chunk.size(), apikey);
+                    return hedge(() -> sendRequest(query, apikey, token));
+                }, chunks.size())
+                .collectList()
+                .map(responses -> {
+                    result.putAll(getItemsById(responses));
+                    return result;
+                });
+    }
+
+    /**
+     * Generate a response using items from the local item store. Only items that are not available locally are
+     * retrieved from Search API.
+     */
+    private Mono<SearchApiResponse> generateResponseWithLocalItems(List<Recommendation> recommendations, String apikey,
+                                                                   String token) {
+        Map<String, Map<String, Object>> localItems = itemStore.getItems(recommendations, apikey);
+        SearchApiResponse localResponse = new SearchApiResponse(apikey, localItems.values().toArray(new Map[0]));
+        List<Recommendation> missing = recommendations.stream()
+                .filter(r -> !localItems.containsKey(r.getRecordId().getEuropeanaId()))
+                .toList();
+        if (missing.isEmpty()) {
+            return validate(apikey, token).thenReturn(mergeResponses(recommendations, List.of(localResponse), apikey));
+        }
+        LOG.debug("{} of {} items not available locally", missing.size(), recommendations.size());
+        return fetchItems(missing, apikey, token)
+                .map(searchResponse -> mergeResponses(recommendations, List.of(localResponse, searchResponse), apikey));
+    }
+
+    /**
+     * Retrieve the items for the provided recommendations from Search API, either in 1 request or in chunks
+     */
+    private Mono<SearchApiResponse> fetchItems(List<Recommendation> recommendations, String apikey, String token) {
+        if (chunkSize > 0 && recommendations.size() > chunkSize) {
+            return sendChunkedRequests(recommendations, apikey, token);
+        }
+        String query = this.generateSearchQuery(recommendations, recommendations.size(), apikey);
+        return hedge(() -> sendRequest(query, apikey, token));
+    }
+
+    private Mono<SearchApiResponse> hedge(Supplier<Mono<SearchApiResponse>> request) {
+        if (hedger == null) {
+            return request.get();
+        }
+        return hedger.hedge(request);
+    }
+
+    private Mono<SearchApiResponse> sendRequest(String query, String apikey, String token) {
+        return ResilienceUtils.decorate(webClient.get()
+                .uri(query)
+                .headers(RequestUtils.generateHeaders(token,apikey))
+                .retrieve()
+                .bodyToMono(SearchApiResponse.class), circuitBreaker, bulkhead)
+                .doOnNext(response -> markValid(apikey, token));
+    }
+
+    /**
+     * Make sure Search API accepts the API key (or token) before we return data that we didn't get from Search API.
+     * Returns an empty mono if the API key or token is valid, otherwise the mono emits the error of Search API
+     */
+    private Mono<Void> validate(String apikey, String token) {
+        if (StringUtils.isBlank(token) && validApikeys.isValid(apikey)) {
+            return Mono.empty();
+        }
+        LOG.debug("Validating API key or token with Search API");
+        return sendRequest(VALIDATE_QUERY, apikey, token).then();
+    }
+
+    /**
+     * A successful response means Search API accepted the API key, unless a token was used instead
+     */
+    private void markValid(String apikey, String token) {
+        if (StringUtils.isBlank(token)) {
+            validApikeys.markValid(apikey);
+        }
+    }
+
+    private Mono<SearchApiResponse> sendChunkedRequests(List<Recommendation> recommendations, String apikey, String token) {
+        List<List<Recommendation>> chunks = partition(recommendations, chunkSize);
+        LOG.debug("Sending {} chunked requests to Search API", chunks.size());
+        return Flux.fromIterable(chunks)
+                .flatMap(chunk -> {
+                    String query = this.generateSearchQuery(chunk, chunk.size(), apikey);
+                    return hedge(() -> sendRequest(query, apikey, token));
+                }, chunks.size())
+                .collectList()
+                .map(responses -> mergeResponses(recommendations, responses, apikey));
+    }
+
+    private static List<List<Recommendation>> partition(List<Recommendation> recommendations, int size) {
+        List<List<Recommendation>> result = new ArrayList<>();
+        for (int i = 0; i < recommendations.size(); i += size) {
+            result.add(recommendations.subList(i, Math.min(i + size, recommendations.size())));
+        }
+        return result;
+    }
+
+    /**
+     * Merge the items of several Search API responses into one response, in the order of the provided
+     * recommendations. Recommended records that Search API didn't return are left out.
+     */
+    static SearchApiResponse mergeResponses(List<Recommendation> recommendations, List<SearchApiResponse> responses,
+                                            String apikey) {
+        Map<String, Map> itemsById = getItemsById(responses);
+        List<Map> items = new ArrayList<>(itemsById.size());
+        for (Recommendation recommendation : recommendations) {
+            Map item = itemsById.remove(recommendation.getRecordId().getEuropeanaId());
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return new SearchApiResponse(apikey, items.toArray(new Map[0]));
+    }
+
+    private static Map<String, Map> getItemsById(List<SearchApiResponse> responses) {
+        Map<String, Map> result = new HashMap<>();
+        for (SearchApiResponse response : responses) {
+            for (Map item : response.getItems()) {
+                Object id = item.get(ITEM_ID_FIELD);
+                if (id != null) {
+                    result.put(id.toString(), item);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Mono<SearchApiResponse> sendRawRequest(String query, String apikey, String token) {
+        // retrieve() makes sure we get an error before any data is streamed if Search API returns an error status
+        return ResilienceUtils.decorate(webClient.get()
+                .uri(query)
+                .headers(RequestUtils.generateHeaders(token,apikey))
+                .retrieve()
+                .toEntityFlux(DataBuffer.class)
+                .map(entity -> new RawSearchApiResponse(apikey, entity.getBody())), circuitBreaker, bulkhead)
+                .doOnNext(response -> markValid(apikey, token));
+    }
+
     /**
      * Constructs a Search API query in the form
      * <pre>query=europeana_id:("/x1/y1" OR "/x2/y2 OR "/x3/y3")&pageSize=3&profile=minimal&wskey=[wskey]</pre>
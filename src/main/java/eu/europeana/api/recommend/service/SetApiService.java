@@ -4,6 +4,11 @@ import eu.europeana.api.recommend.config.WebClients;
 import eu.europeana.api.recommend.model.Set;
 import eu.europeana.api.recommend.model.SetSearch;
 import eu.europeana.api.recommend.util.RequestUtils;
+import eu.europeana.api.recommend.util.ResilienceUtils;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -20,10 +25,14 @@ public class SetApiService {
     private static final int MAX_SET_ITEMS = 100;
 
     private WebClient webClient;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
 
     @Autowired
-    public SetApiService(WebClients webclients) {
+    public SetApiService(WebClients webclients, CircuitBreakerRegistry circuitBreakers, BulkheadRegistry bulkheads) {
         this.webClient = webclients.getSetApiClient();
+        this.circuitBreaker = circuitBreakers.circuitBreaker(ResilienceUtils.SET_API);
+        this.bulkhead = bulkheads.bulkhead(ResilienceUtils.SET_API);
     }
 
     /**
@@ -39,11 +48,11 @@ public class SetApiService {
         String query = setId;
             //+ "?pageSize=" + MAX_SET_ITEMS
             //+ "&profile=standard;    // No longer possible to sent with new Set API, instead we retrieve only title and description
-        return this.webClient.get()
+        return ResilienceUtils.decorate(this.webClient.get()
                 .uri(query)
                 .headers(RequestUtils.generateHeaders(token,apikey))
                 .retrieve()
-                .bodyToMono(Set.class);
+                .bodyToMono(Set.class), circuitBreaker, bulkhead);
     }
 
 
@@ -61,11 +70,11 @@ public class SetApiService {
         query.append("&pageSize=").append(MAX_SET_ITEMS);
         query.append("&profile=standard");
 
-        return this.webClient.get()
+        return ResilienceUtils.decorate(this.webClient.get()
                 .uri(query.toString())
                 .headers(RequestUtils.generateHeaders(token,apikey))
                 .retrieve()
-                .bodyToMono(SetSearch.class);
+                .bodyToMono(SetSearch.class), circuitBreaker, bulkhead);
     }
 
 
@@ -0,0 +1,55 @@
+package eu.europeana.api.recommend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Keeps track of API keys that Search API recently accepted. We leave API key validation to Search API, so only
+ * {@link SearchApiService} marks keys as valid, when Search API responds successfully to a request with that key.
+ * Other components use this to check if an API key is valid without asking Search API, e.g. to serve cached responses
+ * (see {@link ResponseCache}) or to give a key its own rate limit (see {@link RateLimiter}).
+ * Keys are forgotten after the maximum staleness of cached responses, so an API key that is revoked can't use our
+ * caches for longer than that.
+ *
+ * @author Patrick Ehlert
+ */
+@Service
+public class ValidApikeys {
+
+    private static final int MAX_APIKEYS = 10_000;
+
+    private final Cache<String, Boolean> apikeys;
+
+    @Autowired
+    public ValidApikeys(RecommendSettings settings) {
+        this.apikeys = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(Math.max(settings.getResponseCacheTtl(), settings.getResponseCacheMaxStale())))
+                .maximumSize(MAX_APIKEYS)
+                .build();
+    }
+
+    /**
+     * Check if an API key was recently accepted by Search API
+     * @param apikey the API key to check
+     * @return true if the API key is known to be valid, otherwise false
+     */
+    public boolean isValid(String apikey) {
+        return StringUtils.isNotBlank(apikey) && apikeys.getIfPresent(apikey) != null;
+    }
+
+    /**
+     * Remember that Search API accepted an API key
+     * @param apikey the API key that was accepted, ignored if empty
+     */
+    public void markValid(String apikey) {
+        if (StringUtils.isNotBlank(apikey)) {
+            apikeys.put(apikey, Boolean.TRUE);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package eu.europeana.api.recommend.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact probabilistic set of strings. If mightContain() returns false the string was definitely never added, if it
+ * returns true the string was probably added (with a configurable false positive probability).
+ * <p>
+ * A filter can be saved to file and loaded again using memory-mapping, so large filters don't use heap space.
+ * File format: magic number (int), number of hash functions (int), number of bits (long), followed by the bits.
+ *
+ * @author Patrick Ehlert
+ */
+public final class BloomFilter {
+
+    private static final int MAGIC = 0x52424631; // RBF1
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final long HASH_SEED = 0x100000001b3L;
+
+    private final ByteBuffer bits;
+    private final long nrBits;
+    private final int nrHashes;
+
+    private BloomFilter(ByteBuffer bits, long nrBits, int nrHashes) {
+        this.bits = bits;
+        this.nrBits = nrBits;
+        this.nrHashes = nrHashes;
+    }
+
+    /**
+     * Create a new empty (in-memory) filter
+     * @param expectedItems the number of items we expect to add
+     * @param falsePositiveProbability the desired false positive probability (e.g. 0.01)
+     * @return new filter
+     */
+    public static BloomFilter create(long expectedItems, double falsePositiveProbability) {
+        if (expectedItems <= 0 || falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("Invalid number of expected items or false positive probability");
+        }
+        // optimal number of bits and hash functions, rounded up to whole bytes
+        long nrBits = (long) Math.ceil(-expectedItems * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        nrBits = ((nrBits + Byte.SIZE - 1) / Byte.SIZE) * Byte.SIZE;
+        if (nrBits / Byte.SIZE > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Filter for " + expectedItems + " items is too large");
+        }
+        int nrHashes = Math.max(1, (int) Math.round((double) nrBits / expectedItems * Math.log(2)));
+        return new BloomFilter(ByteBuffer.allocate((int) (nrBits / Byte.SIZE)), nrBits, nrHashes);
+    }
+
+    /**
+     * Create a new filter containing all lines (ids) in the provided text file
+     * @param idsFile text file with 1 id per line
+     * @param falsePositiveProbability the desired false positive probability (e.g. 0.01)
+     * @return new filter
+     * @throws IOException when there's a problem reading the file
+     */
+    public static BloomFilter create(Path idsFile, double falsePositiveProbability) throws IOException {
+        long nrLines;
+        try (var lines = Files.lines(idsFile, StandardCharsets.UTF_8)) {
+            nrLines = lines.filter(line -> !line.isBlank()).count();
+        }
+        BloomFilter result = create(Math.max(1, nrLines), falsePositiveProbability);
+        try (BufferedReader reader = Files.newBufferedReader(idsFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    result.put(line.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Load a filter from file. The file is memory-mapped (read-only), so no items can be added to the loaded filter.
+     * @param file the file to load
+     * @return loaded filter
+     * @throws IOException when there's a problem reading the file or the file is not a valid filter
+     */
+    public static BloomFilter load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a valid filter file");
+            }
+            int nrHashes = header.getInt();
+            long nrBits = header.getLong();
+            if (nrHashes <= 0 || nrBits <= 0 || channel.size() != HEADER_SIZE + nrBits / Byte.SIZE) {
+                throw new IOException("File " + file + " is corrupt");
+            }
+            // the mapping remains valid after the channel is closed
+            ByteBuffer bits = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, nrBits / Byte.SIZE);
+            return new BloomFilter(bits, nrBits, nrHashes);
+        }
+    }
+
+    /**
+     * Save this filter to file. To make sure there are never readers of a half-written file, we first write to a
+     * temporary file and then rename it.
+     * @param file the file to write to
+     * @throws IOException when there's a problem writing the file
+     */
+    public void save(Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(nrHashes).putLong(nrBits);
+            out.write(header.array());
+            ByteBuffer data = bits.duplicate();
+            data.clear();
+            byte[] chunk = new byte[64 * 1024];
+            while (data.hasRemaining()) {
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Add an item to the filter
+     * @param item the item to add
+     */
+    public void put(String item) {
+        long hash1 = HashUtils.hash64(item);
+        long hash2 = HashUtils.mix(hash1 ^ HASH_SEED) | 1; // must be odd so we generate different bit indexes
+        for (int i = 0; i < nrHashes; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, nrBits);
+            int index = (int) (bit >>> 3);
+            bits.put(index, (byte) (bits.get(index) | (1 << (bit & 7))));
+        }
+    }
+
+    /**
+     * Check if an item might be in the filter
+     * @param item the item to check
+     * @return false if the item is definitely not in the filter, true if it probably is
+     */
+    public boolean mightContain(String item) {
+        long hash1 = HashUtils.hash64(item);
+        long hash2 = HashUtils.mix(hash1 ^ HASH_SEED) | 1;
+        for (int i = 0; i < nrHashes; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, nrBits);
+            if ((bits.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of this filter in bits
+     */
+    public long getNrBits() {
+        return nrBits;
+    }
+
+    /**
+     * @return the number of hash functions used by this filter
+     */
+    public int getNrHashes() {
+        return nrHashes;
+    }
+}
@@ -0,0 +1,87 @@
+package eu.europeana.api.recommend.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Compact probabilistic frequency counter. The estimated count of an item is never lower than the real count, and
+ * only higher when it collides with other frequent items in all rows.
+ * Counters can be halved, so old counts fade out and the estimates reflect recent popularity.
+ *
+ * @author Patrick Ehlert
+ */
+public final class CountMinSketch {
+
+    private static final long HASH_SEED = 0x100000001b3L;
+
+    private final AtomicIntegerArray counters;
+    private final int width;
+    private final int depth;
+
+    /**
+     * Create a new empty sketch
+     * @param width the number of counters per row, rounded up to a power of 2. A larger width means fewer collisions
+     * @param depth the number of rows (hash functions)
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1 || width > (1 << 24)) {
+            throw new IllegalArgumentException("Invalid sketch width " + width + " or depth " + depth);
+        }
+        int rounded = Integer.highestOneBit(width);
+        this.width = (rounded < width ? rounded << 1 : rounded);
+        this.depth = depth;
+        this.counters = new AtomicIntegerArray(this.width * depth);
+    }
+
+    /**
+     * Count an occurrence of an item
+     * @param hash 64-bit hash of the item
+     * @return the estimated count of the item (including this occurrence)
+     */
+    public int add(long hash) {
+        long hash2 = HashUtils.mix(hash ^ HASH_SEED) | 1;
+        int result = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int index = index(i, hash, hash2);
+            int count = counters.get(index);
+            if (count < Integer.MAX_VALUE) {
+                count = counters.incrementAndGet(index);
+            }
+            result = Math.min(result, count);
+        }
+        return result;
+    }
+
+    /**
+     * Return the estimated number of occurrences of an item
+     * @param hash 64-bit hash of the item
+     * @return the estimated count
+     */
+    public int estimate(long hash) {
+        long hash2 = HashUtils.mix(hash ^ HASH_SEED) | 1;
+        int result = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            result = Math.min(result, counters.get(index(i, hash, hash2)));
+        }
+        return result;
+    }
+
+    /**
+     * Halve all counters. Occurrences counted at the same time may be lost, which is fine for an estimate
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+    }
+
+    private int index(int row, long hash1, long hash2) {
+        return row * width + (int) ((hash1 + row * hash2) & (width - 1));
+    }
+
+    /**
+     * @return the number of counters per row
+     */
+    public int getWidth() {
+        return width;
+    }
+}
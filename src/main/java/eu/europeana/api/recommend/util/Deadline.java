@@ -0,0 +1,108 @@
+package eu.europeana.api.recommend.util;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+
+/**
+ * Time budget of a single request. The deadline is stored in the Reactor context of the request, so every stage
+ * (Milvus, WebClient requests to other APIs) can limit its own timeout to the remaining budget.
+ * When an optional stage is skipped or cut short because of the deadline, the request is marked as degraded so we
+ * know the result is partial (and shouldn't be cached).
+ *
+ * @author Patrick Ehlert
+ */
+public final class Deadline {
+
+    private final Duration budget;
+    private final long deadlineNanos;
+    private volatile boolean degraded;
+
+    private Deadline(Duration budget, long deadlineNanos) {
+        this.budget = budget;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Create a new deadline
+     * @param budget the time available from now on
+     * @return new deadline
+     */
+    public static Deadline after(Duration budget) {
+        return new Deadline(budget, System.nanoTime() + budget.toNanos());
+    }
+
+    /**
+     * @return the time that was available when this deadline was created
+     */
+    public Duration getBudget() {
+        return budget;
+    }
+
+    /**
+     * Return the deadline stored in a Reactor context
+     * @param context the context to check
+     * @return the deadline, or null if there is none
+     */
+    public static Deadline from(ContextView context) {
+        return context.getOrDefault(Deadline.class, null);
+    }
+
+    /**
+     * Store this deadline in a Reactor context
+     * @param context the context to add the deadline to
+     * @return new context containing this deadline
+     */
+    public Context addTo(Context context) {
+        return context.put(Deadline.class, this);
+    }
+
+    /**
+     * @return the remaining time, never negative
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * @return true if there is no time left, otherwise false
+     */
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Limit a timeout to the remaining time
+     * @param timeout the timeout to limit, 0 means no timeout
+     * @return the smallest of the provided timeout and the remaining time
+     */
+    public Duration limit(Duration timeout) {
+        Duration remaining = remaining();
+        return (timeout.isZero() || remaining.compareTo(timeout) < 0) ? remaining : timeout;
+    }
+
+    /**
+     * Mark that (part of) the result is missing because we ran out of time
+     */
+    public void markDegraded() {
+        this.degraded = true;
+    }
+
+    /**
+     * @return true if (part of) the result is missing because we ran out of time
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * Check if a request in the provided context has a degraded result
+     * @param context the Reactor context of the request
+     * @return true if there is a deadline and the result is degraded, otherwise false
+     */
+    public static boolean isDegraded(ContextView context) {
+        Deadline deadline = from(context);
+        return deadline != null && deadline.isDegraded();
+    }
+}
@@ -0,0 +1,95 @@
+package eu.europeana.api.recommend.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Utility class for generating and comparing (strong) ETags of recommendation responses. An ETag consists of a hash of
+ * the response content (the ranked record ids and the version of the data used to generate them) and a hash of the
+ * API key, because the API key is included in the response as well. This way the content hash can be cached and shared
+ * by all API keys.
+ *
+ * @author Patrick Ehlert
+ */
+public final class ETagUtils {
+
+    private static final String WEAK_PREFIX = "W/";
+    private static final String ANY = "*";
+    private static final int CONTENT_HASH_BYTES = 16;
+
+    private ETagUtils() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Generate a hash of the content of a recommendation response
+     * @param version version of the data used to generate recommendations (e.g. the Milvus collection)
+     * @param ids the ranked ids of the recommended records
+     * @return hexadecimal content hash
+     */
+    public static String generateContentHash(String version, List<String> ids) {
+        MessageDigest digest = sha256();
+        update(digest, version);
+        for (String id : ids) {
+            update(digest, id);
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, CONTENT_HASH_BYTES);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0); // separator, so different values can't result in the same input
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    /**
+     * Generate a strong ETag
+     * @param contentHash the hash of the response content, can be null
+     * @param apikey the API key that's included in the response
+     * @return quoted ETag value, or null if the content hash is null
+     */
+    public static String toETag(String contentHash, String apikey) {
+        if (contentHash == null) {
+            return null;
+        }
+        long apikeyHash = (apikey == null ? 0 : HashUtils.hash64(apikey));
+        return '"' + contentHash + '-' + HexFormat.of().toHexDigits(apikeyHash) + '"';
+    }
+
+    /**
+     * Check if an If-None-Match request header matches the provided ETag (using weak comparison, as required for
+     * If-None-Match)
+     * @param ifNoneMatch the If-None-Match header value, can be null
+     * @param etag quoted ETag value of the current response, can be null
+     * @return true if the header matches the ETag, so we can respond with 304 Not Modified, otherwise false
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String value = stripWeakPrefix(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (ANY.equals(trimmed) || value.equals(stripWeakPrefix(trimmed))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeakPrefix(String etag) {
+        return etag.startsWith(WEAK_PREFIX) ? etag.substring(WEAK_PREFIX.length()) : etag;
+    }
+}
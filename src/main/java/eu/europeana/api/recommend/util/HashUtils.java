@@ -0,0 +1,44 @@
+package eu.europeana.api.recommend.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class for fast (non-cryptographic) hashing of record ids
+ *
+ * @author Patrick Ehlert
+ */
+public final class HashUtils {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private HashUtils() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the UTF-8 bytes of the provided string, with extra mixing for better bit distribution
+     * @param value the string to hash
+     * @return 64-bit hash
+     */
+    public static long hash64(String value) {
+        long result = FNV_OFFSET;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            result ^= (b & 0xff);
+            result *= FNV_PRIME;
+        }
+        return mix(result);
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads the bits of the provided value
+     * @param value the value to mix
+     * @return mixed value
+     */
+    public static long mix(long value) {
+        long result = value;
+        result = (result ^ (result >>> 30)) * 0xbf58476d1ce4e5b9L;
+        result = (result ^ (result >>> 27)) * 0x94d049bb133111ebL;
+        return result ^ (result >>> 31);
+    }
+}
@@ -0,0 +1,144 @@
+package eu.europeana.api.recommend.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the most frequently used keys (heavy hitters). All keys are counted in a {@link CountMinSketch}, so
+ * memory use doesn't depend on the number of different keys. Only the keys with the highest estimated count are
+ * kept, together with the value that was last recorded for them.
+ * After every sample period (a number of recorded keys) all counts are halved, so keys that are no longer popular
+ * are replaced by new popular keys.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the value stored with a key
+ * @author Patrick Ehlert
+ */
+public final class HotKeys<K, V> {
+
+    /**
+     * A popular key
+     * @param key the key
+     * @param value the value last recorded for the key
+     * @param count the estimated (recent) number of times the key was recorded
+     */
+    public record HotKey<K, V>(K key, V value, int count) {}
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH_PER_KEY = 16;
+    private static final int SAMPLE_SIZE_PER_KEY = 100;
+
+    private final int capacity;
+    private final long sampleSize;
+    private final CountMinSketch sketch;
+    private final Map<K, Candidate<V>> top = new ConcurrentHashMap<>();
+    private final AtomicLong recorded = new AtomicLong();
+    // lowest count of the kept keys when there are capacity keys, otherwise 0
+    private volatile int minCount;
+
+    /**
+     * Create a new tracker
+     * @param capacity the maximum number of popular keys to keep
+     */
+    public HotKeys(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.sampleSize = (long) capacity * SAMPLE_SIZE_PER_KEY;
+        this.sketch = new CountMinSketch(capacity * SKETCH_WIDTH_PER_KEY, SKETCH_DEPTH);
+    }
+
+    /**
+     * Count a use of a key
+     * @param key the used key
+     * @param value value to store with the key if it's popular (replaces the previously stored value)
+     */
+    public void record(K key, V value) {
+        if (recorded.incrementAndGet() % sampleSize == 0) {
+            age();
+        }
+        int estimate = sketch.add(HashUtils.mix(key.hashCode()));
+        Candidate<V> candidate = top.get(key);
+        if (candidate != null) {
+            candidate.count = Math.max(candidate.count, estimate);
+            candidate.value = value;
+        } else if (estimate > minCount) {
+            admit(key, value, estimate);
+        }
+    }
+
+    private synchronized void admit(K key, V value, int estimate) {
+        if (top.containsKey(key)) {
+            return;
+        }
+        if (top.size() >= capacity) {
+            Map.Entry<K, Candidate<V>> lowest = findLowest();
+            if (lowest.getValue().count >= estimate) {
+                minCount = lowest.getValue().count;
+                return;
+            }
+            top.remove(lowest.getKey());
+        }
+        top.put(key, new Candidate<>(value, estimate));
+        minCount = (top.size() >= capacity ? findLowest().getValue().count : 0);
+    }
+
+    private Map.Entry<K, Candidate<V>> findLowest() {
+        return top.entrySet().stream()
+                .min(Comparator.comparingInt(entry -> entry.getValue().count))
+                .orElseThrow();
+    }
+
+    private synchronized void age() {
+        sketch.halve();
+        for (Candidate<V> candidate : top.values()) {
+            candidate.count = candidate.count >>> 1;
+        }
+        minCount = minCount >>> 1;
+    }
+
+    /**
+     * Stop tracking a key, e.g. because it's no longer valid. When it's used again it's counted from scratch
+     * @param key the key to remove
+     */
+    public void remove(K key) {
+        if (top.remove(key) != null) {
+            synchronized (this) {
+                minCount = 0;
+            }
+        }
+    }
+
+    /**
+     * @param max the maximum number of keys to return
+     * @return the most popular keys, most popular first
+     */
+    public List<HotKey<K, V>> getTop(int max) {
+        List<HotKey<K, V>> result = new ArrayList<>(top.size());
+        top.forEach((key, candidate) -> result.add(new HotKey<>(key, candidate.value, candidate.count)));
+        result.sort(Comparator.comparingInt((HotKey<K, V> hotKey) -> hotKey.count()).reversed());
+        return (result.size() > max ? result.subList(0, max) : result);
+    }
+
+    /**
+     * @return the number of popular keys that are kept
+     */
+    public int size() {
+        return top.size();
+    }
+
+    private static final class Candidate<V> {
+        private volatile V value;
+        private volatile int count;
+
+        private Candidate(V value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package eu.europeana.api.recommend.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only key-value store of item (record) metadata that is memory-mapped from file. Keys are Europeana record ids,
+ * values are the json objects that we include in our responses.
+ * <p>
+ * File format: magic number (int), version (int), number of items (long), followed by an index of (hash, offset)
+ * pairs (2 longs each) sorted by hash, followed by the data. Each value in the data section is stored as its length
+ * (int) followed by the UTF-8 json bytes. Since hashes may collide, we check the id field of a value before returning
+ * it.
+ *
+ * @author Patrick Ehlert
+ */
+public final class ItemStore {
+
+    /** Name of the json field that contains the record id of an item **/
+    public static final String ID_FIELD = "id";
+
+    private static final int MAGIC = 0x52495331; // RIS1
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int INDEX_ENTRY_SIZE = Long.BYTES + Long.BYTES;
+    // files can be larger than 2GB so we map them in segments, overlapping a bit so we can always read a whole long
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long SEGMENT_OVERLAP = Long.BYTES;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final ByteBuffer[] segments;
+    private final long nrItems;
+
+    private ItemStore(ByteBuffer[] segments, long nrItems) {
+        this.segments = segments;
+        this.nrItems = nrItems;
+    }
+
+    /**
+     * Load an item store from file. The file is memory-mapped (read-only).
+     * @param file the file to load
+     * @return loaded item store
+     * @throws IOException when there's a problem reading the file or the file is not a valid item store
+     */
+    public static ItemStore load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("File " + file + " is not a valid item store");
+            }
+            int nrSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            ByteBuffer[] segments = new ByteBuffer[nrSegments];
+            for (int i = 0; i < nrSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                // the mapping remains valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start));
+            }
+            ItemStore result = new ItemStore(segments, segments[0].getLong(Integer.BYTES + Integer.BYTES));
+            if (segments[0].getInt(0) != MAGIC || segments[0].getInt(Integer.BYTES) != VERSION) {
+                throw new IOException("File " + file + " is not a valid item store");
+            }
+            if (result.nrItems < 0 || HEADER_SIZE + result.nrItems * INDEX_ENTRY_SIZE > size) {
+                throw new IOException("File " + file + " is corrupt");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Create a new item store file from a file with 1 json object per line. Each json object should at least contain
+     * the record id in the "id" field. Lines that are empty or don't have an id are skipped.
+     * @param jsonLinesFile the file with json objects
+     * @param file the item store file to create. To make sure there are never readers of a half-written file, we
+     *             first write to a temporary file and then rename it.
+     * @return the number of items in the created store
+     * @throws IOException when there's a problem reading or writing files
+     */
+    public static long create(Path jsonLinesFile, Path file) throws IOException {
+        Path dataFile = file.resolveSibling(file.getFileName() + ".data.tmp");
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Index index = writeData(jsonLinesFile, dataFile);
+            index.sort();
+            long dataStart = HEADER_SIZE + (long) index.size * INDEX_ENTRY_SIZE;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(index.size);
+                for (int i = 0; i < index.size; i++) {
+                    out.writeLong(index.hashes[i]);
+                    out.writeLong(dataStart + index.offsets[i]);
+                }
+                try (InputStream data = Files.newInputStream(dataFile)) {
+                    data.transferTo(out);
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return index.size;
+        } finally {
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Write all values to a data file and return the (unsorted) index of hashes and relative offsets
+     */
+    private static Index writeData(Path jsonLinesFile, Path dataFile) throws IOException {
+        Index index = new Index();
+        long offset = 0;
+        try (BufferedReader reader = Files.newBufferedReader(jsonLinesFile, StandardCharsets.UTF_8);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dataFile)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode id = JSON.readTree(line).get(ID_FIELD);
+                if (id == null || !id.isTextual()) {
+                    continue;
+                }
+                byte[] value = line.trim().getBytes(StandardCharsets.UTF_8);
+                index.add(HashUtils.hash64(id.asText()), offset);
+                out.writeInt(value.length);
+                out.write(value);
+                offset = offset + Integer.BYTES + value.length;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Index entries during creation of a store. We use 2 primitive arrays instead of objects to keep memory usage
+     * low when creating stores with many millions of items.
+     */
+    private static final class Index {
+        private long[] hashes = new long[1024];
+        private long[] offsets = new long[1024];
+        private int size;
+
+        void add(long hash, long offset) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            hashes[size] = hash;
+            offsets[size] = offset;
+            size++;
+        }
+
+        /**
+         * Heap sort on hash, so we don't need extra memory
+         */
+        void sort() {
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i, size);
+            }
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+        }
+
+        private void siftDown(int start, int end) {
+            int root = start;
+            int child = 2 * root + 1;
+            while (child < end) {
+                if (child + 1 < end && hashes[child + 1] > hashes[child]) {
+                    child++;
+                }
+                if (hashes[root] >= hashes[child]) {
+                    return;
+                }
+                swap(root, child);
+                root = child;
+                child = 2 * root + 1;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long hash = hashes[i];
+            hashes[i] = hashes[j];
+            hashes[j] = hash;
+            long offset = offsets[i];
+            offsets[i] = offsets[j];
+            offsets[j] = offset;
+        }
+    }
+
+    /**
+     * Lookup the json value of an item
+     * @param recordId the Europeana id of the record to lookup (e.g. /123/abc)
+     * @return the json value as UTF-8 bytes, or null if the item is not in the store
+     */
+    public byte[] get(String recordId) {
+        long hash = HashUtils.hash64(recordId);
+        long low = 0;
+        long high = nrItems - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long middleHash = getLong(indexPosition(middle));
+            if (middleHash < hash) {
+                low = middle + 1;
+            } else if (middleHash > hash) {
+                high = middle - 1;
+            } else {
+                return getMatchingValue(recordId, hash, middle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check all index entries around the found position that have the same hash
+     */
+    private byte[] getMatchingValue(String recordId, long hash, long found) {
+        long first = found;
+        while (first > 0 && getLong(indexPosition(first - 1)) == hash) {
+            first--;
+        }
+        for (long i = first; i < nrItems && getLong(indexPosition(i)) == hash; i++) {
+            byte[] value = readValue(getLong(indexPosition(i) + Long.BYTES));
+            if (hasId(value, recordId)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasId(byte[] value, String recordId) {
+        try {
+            JsonNode id = JSON.readTree(value).get(ID_FIELD);
+            return id != null && recordId.equals(id.asText());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of items in this store
+     */
+    public long size() {
+        return nrItems;
+    }
+
+    private static long indexPosition(long entry) {
+        return HEADER_SIZE + entry * INDEX_ENTRY_SIZE;
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+    }
+
+    private byte[] readValue(long position) {
+        ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+        int length = segment.getInt((int) (position % SEGMENT_SIZE));
+        byte[] result = new byte[length];
+        long valuePosition = position + Integer.BYTES;
+        int read = 0;
+        while (read < length) {
+            ByteBuffer source = segments[(int) (valuePosition / SEGMENT_SIZE)];
+            int offset = (int) (valuePosition % SEGMENT_SIZE);
+            int chunk = (int) Math.min(length - read, SEGMENT_SIZE - offset);
+            source.get(offset, result, read, chunk);
+            read = read + chunk;
+            valuePosition = valuePosition + chunk;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package eu.europeana.api.recommend.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Utility class for reading large json input incrementally
+ *
+ * @author Patrick Ehlert
+ */
+public final class JsonStreamUtils {
+
+    private static final Logger LOG = LogManager.getLogger(JsonStreamUtils.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonStreamUtils() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Read strings one by one from json input, either a json array of strings or newline-delimited json strings.
+     * The next string is only read when there is demand, so the complete input is never kept in memory.
+     * Reading is blocking, so it's done on the bounded elastic scheduler.
+     * @param input supplies the input stream to read, the stream is closed when reading is done or cancelled
+     * @return stream of strings, ends with a {@link JsonParseException} if the input contains something else than
+     * strings
+     */
+    public static Flux<String> readStrings(Callable<InputStream> input) {
+        return Flux.using(() -> JSON_FACTORY.createParser(input.call()),
+                        parser -> Flux.<String>generate(sink -> {
+                            try {
+                                JsonToken token = parser.nextToken();
+                                while (token == JsonToken.START_ARRAY || token == JsonToken.END_ARRAY) {
+                                    token = parser.nextToken();
+                                }
+                                if (token == null) {
+                                    sink.complete();
+                                } else if (token == JsonToken.VALUE_STRING) {
+                                    sink.next(parser.getText());
+                                } else {
+                                    sink.error(new JsonParseException(parser, "Expected a string but found " + token));
+                                }
+                            } catch (IOException e) {
+                                sink.error(e);
+                            }
+                        }),
+                        JsonStreamUtils::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static void close(JsonParser parser) {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing json input", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package eu.europeana.api.recommend.util;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking bulkhead: limits the number of concurrently running (reactive) tasks. Tasks that can't run straight
+ * away wait in a bounded queue (without blocking a thread) and are started in order when a running task finishes.
+ * When the queue is full as well, tasks fail immediately.
+ * Resilience4j bulkheads can't queue reactive calls, they can only reject them.
+ *
+ * @author Patrick Ehlert
+ */
+public final class ReactiveBulkhead {
+
+    private static final int WAITING   = 0;
+    private static final int RUNNING   = 1;
+    private static final int CANCELLED = 2;
+    private static final int FINISHED  = 3;
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Permit> waiting = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a new bulkhead
+     * @param name name of the bulkhead, used in error messages
+     * @param maxConcurrent the maximum number of tasks that run concurrently
+     * @param maxQueue the maximum number of tasks that may wait for a running task to finish
+     */
+    public ReactiveBulkhead(String name, int maxConcurrent, int maxQueue) {
+        if (maxConcurrent < 1 || maxQueue < 0) {
+            throw new IllegalArgumentException("Invalid bulkhead " + name + " size " + maxConcurrent + " or queue size " + maxQueue);
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * Run a task in this bulkhead. The task is only subscribed to when there's room for it.
+     * @param task the task to run
+     * @param onFull supplies the error that is returned when the bulkhead and its queue are full
+     * @return mono with the result of the task
+     * @param <T> type of the result
+     */
+    public <T> Mono<T> execute(Mono<T> task, Supplier<? extends Throwable> onFull) {
+        return Mono.defer(() -> {
+            Permit permit = new Permit();
+            return acquire(permit, onFull)
+                    .then(task)
+                    .doFinally(signal -> finish(permit));
+        });
+    }
+
+    private Mono<Void> acquire(Permit permit, Supplier<? extends Throwable> onFull) {
+        if (waiting.isEmpty() && tryIncrementRunning()) {
+            permit.state.set(RUNNING);
+            return Mono.empty();
+        }
+        if (queued.incrementAndGet() > maxQueue) {
+            queued.decrementAndGet();
+            permit.state.set(FINISHED);
+            return Mono.error(onFull.get());
+        }
+        waiting.add(permit);
+        // a running task may have finished before we were added to the queue
+        drain();
+        return permit.started.asMono();
+    }
+
+    /**
+     * Called when a task is done, failed or cancelled (also while waiting in the queue)
+     */
+    private void finish(Permit permit) {
+        if (permit.state.compareAndSet(WAITING, CANCELLED)) {
+            queued.decrementAndGet();
+            waiting.remove(permit);
+        } else if (permit.state.compareAndSet(RUNNING, FINISHED)) {
+            running.decrementAndGet();
+            drain();
+        }
+    }
+
+    /**
+     * Start waiting tasks for as long as there is room
+     */
+    private void drain() {
+        while (!waiting.isEmpty() && tryIncrementRunning()) {
+            Permit next = waiting.poll();
+            if (next != null && next.state.compareAndSet(WAITING, RUNNING)) {
+                queued.decrementAndGet();
+                next.started.tryEmitEmpty();
+            } else {
+                // queue was emptied by someone else or the task was cancelled, give back the room we took
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private boolean tryIncrementRunning() {
+        while (true) {
+            int current = running.get();
+            if (current >= maxConcurrent) {
+                return false;
+            }
+            if (running.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the name of this bulkhead
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of tasks that are running
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return the number of tasks waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Tracks the state of one task, so it's only counted once no matter how it finishes
+     */
+    private static final class Permit {
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final Sinks.Empty<Void> started = Sinks.empty();
+    }
+}
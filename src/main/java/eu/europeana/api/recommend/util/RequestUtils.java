@@ -13,6 +13,7 @@ public final class RequestUtils {
 
 
     public static final String X_API_KEY_HEADER = "X-Api-Key";
+    public static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
     private RequestUtils() {
         // empty constructor to prevent initialization
     }
@@ -0,0 +1,56 @@
+package eu.europeana.api.recommend.util;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * Utility class for protecting requests to backend systems with a circuit breaker and a bulkhead.
+ * The bulkhead is applied 'outside' of the circuit breaker, so calls rejected by the bulkhead are not counted as
+ * failures by the circuit breaker.
+ */
+public final class ResilienceUtils {
+
+    /**
+     * Names of the circuit breaker and bulkhead instances (configured in the application.yml file)
+     */
+    public static final String SEARCH_API     = "searchApi";
+    public static final String SET_API        = "setApi";
+    public static final String ENTITY_API     = "entityApi";
+    public static final String EMBEDDINGS_API = "embeddingsApi";
+    public static final String MILVUS         = "milvus";
+
+    private ResilienceUtils() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Decorate a (reactive) request with the provided circuit breaker and bulkhead
+     * @param request the request to protect
+     * @param circuitBreaker circuit breaker to use
+     * @param bulkhead bulkhead to use
+     * @return decorated mono that fails fast with a CallNotPermittedException or BulkheadFullException
+     * @param <T> type of the response
+     */
+    public static <T> Mono<T> decorate(Mono<T> request, CircuitBreaker circuitBreaker, Bulkhead bulkhead) {
+        return request
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                .transformDeferred(BulkheadOperator.of(bulkhead));
+    }
+
+    /**
+     * Execute a (blocking) request protected by the provided circuit breaker and bulkhead
+     * @param request the request to execute
+     * @param circuitBreaker circuit breaker to use
+     * @param bulkhead bulkhead to use
+     * @return result of the request
+     * @param <T> type of the response
+     */
+    public static <T> T execute(Supplier<T> request, CircuitBreaker circuitBreaker, Bulkhead bulkhead) {
+        return Bulkhead.decorateSupplier(bulkhead, CircuitBreaker.decorateSupplier(circuitBreaker, request)).get();
+    }
+}
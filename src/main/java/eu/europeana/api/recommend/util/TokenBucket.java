@@ -0,0 +1,61 @@
+package eu.europeana.api.recommend.util;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket. Instead of storing the number of tokens we only store the theoretical time at which the
+ * bucket is full again (generic cell rate algorithm), so the complete state fits in one atomic long and taking tokens
+ * is a single compare-and-set.
+ *
+ * @author Patrick Ehlert
+ */
+public final class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long capacityNanos;
+    private final LongSupplier clock;
+    // time at which all tokens taken so far are refilled
+    private final AtomicLong fullAt;
+
+    /**
+     * Create a new (full) token bucket
+     * @param tokensPerSecond the number of tokens that are added to the bucket each second
+     * @param capacity the maximum number of tokens in the bucket (i.e. the maximum burst size)
+     */
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        this(tokensPerSecond, capacity, System::nanoTime);
+    }
+
+    TokenBucket(double tokensPerSecond, int capacity, LongSupplier clock) {
+        if (tokensPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid token bucket rate " + tokensPerSecond + " or capacity " + capacity);
+        }
+        this.nanosPerToken = Math.max(1, (long) (Duration.ofSeconds(1).toNanos() / tokensPerSecond));
+        this.capacityNanos = nanosPerToken * capacity;
+        this.clock = clock;
+        this.fullAt = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Try to take tokens from the bucket
+     * @param tokens the number of tokens to take, if this is more than the capacity the capacity is taken
+     * @return 0 if the tokens were taken, otherwise the time in nanoseconds until enough tokens are available
+     */
+    public long tryConsume(int tokens) {
+        long cost = Math.min(Math.max(1, tokens) * nanosPerToken, capacityNanos);
+        while (true) {
+            long now = clock.getAsLong();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            long overflow = next - now - capacityNanos;
+            if (overflow > 0) {
+                return overflow;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package eu.europeana.api.recommend.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Utility class for weighted random sampling without replacement (Efraimidis-Spirakis). Every item gets a random key
+ * u^(1/weight) and items are ordered by descending key, so items with a higher weight are more likely to be picked
+ * first. Any prefix of the result is a weighted sample of that size.
+ * We use a seeded pseudo-random generator so the same seed always results in the same order.
+ *
+ * @author Patrick Ehlert
+ */
+public final class WeightedSampling {
+
+    private WeightedSampling() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Return the provided items in weighted random order
+     * @param items the items to order
+     * @param weight function returning the weight of an item. Items with a weight of 0 or less are placed last
+     * @param seed the seed for the pseudo-random generator
+     * @param <T> the type of items
+     * @return new list with all items, in weighted random order
+     */
+    public static <T> List<T> order(List<T> items, ToDoubleFunction<T> weight, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Keyed<T>> keyed = new ArrayList<>(items.size());
+        for (T item : items) {
+            // use 1 - nextDouble() so u is never 0; ln(u) / w is equivalent to u^(1/w) for ordering
+            double u = 1.0 - random.nextDouble();
+            double w = weight.applyAsDouble(item);
+            keyed.add(new Keyed<>(item, w > 0 ? Math.log(u) / w : Double.NEGATIVE_INFINITY));
+        }
+        keyed.sort(Comparator.comparingDouble((Keyed<T> k) -> k.key).reversed());
+        List<T> result = new ArrayList<>(keyed.size());
+        for (Keyed<T> k : keyed) {
+            result.add(k.item);
+        }
+        return result;
+    }
+
+    /**
+     * Convert a seed parameter to a number. Seeds that are too large for a long are hashed
+     * @param seed the seed value
+     * @return seed as long
+     */
+    public static long parseSeed(String seed) {
+        try {
+            return Long.parseLong(seed);
+        } catch (NumberFormatException e) {
+            return seed.hashCode();
+        }
+    }
+
+    private record Keyed<T>(T item, double key) {}
+}
@@ -0,0 +1,125 @@
+package eu.europeana.api.recommend.web;
+
+import eu.europeana.api.recommend.config.AdaptiveConcurrencyLimit;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of recommendation requests that are handled concurrently (see {@link AdaptiveConcurrencyLimit}).
+ * Requests above the limit are rejected straight away with 503 and a Retry-After header, instead of queueing until
+ * they time out. Since recommendation requests are handled asynchronously, a request is only finished when its
+ * asynchronous processing is complete.
+ * Streaming requests are long-lived and are not limited.
+ *
+ * @author Patrick Ehlert
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger LOG = LogManager.getLogger(ConcurrencyLimitFilter.class);
+
+    private static final String METRIC_REJECTED = "recommend.requests.rejected";
+    private static final String STREAM_PATH = "/stream";
+    private static final String REJECTED_MESSAGE = "Too many concurrent requests, please try again later";
+
+    private final AdaptiveConcurrencyLimit limit;
+    private final String retryAfter;
+    private final Counter rejected;
+
+    public ConcurrencyLimitFilter(RecommendSettings settings, MeterRegistry meterRegistry) {
+        this.retryAfter = String.valueOf(Math.max(1, settings.getConcurrencyLimitRetryAfter()));
+        this.rejected = Counter.builder(METRIC_REJECTED)
+                .description("Number of requests rejected because the concurrency limit was reached")
+                .register(meterRegistry);
+        if (!settings.isConcurrencyLimitEnabled()) {
+            LOG.info("Concurrency limit is disabled");
+            this.limit = null;
+            return;
+        }
+        this.limit = new AdaptiveConcurrencyLimit(settings.getConcurrencyLimitInitial(),
+                settings.getConcurrencyLimitMin(), settings.getConcurrencyLimitMax(), meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return limit == null || request.getRequestURI().endsWith(STREAM_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!limit.tryAcquire()) {
+            rejected.increment();
+            LOG.debug("Rejecting request {}, concurrency limit {} reached", request.getRequestURI(), limit.getLimit());
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), REJECTED_MESSAGE);
+            return;
+        }
+
+        Release release = new Release(System.nanoTime());
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(release);
+            } else {
+                release.release(failed);
+            }
+        }
+    }
+
+    /**
+     * Releases the concurrency limit permit of a request exactly once, when the request is finished
+     */
+    private final class Release implements AsyncListener {
+
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Release(long start) {
+            this.start = start;
+        }
+
+        void release(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                limit.release(System.nanoTime() - start, dropped);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release(false);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nothing to do, we keep listening to the same request
+        }
+    }
+}
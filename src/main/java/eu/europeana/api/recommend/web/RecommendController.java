@@ -1,15 +1,30 @@
 package eu.europeana.api.recommend.web;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.config.RecommendSettings;
 import eu.europeana.api.recommend.exception.InvalidRecordIdException;
 import eu.europeana.api.recommend.exception.InvalidTokenException;
 import eu.europeana.api.recommend.exception.NoCredentialsException;
+import eu.europeana.api.recommend.exception.RateLimitExceededException;
 import eu.europeana.api.recommend.exception.RecommendException;
+import eu.europeana.api.recommend.exception.TooManyRecordIdsException;
+import eu.europeana.api.recommend.model.BatchRecommendResponse;
+import eu.europeana.api.recommend.model.Recommendation;
+import eu.europeana.api.recommend.model.RecordRecommendations;
 import eu.europeana.api.recommend.model.SearchApiResponse;
+import eu.europeana.api.recommend.service.EndpointBulkheads;
+import eu.europeana.api.recommend.service.RateLimiter;
 import eu.europeana.api.recommend.service.RecommendService;
+import eu.europeana.api.recommend.service.RequestCoalescer;
+import eu.europeana.api.recommend.service.ResponseCache;
+import eu.europeana.api.recommend.util.Deadline;
+import eu.europeana.api.recommend.util.ETagUtils;
+import eu.europeana.api.recommend.util.JsonStreamUtils;
 import eu.europeana.api.recommend.util.RecommendationConstants;
 import eu.europeana.api.recommend.util.RequestUtils;
 import eu.europeana.api.recommend.util.TokenUtils;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
@@ -17,16 +32,35 @@ import jakarta.validation.constraints.Pattern;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
 /**
- * Controller to handle recommendation requests
+ * Controller to handle recommendation requests. All recommendation requests are handled asynchronously, so no
+ * request thread is blocked while we wait for Milvus or other APIs.
+ * Record, set and entity recommendation responses have an ETag and Cache-Control header. Conditional requests
+ * (If-None-Match) are answered with 304 Not Modified if the recommended records didn't change, without requesting
+ * the record data from Search API. Identical requests that arrive while the same request is in flight are coalesced.
+ * Record, set and entity requests have a deadline (time budget) that is propagated to all backend requests.
+ * The number of requests per API key is limited, see {@link RateLimiter}. Record, set and entity recommendations each
+ * have their own concurrency quota, see {@link EndpointBulkheads}.
  *
  * @author Patrick Ehlert Created on 22 Jul 2020
  */
@@ -47,6 +81,8 @@ public class RecommendController {
   private static final int MAX_PAGE_SIZE = 50;
   private static final String DEFAULT_PAGE = "0";
   private static final int MAX_PAGE = 40;
+  private static final int MAX_BATCH_SIZE = 20;
+  private static final int MAX_STREAM_SIZE = 100_000;
 
   private static final String INVALID_SET_ID_MESSAGE = "Invalid set identifier";
   private static final String INVALID_ENTITY_ID_MESSAGE = "Invalid entity identifier. Id is not a number  ";
@@ -55,18 +91,51 @@ public class RecommendController {
   private static final String INCORRECT_PAGE_SIZE ="The page size is not a number between 1 and " + MAX_PAGE_SIZE;
   private static final String INCORRECT_PAGE ="The page value is not a number between 0 and " + MAX_PAGE;
   private static final String INVALID_SEED_MESSAGE = "Invalid seed value. Seed is an Integer, only numbers are allowed";
+  private static final String INVALID_REQUEST_TIMEOUT_MESSAGE = "Invalid request timeout, it should be a positive number of milliseconds";
 
   private static final String INVALID_APIKEY_MESSAGE = "Invalid API key format";
   private static final String INVALID_TOKEN_MESSAGE = "Invalid authentication header token";
 
   private static final java.util.regex.Pattern EUROPEANA_ID = java.util.regex.Pattern.compile("^/\\w*/\\w*$");
+  // responses contain the API key, so they vary per API key header and token
+  private static final List<String> VARY_HEADERS = List.of(HttpHeaders.AUTHORIZATION, RequestUtils.X_API_KEY_HEADER);
 
 
 
   private RecommendService recommendService;
+  private ResponseCache responseCache;
+  private RequestCoalescer requestCoalescer;
+  private RateLimiter rateLimiter;
+  private EndpointBulkheads bulkheads;
+  private final CacheControl publicCacheControl;
+  private final CacheControl privateCacheControl;
+  private final Map<ResponseCache.Endpoint, Integer> deadlines = new EnumMap<>(ResponseCache.Endpoint.class);
 
-  public RecommendController(RecommendService recommendService) {
+  public RecommendController(RecommendService recommendService, ResponseCache responseCache,
+      RequestCoalescer requestCoalescer, RateLimiter rateLimiter, EndpointBulkheads bulkheads,
+      RecommendSettings settings) {
     this.recommendService = recommendService;
+    this.responseCache = responseCache;
+    this.requestCoalescer = requestCoalescer;
+    this.rateLimiter = rateLimiter;
+    this.bulkheads = bulkheads;
+    this.publicCacheControl = createCacheControl(settings.getHttpCacheMaxAge(), settings.getHttpCacheSMaxAge(), false);
+    this.privateCacheControl = createCacheControl(settings.getHttpCacheMaxAge(), 0, true);
+    this.deadlines.put(ResponseCache.Endpoint.RECORD, settings.getRequestDeadlineRecord());
+    this.deadlines.put(ResponseCache.Endpoint.SET, settings.getRequestDeadlineSet());
+    this.deadlines.put(ResponseCache.Endpoint.ENTITY, settings.getRequestDeadlineEntity());
+  }
+
+  /**
+   * Responses to requests with a token may contain non-public data, so they are never stored by shared caches
+   */
+  private static CacheControl createCacheControl(int maxAge, int sMaxAge, boolean isPrivate) {
+    CacheControl result = (maxAge > 0 ? CacheControl.maxAge(maxAge, TimeUnit.SECONDS) : CacheControl.noCache());
+    if (isPrivate) {
+      return result.cachePrivate();
+    }
+    result = result.cachePublic();
+    return (sMaxAge > 0 ? result.sMaxAge(sMaxAge, TimeUnit.SECONDS) : result);
   }
 
   /**
@@ -76,17 +145,19 @@ public class RecommendController {
    * @param localId   second part of record id for which similar records need to be found
    * @param pageSize  optional, number of similar records to return, between 1 and 50
    * @param page      optional, extra page of similar records, between 1 and 40
-   * @param seed      // TODO not supported yet
+   * @param seed      optional, random (but repeatable) variation of similar records
    * @param wskey     optional API key
    * @param authToken optional authentication token
    * @param xApiKey   optional apikey header
-   * @return Search API json response with similar records data
+   * @param ifNoneMatch optional ETag(s) of a previous response
+   * @param requestTimeout optional time budget in ms, can only be shorter than the configured deadline
+   * @return Search API json response with similar records data, or 304 if the ETag matches
    * @throws RecommendException when there's a problem retrieving similar records
    */
   @GetMapping(value = {"/recommend/record/{datasetId}/{localId}.json","/recommend/record/{datasetId}/{localId}",
       "/record/{datasetId}/{localId}/recommend.json", "/record/{datasetId}/{localId}/recommend"},
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> recommendRecord(
+  public Mono<ResponseEntity<SearchApiResponse>> recommendRecord(
       @PathVariable(value = "datasetId")
           @Pattern(regexp = EUROPEANA_ID_FIELD_REGEX, message = INVALID_RECORD_ID_MESSAGE) String datasetId,
       @PathVariable(value = "localId")
@@ -104,14 +175,16 @@ public class RecommendController {
       @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false)
           @Pattern(regexp = TOKEN_REGEX, message = INVALID_TOKEN_MESSAGE) String authToken,
       @RequestHeader(value = RequestUtils.X_API_KEY_HEADER, required = false)
-          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String xApiKey)
+          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String xApiKey,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = RequestUtils.REQUEST_TIMEOUT_HEADER, required = false)
+          @Min(value = 1, message = INVALID_REQUEST_TIMEOUT_MESSAGE) Integer requestTimeout)
       throws RecommendException {
     String apikey = extractApiKey(authToken, wskey, xApiKey);
-    Mono<SearchApiResponse> result = recommendService.getRecommendationsForRecord(new RecordId(datasetId, localId), pageSize, page, seed, apikey, authToken);
-    if (result == null) {
-      return new ResponseEntity<>(new SearchApiResponse(apikey), HttpStatus.OK);
-    }
-    return new ResponseEntity<>(result.block(), HttpStatus.OK);
+    rateLimiter.checkLimit(apikey, 1);
+    ResponseCache.Key key = new ResponseCache.Key(ResponseCache.Endpoint.RECORD, datasetId + "/" + localId, pageSize, page, seed);
+    return respond(key, pageSize, apikey, authToken, ifNoneMatch, requestTimeout, () ->
+        recommendService.rankRecommendationsForRecord(new RecordId(datasetId, localId), pageSize, page, seed, apikey, authToken));
   }
 
   /**
@@ -121,7 +194,7 @@ public class RecommendController {
   @PostMapping(value = {"/recommend/record/{datasetId}/{localId}.json","/recommend/record/{datasetId}/{localId}",
       "/record/{datasetId}/{localId}/recommend.json", "/record/{datasetId}/{localId}/recommend"},
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> acceptRecord(
+  public Mono<ResponseEntity<SearchApiResponse>> acceptRecord(
       @PathVariable(value = "datasetId")
           @Pattern(regexp = EUROPEANA_ID_FIELD_REGEX, message = INVALID_RECORD_ID_MESSAGE) String datasetId,
       @PathVariable(value = "localId")
@@ -137,7 +210,7 @@ public class RecommendController {
     String userId = extractUserFromToken(authToken);
     validateRecordIds(ids);
     recommendService.submitUserSignals(ids, RecommendationConstants.USER_SIGNAL_ACCEPT, userId,wskey, authToken);
-    return recommendRecord(datasetId, localId, ids.length, 0, null, wskey, authToken, xApiKey);
+    return recommendRecord(datasetId, localId, ids.length, 0, null, wskey, authToken, xApiKey, null, null);
   }
 
   /**
@@ -147,7 +220,7 @@ public class RecommendController {
   @DeleteMapping(value = {"/recommend/record/{datasetId}/{localId}.json","/recommend/record/{datasetId}/{localId}",
       "/record/{datasetId}/{localId}/recommend.json", "/record/{datasetId}/{localId}/recommend"},
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> rejectRecord(
+  public Mono<ResponseEntity<SearchApiResponse>> rejectRecord(
       @PathVariable(value = "datasetId")
           @Pattern(regexp = EUROPEANA_ID_FIELD_REGEX, message = INVALID_RECORD_ID_MESSAGE) String datasetId,
       @PathVariable(value = "localId")
@@ -163,7 +236,111 @@ public class RecommendController {
     String userId = extractUserFromToken(authToken);
     validateRecordIds(ids);
     recommendService.submitUserSignals(ids, RecommendationConstants.USER_SIGNAL_REJECT, userId,wskey, authToken);
-    return recommendRecord(datasetId, localId, ids.length, 0, null, wskey, authToken, xApiKey);
+    return recommendRecord(datasetId, localId, ids.length, 0, null, wskey, authToken, xApiKey, null, null);
+  }
+
+  /**
+   * Given a list of record ids, this returns a json response containing basic data about similar records for each of
+   * the provided records. This is a lot more efficient than sending a separate request for each record.
+   *
+   * @param ids       array of record ids (e.g. /123/abc) for which similar records need to be found, at most 20
+   * @param pageSize  optional, number of similar records to return per record, between 1 and 50
+   * @param wskey     optional API key
+   * @param authToken optional authentication token
+   * @param xApiKey   optional apikey header
+   * @return json response with similar records data per record
+   * @throws RecommendException when there's a problem retrieving similar records
+   */
+  @PostMapping(value = {"/recommend/records.json", "/recommend/records"},
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<BatchRecommendResponse>> recommendRecords(
+      @RequestBody String[] ids,
+      @RequestParam(value = "pageSize", required = false, defaultValue = DEFAULT_PAGE_SIZE)
+          @Min(value = 1, message = INCORRECT_PAGE_SIZE)
+          @Max(value = MAX_PAGE_SIZE, message = INCORRECT_PAGE_SIZE) int pageSize,
+      @RequestParam(value = "wskey", required = false)
+          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String wskey,
+      @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false)
+          @Pattern(regexp = TOKEN_REGEX, message = INVALID_TOKEN_MESSAGE) String authToken,
+      @RequestHeader(value = RequestUtils.X_API_KEY_HEADER, required = false)
+          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String xApiKey)
+      throws RecommendException {
+    String apikey = extractApiKey(authToken, wskey, xApiKey);
+    validateRecordIds(ids);
+    if (ids.length > MAX_BATCH_SIZE) {
+      throw new TooManyRecordIdsException(ids.length, MAX_BATCH_SIZE);
+    }
+    rateLimiter.checkLimit(apikey, ids.length);
+    List<RecordId> recordIds = Arrays.stream(ids).distinct().map(RecommendController::toRecordId).toList();
+    // a batch is 1 Milvus search, so it takes 1 place in the record recommendations quota
+    return bulkheads.execute(ResponseCache.Endpoint.RECORD,
+        Mono.defer(() -> recommendService.getRecommendationsForRecords(recordIds, pageSize, apikey, authToken)))
+        .map(response -> new ResponseEntity<>(response, HttpStatus.OK));
+  }
+
+  /**
+   * Given a (large) list of record ids, this streams the recommendations for each record back as soon as they are
+   * generated, either as newline-delimited json or as server-sent events (depending on the Accept header). Results are
+   * returned in the same order as the provided record ids.
+   * The record ids are read from the request body incrementally, only when the stream is ready to process them, so
+   * memory usage doesn't depend on the number of ids. Since we don't read all ids upfront, an invalid id (or more than
+   * the maximum number of ids) ends the stream with an error when it's reached.
+   * Every record id counts as a request for the rate limit of the API key, and is paid for when it's read, so a stream
+   * also ends with an error when the API key sends ids faster than it's allowed to. An API key can only have a
+   * limited number of streams in progress.
+   *
+   * @param request   request with in its body a json array of record ids (e.g. /123/abc) or newline-delimited json
+   *                  record ids, at most 100000
+   * @param pageSize  optional, number of similar records to return per record, between 1 and 50
+   * @param wskey     optional API key
+   * @param authToken optional authentication token
+   * @param xApiKey   optional apikey header
+   * @return stream of recommendations per record
+   * @throws RecommendException when there's a problem with the request
+   */
+  @PostMapping(value = {"/recommend/records/stream"},
+      consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+      produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+  public Flux<RecordRecommendations> streamRecommendRecords(
+      HttpServletRequest request,
+      @RequestParam(value = "pageSize", required = false, defaultValue = DEFAULT_PAGE_SIZE)
+          @Min(value = 1, message = INCORRECT_PAGE_SIZE)
+          @Max(value = MAX_PAGE_SIZE, message = INCORRECT_PAGE_SIZE) int pageSize,
+      @RequestParam(value = "wskey", required = false)
+          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String wskey,
+      @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false)
+          @Pattern(regexp = TOKEN_REGEX, message = INVALID_TOKEN_MESSAGE) String authToken,
+      @RequestHeader(value = RequestUtils.X_API_KEY_HEADER, required = false)
+          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String xApiKey)
+      throws RecommendException {
+    String apikey = extractApiKey(authToken, wskey, xApiKey);
+    // check the first id upfront, so we can still return a 429 response when the API key is over its limit
+    rateLimiter.checkLimit(apikey, 1);
+    Flux<RecordId> recordIds = JsonStreamUtils.readStrings(request::getInputStream)
+        .onErrorMap(JsonProcessingException.class, e -> new InvalidRecordIdException(e.getOriginalMessage()))
+        .index()
+        .<RecordId>handle((indexedId, sink) -> {
+          if (indexedId.getT1() >= MAX_STREAM_SIZE) {
+            sink.error(new TooManyRecordIdsException(indexedId.getT1().intValue() + 1, MAX_STREAM_SIZE));
+          } else if (!isValidRecordId(indexedId.getT2())) {
+            sink.error(new InvalidRecordIdException(indexedId.getT2()));
+          } else {
+            if (indexedId.getT1() > 0) {
+              // the first id was paid for already
+              try {
+                rateLimiter.checkLimit(apikey, 1);
+              } catch (RateLimitExceededException e) {
+                sink.error(e);
+                return;
+              }
+            }
+            sink.next(toRecordId(indexedId.getT2()));
+          }
+        })
+        .switchIfEmpty(Mono.<RecordId>error(() -> new InvalidRecordIdException("No ids provided")));
+    return rateLimiter.limitStreams(apikey,
+        recommendService.streamRecommendationsForRecords(recordIds, pageSize, apikey, authToken));
   }
 
   /**
@@ -172,17 +349,19 @@ public class RecommendController {
    * @param setId     id of the set for which we need to find similar items
    * @param pageSize  optional, number of similar records to return, between 1 and 50
    * @param page      optional, extra page of similar records, between 1 and 40
-   * @param seed      // TODO not supported yet
+   * @param seed      optional, random (but repeatable) variation of similar records
    * @param wskey     optional API key
    * @param authToken optional authentication token
    * @param xApiKey   optional apikey header
-   * @return Search API json response with similar records data
+   * @param ifNoneMatch optional ETag(s) of a previous response
+   * @param requestTimeout optional time budget in ms, can only be shorter than the configured deadline
+   * @return Search API json response with similar records data, or 304 if the ETag matches
    * @throws RecommendException when there's a problem retrieving similar records
    */
   @GetMapping(value = {"/recommend/set/{setId}.json", "/recommend/set/{setId}",
       "/set/{setId}/recommend.json", "/set/{setId}/recommend"},
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> recommendSet(
+  public Mono<ResponseEntity<SearchApiResponse>> recommendSet(
       @PathVariable(value = "setId")
           @Pattern(regexp = SET_ID_REGEX, message = INVALID_SET_ID_MESSAGE) String setId,
       @RequestParam(value = "pageSize", required = false, defaultValue = DEFAULT_PAGE_SIZE)
@@ -198,14 +377,16 @@ public class RecommendController {
       @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false)
           @Pattern(regexp = TOKEN_REGEX, message = INVALID_TOKEN_MESSAGE) String authToken,
       @RequestHeader(value = RequestUtils.X_API_KEY_HEADER, required = false)
-          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String xApiKey)
+          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE) String xApiKey,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = RequestUtils.REQUEST_TIMEOUT_HEADER, required = false)
+          @Min(value = 1, message = INVALID_REQUEST_TIMEOUT_MESSAGE) Integer requestTimeout)
   throws RecommendException {
     String apikey = extractApiKey(authToken, wskey, xApiKey);
-    Mono<SearchApiResponse> result = recommendService.getRecommendationsForSet(setId, pageSize,page, seed, apikey, authToken);
-    if (result == null) {
-      return new ResponseEntity<>(new SearchApiResponse(apikey), HttpStatus.OK);
-    }
-    return new ResponseEntity<>(result.block(), HttpStatus.OK);
+    rateLimiter.checkLimit(apikey, 1);
+    ResponseCache.Key key = new ResponseCache.Key(ResponseCache.Endpoint.SET, setId, pageSize, page, seed);
+    return respond(key, pageSize, apikey, authToken, ifNoneMatch, requestTimeout, () ->
+        recommendService.rankRecommendationsForSet(setId, pageSize,page, seed, apikey, authToken));
   }
 
   /**
@@ -215,7 +396,7 @@ public class RecommendController {
   @PostMapping(value = {"/recommend/set/{setId}.json", "/recommend/set/{setId}",
       "/set/{setId}/recommend.json", "/set/{setId}/recommend"},
       consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> acceptSet(
+  public Mono<ResponseEntity<SearchApiResponse>> acceptSet(
       @PathVariable(value = "setId")
           @Pattern(regexp = SET_ID_REGEX, message = INVALID_SET_ID_MESSAGE) String setId,
       @RequestParam(value = "wskey", required = false)
@@ -229,7 +410,7 @@ public class RecommendController {
     String userId =  extractUserFromToken(authToken);
     validateRecordIds(ids);
     recommendService.submitUserSignals(ids, RecommendationConstants.USER_SIGNAL_ACCEPT, userId,wskey, authToken);
-    return recommendSet(setId, ids.length, 0, null, wskey, authToken, xApiKey);
+    return recommendSet(setId, ids.length, 0, null, wskey, authToken, xApiKey, null, null);
   }
 
   /**
@@ -239,7 +420,7 @@ public class RecommendController {
   @DeleteMapping(value = {"/recommend/set/{setId}.json", "/recommend/set/{setId}",
       "/set/{setId}/recommend.json", "/set/{setId}/recommend"},
       consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> rejectSet(
+  public Mono<ResponseEntity<SearchApiResponse>> rejectSet(
       @PathVariable(value = "setId")
           @Pattern(regexp = SET_ID_REGEX, message = INVALID_SET_ID_MESSAGE) String setId,
       @RequestParam(value = "wskey", required = false)
@@ -253,7 +434,7 @@ public class RecommendController {
     String userId =  extractUserFromToken(authToken);
     validateRecordIds(ids);
     recommendService.submitUserSignals(ids, RecommendationConstants.USER_SIGNAL_REJECT, userId,wskey, authToken);
-    return recommendSet(setId, ids.length, 0, null, wskey, authToken, xApiKey);
+    return recommendSet(setId, ids.length, 0, null, wskey, authToken, xApiKey, null, null);
   }
 
   /**
@@ -266,13 +447,15 @@ public class RecommendController {
    * @param wskey     optional API key
    * @param authToken optional authentication token
    * @param xApiKey   optional apikey header
-   * @return Search API json response with similar records data
+   * @param ifNoneMatch optional ETag(s) of a previous response
+   * @param requestTimeout optional time budget in ms, can only be shorter than the configured deadline
+   * @return Search API json response with similar records data, or 304 if the ETag matches
    * @throws RecommendException when there's a problem retrieving similar records
    */
   @GetMapping(value = {"/recommend/entity/{type}/{id}.json", "/recommend/entity/{type}/{id}",
       "/entity/{type}/{id}/recommend.json", "/entity/{type}/{id}/recommend"},
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> recommendEntity(
+  public Mono<ResponseEntity<SearchApiResponse>> recommendEntity(
       @PathVariable(value = "type")
           @Pattern(regexp = ENTITY_TYPE_REGEX, message = INVALID_ENTITY_TYPE_MESSAGE) String type,
       @PathVariable(value = "id")
@@ -285,15 +468,16 @@ public class RecommendController {
       @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false)
           @Pattern(regexp = TOKEN_REGEX, message = INVALID_TOKEN_MESSAGE) String authToken,
       @RequestHeader(value = RequestUtils.X_API_KEY_HEADER, required = false)
-          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE)String xApiKey)
+          @Pattern(regexp = APIKEY_REGEX, message = INVALID_APIKEY_MESSAGE)String xApiKey,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = RequestUtils.REQUEST_TIMEOUT_HEADER, required = false)
+          @Min(value = 1, message = INVALID_REQUEST_TIMEOUT_MESSAGE) Integer requestTimeout)
       throws RecommendException {
     String apikey = extractApiKey(authToken, wskey, xApiKey);
-    Mono<SearchApiResponse> result = recommendService.getRecommendationsForEntity(type,Integer.valueOf(id), pageSize,  apikey, authToken);
-    if (result == null) {
-      return new ResponseEntity<>(new SearchApiResponse(apikey), HttpStatus.OK);
-    }
-
-    return new ResponseEntity<>(result.block(), HttpStatus.OK);
+    rateLimiter.checkLimit(apikey, 1);
+    ResponseCache.Key key = new ResponseCache.Key(ResponseCache.Endpoint.ENTITY, type.toLowerCase(Locale.GERMAN) + "/" + id, pageSize, 0, null);
+    return respond(key, pageSize, apikey, authToken, ifNoneMatch, requestTimeout, () ->
+        recommendService.rankRecommendationsForEntity(type,Integer.valueOf(id), pageSize,  apikey, authToken));
   }
 
   /**
@@ -304,7 +488,7 @@ public class RecommendController {
       "/recommend/entity/{type}/{id}",
       "/entity/{type}/{id}/recommend.json", "/entity/{type}/{id}/recommend"},
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> acceptEntity(
+  public Mono<ResponseEntity<SearchApiResponse>> acceptEntity(
       @PathVariable(value = "type")
           @Pattern(regexp = ENTITY_TYPE_REGEX, message = INVALID_ENTITY_TYPE_MESSAGE) String type,
       @PathVariable(value = "id")
@@ -320,7 +504,7 @@ public class RecommendController {
     String userId =  extractUserFromToken(authToken);
     validateRecordIds(ids);
     recommendService.submitUserSignals(ids, RecommendationConstants.USER_SIGNAL_ACCEPT, userId,wskey, authToken);
-    return recommendEntity(type, id, ids.length, wskey, authToken, xApiKey);
+    return recommendEntity(type, id, ids.length, wskey, authToken, xApiKey, null, null);
   }
 
   /**
@@ -330,7 +514,7 @@ public class RecommendController {
   @DeleteMapping(value = {"/recommend/entity/{type}/{id}.json","/recommend/entity/{type}/{id}",
       "/entity/{type}/{id}/recommend.json", "/entity/{type}/{id}/recommend"},
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<SearchApiResponse> rejectEntity(
+  public Mono<ResponseEntity<SearchApiResponse>> rejectEntity(
       @PathVariable(value = "type")
           @Pattern(regexp = ENTITY_TYPE_REGEX, message = INVALID_ENTITY_TYPE_MESSAGE) String type,
       @PathVariable(value = "id")
@@ -347,9 +531,105 @@ public class RecommendController {
     validateRecordIds(ids);
     recommendService.submitUserSignals(ids, RecommendationConstants.USER_SIGNAL_REJECT, userId,
         wskey, authToken);
-    return recommendEntity(type, id, ids.length, wskey, authToken, xApiKey);
+    return recommendEntity(type, id, ids.length, wskey, authToken, xApiKey, null, null);
+  }
+
+
+  /**
+   * Return a (cached) response for the recommendations generated by the provided ranking. For a conditional request
+   * without a cached response we first rank the recommendations, so we can respond with 304 Not Modified without
+   * requesting the record data from Search API if the recommendations didn't change.
+   * If there's no cached response, identical requests in flight share the same response generation. The response cache
+   * keeps the loader to refresh the response later, so that loader always has to rank the recommendations again.
+   * Response generation has to finish within the deadline of the endpoint (or the shorter deadline requested by the
+   * client), see also {@link Deadline}
+   * Only ranking counts towards the concurrency quota of the endpoint, cached responses are returned without waiting
+   */
+  private Mono<ResponseEntity<SearchApiResponse>> respond(ResponseCache.Key key, int pageSize, String apikey,
+      String authToken, String ifNoneMatch, Integer requestTimeout, Supplier<Mono<List<Recommendation>>> ranking) {
+    Deadline deadline = createDeadline(key.endpoint(), requestTimeout);
+    Supplier<Mono<List<Recommendation>>> isolatedRanking = () -> bulkheads.execute(key.endpoint(), Mono.defer(ranking));
+    Mono<ResponseEntity<SearchApiResponse>> result = respond(key, pageSize, apikey, authToken, ifNoneMatch,
+        isolatedRanking);
+    return (deadline == null ? result : result.contextWrite(deadline::addTo));
   }
 
+  /**
+   * The deadline configured for an endpoint, or the deadline requested by the client if that is shorter
+   * @return deadline, or null if there is none
+   */
+  private Deadline createDeadline(ResponseCache.Endpoint endpoint, Integer requestTimeout) {
+    int budget = deadlines.getOrDefault(endpoint, 0);
+    if (requestTimeout != null && (budget <= 0 || requestTimeout < budget)) {
+      budget = requestTimeout;
+    }
+    return (budget > 0 ? Deadline.after(Duration.ofMillis(budget)) : null);
+  }
+
+  private Mono<ResponseEntity<SearchApiResponse>> respond(ResponseCache.Key key, int pageSize, String apikey,
+      String authToken, String ifNoneMatch, Supplier<Mono<List<Recommendation>>> ranking) {
+    if (StringUtils.isBlank(ifNoneMatch) || responseCache.contains(key, apikey, authToken)) {
+      Mono<SearchApiResponse> result = responseCache.get(key, apikey, authToken, () ->
+          requestCoalescer.get(key, apikey, authToken, () -> ranking.get()
+              .flatMap(ranked -> recommendService.generateResponse(ranked, pageSize, apikey, authToken))));
+      return toResponseEntity(result, apikey, authToken, ifNoneMatch);
+    }
+    return ranking.get()
+        .flatMap(ranked -> {
+          String contentHash = recommendService.generateContentHash(ranked);
+          if (ETagUtils.matches(ifNoneMatch, ETagUtils.toETag(contentHash, apikey))) {
+            LOG.debug("Recommendations for {} not modified", key);
+            return Mono.just(notModified(contentHash, apikey, authToken));
+          }
+          // use the ranking we already have for this request, later refreshes have to rank again
+          AtomicReference<List<Recommendation>> current = new AtomicReference<>(ranked);
+          Mono<SearchApiResponse> result = responseCache.get(key, apikey, authToken, () ->
+              requestCoalescer.get(key, apikey, authToken, () -> Mono.justOrEmpty(current.getAndSet(null))
+                  .switchIfEmpty(Mono.defer(ranking))
+                  .flatMap(r -> recommendService.generateResponse(r, pageSize, apikey, authToken))));
+          return toResponseEntity(result, apikey, authToken, ifNoneMatch);
+        })
+        .switchIfEmpty(Mono.defer(() -> toResponseEntity(Mono.empty(), apikey, authToken, ifNoneMatch)));
+  }
+
+  /**
+   * Wrap the (asynchronous) result in a response entity. If there is no result we return an empty response
+   */
+  private Mono<ResponseEntity<SearchApiResponse>> toResponseEntity(Mono<SearchApiResponse> result, String apikey,
+      String authToken, String ifNoneMatch) {
+    return result
+        .defaultIfEmpty(new SearchApiResponse(apikey))
+        .map(response -> {
+          if (ETagUtils.matches(ifNoneMatch, ETagUtils.toETag(response.getContentHash(), apikey))) {
+            return notModified(response.getContentHash(), apikey, authToken);
+          }
+          HttpHeaders headers = cacheHeaders(response.getContentHash(), apikey, authToken);
+          if (response.isPartial()) {
+            // don't let anyone cache a response that is missing recommendations because we ran out of time
+            headers.setCacheControl(CacheControl.noStore());
+          }
+          return ResponseEntity.ok()
+              .headers(headers)
+              .body(response);
+        });
+  }
+
+  private ResponseEntity<SearchApiResponse> notModified(String contentHash, String apikey, String authToken) {
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+        .headers(cacheHeaders(contentHash, apikey, authToken))
+        .build();
+  }
+
+  private HttpHeaders cacheHeaders(String contentHash, String apikey, String authToken) {
+    HttpHeaders headers = new HttpHeaders();
+    String etag = ETagUtils.toETag(contentHash, apikey);
+    if (etag != null) {
+      headers.setETag(etag);
+    }
+    headers.setCacheControl(StringUtils.isBlank(authToken) ? publicCacheControl : privateCacheControl);
+    headers.setVary(VARY_HEADERS);
+    return headers;
+  }
 
   /**
    * Check if we have a token and/or API key. If not we throw an error, otherwise we'll return
@@ -405,6 +685,14 @@ public class RecommendController {
         }
     }
 
+  /**
+   * Convert a validated record id (e.g. /123/abc) to a RecordId object
+   */
+    private static RecordId toRecordId(String id) {
+        String[] parts = id.split("/", -1);
+        return new RecordId(parts[1], parts[2]);
+    }
+
     private boolean isValidRecordId(String id) {
         return EUROPEANA_ID.matcher(id).matches();
     }
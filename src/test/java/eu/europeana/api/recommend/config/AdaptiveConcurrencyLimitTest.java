@@ -0,0 +1,83 @@
+package eu.europeana.api.recommend.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long FAST = Duration.ofMillis(10).toNanos();
+    private static final long SLOW = Duration.ofMillis(100).toNanos();
+
+    private static AdaptiveConcurrencyLimit createLimit(int initial) {
+        return new AdaptiveConcurrencyLimit(initial, 2, 100, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Keep the limiter fully used and finish requests with the provided response time
+     */
+    private static void runAtLimit(AdaptiveConcurrencyLimit limit, long rttNanos, int nrRequests) {
+        for (int i = 0; i < nrRequests; i++) {
+            while (limit.tryAcquire()) {
+                // fill up to the limit
+            }
+            limit.release(rttNanos, false);
+        }
+    }
+
+    @Test
+    public void testLimitReached() {
+        AdaptiveConcurrencyLimit limit = createLimit(2);
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(2, limit.getInflight());
+
+        limit.release(FAST, false);
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void testLimitGrowsWithStableLatency() {
+        AdaptiveConcurrencyLimit limit = createLimit(10);
+        runAtLimit(limit, FAST, 500);
+        assertEquals(100, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitDecreasesWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = createLimit(50);
+        runAtLimit(limit, FAST, 500);
+        int before = limit.getLimit();
+        runAtLimit(limit, SLOW, 50);
+        assertTrue(limit.getLimit() < before, "Limit " + limit.getLimit() + " not lower than " + before);
+    }
+
+    @Test
+    public void testLimitNotIncreasedWhenUnderused() {
+        AdaptiveConcurrencyLimit limit = createLimit(50);
+        for (int i = 0; i < 500; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.release(FAST, false);
+        }
+        assertEquals(50, limit.getLimit());
+    }
+
+    @Test
+    public void testDroppedLowersLimit() {
+        AdaptiveConcurrencyLimit limit = createLimit(50);
+        assertTrue(limit.tryAcquire());
+        limit.release(SLOW, true);
+        assertEquals(45, limit.getLimit());
+    }
+
+    @Test
+    public void testInvalidBounds() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimit(10, 20, 10, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimit(10, 0, 10, meterRegistry));
+    }
+}
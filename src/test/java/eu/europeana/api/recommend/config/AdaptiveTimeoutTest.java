@@ -0,0 +1,73 @@
+package eu.europeana.api.recommend.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveTimeoutTest {
+
+    private static final Duration MIN = Duration.ofMillis(100);
+    private static final Duration MAX = Duration.ofSeconds(10);
+
+    private AdaptiveTimeout createTimeout() {
+        return new AdaptiveTimeout("test", new SimpleMeterRegistry(), 0.99, 2, MIN, MAX, Duration.ZERO);
+    }
+
+    @Test
+    public void testMaxTimeoutWithoutMeasurements() {
+        AdaptiveTimeout timeout = createTimeout();
+        assertEquals(MAX, timeout.getTimeout());
+
+        timeout.record(Duration.ofMillis(500).toNanos());
+        assertEquals(MAX, timeout.getTimeout());
+    }
+
+    @Test
+    public void testTimeoutFromPercentile() {
+        AdaptiveTimeout timeout = createTimeout();
+        for (int i = 0; i < 100; i++) {
+            timeout.record(Duration.ofMillis(500).toNanos());
+        }
+        // p99 is approximately 500 ms, multiplied with factor 2
+        long timeoutMs = timeout.getTimeout().toMillis();
+        assertTrue(timeoutMs > 900 && timeoutMs < 1100, "Unexpected timeout " + timeoutMs);
+    }
+
+    @Test
+    public void testMaxTimeoutAfterIdlePeriod() {
+        AtomicLong now = new AtomicLong();
+        AdaptiveTimeout timeout = new AdaptiveTimeout("test", new SimpleMeterRegistry(), 0.99, 2, MIN, MAX,
+                Duration.ZERO, now::get);
+        for (int i = 0; i < 100; i++) {
+            timeout.record(Duration.ofMillis(500).toNanos());
+        }
+        assertNotEquals(MAX, timeout.getTimeout());
+
+        // after an idle period there is only 1 recent measurement, which is not enough
+        now.addAndGet(Duration.ofMinutes(5).toNanos());
+        timeout.record(Duration.ofMillis(500).toNanos());
+        assertEquals(MAX, timeout.getTimeout());
+    }
+
+    @Test
+    public void testTimeoutBounds() {
+        AdaptiveTimeout fast = createTimeout();
+        AdaptiveTimeout slow = createTimeout();
+        for (int i = 0; i < 100; i++) {
+            fast.record(Duration.ofMillis(1).toNanos());
+            slow.record(Duration.ofSeconds(20).toNanos());
+        }
+        assertEquals(MIN, fast.getTimeout());
+        assertEquals(MAX, slow.getTimeout());
+    }
+
+    @Test
+    public void testInvalidBounds() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveTimeout("test", new SimpleMeterRegistry(),
+                0.99, 2, MAX, MIN));
+    }
+}
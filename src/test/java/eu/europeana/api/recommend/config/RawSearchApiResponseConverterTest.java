@@ -0,0 +1,44 @@
+package eu.europeana.api.recommend.config;
+
+import eu.europeana.api.recommend.model.RawSearchApiResponse;
+import eu.europeana.api.recommend.model.SearchApiResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test if raw Search API responses are written unmodified
+ */
+public class RawSearchApiResponseConverterTest {
+
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = DefaultDataBufferFactory.sharedInstance;
+
+    @Test
+    public void testSupports() {
+        RawSearchApiResponseConverter converter = new RawSearchApiResponseConverter();
+        assertTrue(converter.canWrite(RawSearchApiResponse.class, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canWrite(SearchApiResponse.class, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canRead(RawSearchApiResponse.class, MediaType.APPLICATION_JSON));
+    }
+
+    @Test
+    public void testWriteRawResponse() throws IOException {
+        String part1 = "{\"apikey\":\"test\",\"success\":true,";
+        String part2 = "\"itemsCount\":0,\"totalResults\":0,\"items\":[]}";
+        RawSearchApiResponse response = new RawSearchApiResponse("test", Flux.just(
+                BUFFER_FACTORY.wrap(part1.getBytes(StandardCharsets.UTF_8)),
+                BUFFER_FACTORY.wrap(part2.getBytes(StandardCharsets.UTF_8))));
+
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        new RawSearchApiResponseConverter().write(response, MediaType.APPLICATION_JSON, output);
+        assertEquals(part1 + part2, output.getBodyAsString(StandardCharsets.UTF_8));
+        assertEquals(MediaType.APPLICATION_JSON, output.getHeaders().getContentType());
+    }
+}
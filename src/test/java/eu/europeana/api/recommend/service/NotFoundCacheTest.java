@@ -0,0 +1,31 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.config.RecommendSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NotFoundCacheTest {
+
+    @Test
+    public void testNotFoundPerType() {
+        RecommendSettings settings = mock(RecommendSettings.class);
+        when(settings.getNotFoundCacheRecordTtl()).thenReturn(60);
+        when(settings.getNotFoundCacheSetTtl()).thenReturn(60);
+        when(settings.getNotFoundCacheMaxSize()).thenReturn(100);
+        NotFoundCache cache = new NotFoundCache(settings, new SimpleMeterRegistry());
+
+        assertFalse(cache.isNotFound(NotFoundCache.Type.RECORD, "/1/a"));
+        cache.putNotFound(NotFoundCache.Type.RECORD, "/1/a");
+        assertTrue(cache.isNotFound(NotFoundCache.Type.RECORD, "/1/a"));
+        assertFalse(cache.isNotFound(NotFoundCache.Type.SET, "/1/a"));
+
+        // entity cache is disabled (ttl 0)
+        cache.putNotFound(NotFoundCache.Type.ENTITY, "agent/1");
+        assertFalse(cache.isNotFound(NotFoundCache.Type.ENTITY, "agent/1"));
+    }
+}
@@ -0,0 +1,123 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.exception.RateLimitExceededException;
+import eu.europeana.api.recommend.exception.TooManyStreamsException;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RateLimiterTest {
+
+    private static final String TRUSTED_KEY = "trusted";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RateLimiter createRateLimiter(boolean enabled) {
+        RecommendSettings settings = mock(RecommendSettings.class);
+        when(settings.isRateLimitEnabled()).thenReturn(enabled);
+        when(settings.getRateLimitDefaultRate()).thenReturn(0.001);
+        when(settings.getRateLimitDefaultBurst()).thenReturn(3);
+        when(settings.getRateLimitTrustedKeys()).thenReturn(new String[]{TRUSTED_KEY});
+        when(settings.getRateLimitTrustedRate()).thenReturn(0D);
+        when(settings.getRateLimitMaxKeys()).thenReturn(100);
+        when(settings.getRateLimitIdleTime()).thenReturn(60);
+        when(settings.getRateLimitUnknownRate()).thenReturn(0.001);
+        when(settings.getRateLimitUnknownBurst()).thenReturn(5);
+        when(settings.getRateLimitMaxStreams()).thenReturn(2);
+        ValidApikeys validApikeys = mock(ValidApikeys.class);
+        when(validApikeys.isValid("key1")).thenReturn(true);
+        when(validApikeys.isValid("key2")).thenReturn(true);
+        return new RateLimiter(settings, validApikeys, meterRegistry);
+    }
+
+    @Test
+    public void testLimitPerKey() throws RateLimitExceededException {
+        RateLimiter rateLimiter = createRateLimiter(true);
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.checkLimit("key1", 1);
+        }
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> rateLimiter.checkLimit("key1", 1));
+        assertTrue(e.getRetryAfterSeconds() > 0);
+
+        // other keys have their own bucket
+        rateLimiter.checkLimit("key2", 1);
+
+        assertEquals(3, meterRegistry.get("recommend.ratelimit.requests")
+                .tag("apikey", RateLimiter.toTagValue("key1")).tag("result", "allowed").counter().count());
+        assertEquals(1, meterRegistry.get("recommend.ratelimit.requests")
+                .tag("apikey", RateLimiter.toTagValue("key1")).tag("result", "rejected").counter().count());
+    }
+
+    @Test
+    public void testBatchCost() throws RateLimitExceededException {
+        RateLimiter rateLimiter = createRateLimiter(true);
+        rateLimiter.checkLimit("key1", 3);
+        assertThrows(RateLimitExceededException.class, () -> rateLimiter.checkLimit("key1", 1));
+    }
+
+    @Test
+    public void testTrustedKeyNoLimit() throws RateLimitExceededException {
+        RateLimiter rateLimiter = createRateLimiter(true);
+        assertEquals(RateLimiter.KeyClass.TRUSTED, rateLimiter.getKeyClass(TRUSTED_KEY));
+        assertEquals(RateLimiter.KeyClass.DEFAULT, rateLimiter.getKeyClass("key1"));
+        assertEquals(RateLimiter.KeyClass.UNKNOWN, rateLimiter.getKeyClass("unknown1"));
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.checkLimit(TRUSTED_KEY, 1);
+        }
+    }
+
+    @Test
+    public void testUnknownKeysBucketPerKey() throws RateLimitExceededException {
+        RateLimiter rateLimiter = createRateLimiter(true);
+        assertEquals(RateLimiter.KeyClass.UNKNOWN, rateLimiter.getKeyClass("unknown1"));
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.checkLimit("unknown1", 1);
+        }
+        assertThrows(RateLimitExceededException.class, () -> rateLimiter.checkLimit("unknown1", 1));
+
+        // other unknown keys and known keys are not affected
+        rateLimiter.checkLimit("unknown2", 1);
+        rateLimiter.checkLimit("key1", 1);
+
+        // unknown keys share their counters
+        assertEquals(6, meterRegistry.get("recommend.ratelimit.requests")
+                .tag("class", "unknown").tag("result", "allowed").counter().count());
+        assertEquals(1, meterRegistry.get("recommend.ratelimit.requests")
+                .tag("class", "unknown").tag("result", "rejected").counter().count());
+        for (Meter meter : meterRegistry.getMeters()) {
+            String tag = meter.getId().getTag("apikey");
+            assertFalse(tag != null && (tag.equals("key1") || tag.matches("unknown\\d")), "API key in metric tag " + tag);
+        }
+    }
+
+    @Test
+    public void testMaxStreamsPerKey() throws RateLimitExceededException {
+        RateLimiter rateLimiter = createRateLimiter(true);
+        Flux<Integer> first = rateLimiter.limitStreams("key1", Flux.just(1, 2, 3));
+        rateLimiter.limitStreams("key1", Flux.never());
+        assertThrows(TooManyStreamsException.class, () -> rateLimiter.limitStreams("key1", Flux.never()));
+
+        // other keys are not affected
+        rateLimiter.limitStreams("key2", Flux.never());
+
+        // a finished stream makes room for a new one
+        assertEquals(3, first.count().block());
+        rateLimiter.limitStreams("key1", Flux.never());
+        assertThrows(TooManyStreamsException.class, () -> rateLimiter.limitStreams("key1", Flux.never()));
+    }
+
+    @Test
+    public void testDisabled() throws RateLimitExceededException {
+        RateLimiter rateLimiter = createRateLimiter(false);
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.checkLimit("key1", 1);
+        }
+    }
+}
@@ -4,25 +4,34 @@ import eu.europeana.api.recommend.SearchApiMockResponse;
 import eu.europeana.api.recommend.common.RecordId;
 import eu.europeana.api.recommend.common.model.EmbeddingResponse;
 import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.exception.EndpointBusyException;
 import eu.europeana.api.recommend.exception.EntityNotFoundException;
-import eu.europeana.api.recommend.exception.RecommendException;
 import eu.europeana.api.recommend.exception.RecordNotFoundException;
 import eu.europeana.api.recommend.exception.SetNotFoundException;
 import eu.europeana.api.recommend.model.Set;
 import eu.europeana.api.recommend.model.*;
+import eu.europeana.api.recommend.util.Deadline;
+import eu.europeana.api.recommend.util.WeightedSampling;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.stream.IntStream;
 
 import static org.hibernate.validator.internal.util.Contracts.assertNotNull;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @SpringBootTest(classes = { RecommendService.class })
 public class RecommendServiceTest {
@@ -37,6 +46,9 @@ public class RecommendServiceTest {
 
     private static final String SET_ID = "1234";
     private static final Set SET1 = new Set(SET_ID, Map.of("en", "my title"), Map.of("en", "my description"), null, null);
+    private static final String SET_WITH_ITEMS_ID = "5678";
+    private static final Set SET_WITH_ITEMS = new Set(SET_WITH_ITEMS_ID, Map.of("en", "my title"),
+            Map.of("en", "my description"), null, new String[]{"/b/1"});
 
     private static final String ENTITY_TYPE = "agent";
     private static final int ENTITY_ID = 7;
@@ -44,6 +56,8 @@ public class RecommendServiceTest {
     private static final SetSearch ENTITY_SET_EXISTS = new SetSearchMockResponse(1, new Set[]{SET1});
     private static final SetSearch ENTITY_SET_NOT_EXISTS = new SetSearchMockResponse(0, null);
 
+    @MockBean
+    RecommendSettings recommendSettings;
     @MockBean
     MilvusService milvusService;
     @MockBean
@@ -54,6 +68,14 @@ public class RecommendServiceTest {
     SetApiService setApiService;
     @MockBean
     EntityApiService entityApiService;
+    @MockBean
+    RecordFilterService recordFilterService;
+    @MockBean
+    NotFoundCache notFoundCache;
+    @MockBean
+    CandidateCache candidateCache;
+    @MockBean
+    EndpointBulkheads bulkheads;
 
     @Autowired
     RecommendService recommendService;
@@ -64,6 +86,7 @@ public class RecommendServiceTest {
         mockSearchApi();
         mockSetApi();
         mockEntityApi();
+        when(bulkheads.execute(any(), any())).thenAnswer(arguments -> arguments.getArgument(1));
     }
 
 
@@ -83,16 +106,17 @@ public class RecommendServiceTest {
 
     private void mockMilvus() {
         List<Float> vector = Arrays.stream(VECTOR1).toList();
-        when(milvusService.getVectorForRecord(any())).thenReturn(Collections.emptyList()); // default return empty list;
-        when(milvusService.getVectorForRecord(RECORD_ID1)).thenReturn(vector);
+        when(milvusService.getVectorForRecord(any())).thenReturn(Mono.just(Collections.emptyList())); // default return empty list;
+        when(milvusService.getVectorForRecord(RECORD_ID1)).thenReturn(Mono.just(vector));
+        when(milvusService.getVectorForRecords(any())).thenReturn(Mono.just(Collections.emptyList()));
 
-        when(milvusService.getSimilarRecords(any(), anyInt(), any(), anyInt())).thenReturn(Collections.emptyMap());
-        when(milvusService.getSimilarRecords(eq(List.of(vector)), anyInt(), any(), anyInt())).thenReturn(RECOMMEND_MAP);
+        when(milvusService.getSimilarRecords(any(), anyInt(), any(), anyInt())).thenReturn(Mono.just(Collections.emptyMap()));
+        when(milvusService.getSimilarRecords(eq(List.of(vector)), anyInt(), any(), anyInt())).thenReturn(Mono.just(RECOMMEND_MAP));
     }
 
     private void mockSearchApi() {
-        when(searchApiService.checkRecordExists(any(), any(), any())).thenReturn(false);
-        when(searchApiService.checkRecordExists(eq(RECORD_ID1), any(), any())).thenReturn(true);
+        when(searchApiService.checkRecordExists(any(), any(), any())).thenReturn(Mono.just(false));
+        when(searchApiService.checkRecordExists(eq(RECORD_ID1), any(), any())).thenReturn(Mono.just(true));
 
         when(searchApiService.generateResponse(any(), anyInt(), any(), any())).thenReturn(Mono.just(new SearchApiResponse("test")));
         when(searchApiService.generateResponse(eq(List.of(RECOMMENDATION1)), anyInt(), any(), any())).thenReturn(Mono.just(new SearchApiMockResponse("test", 1, 1)));
@@ -122,6 +146,14 @@ public class RecommendServiceTest {
         });
     }
 
+    /**
+     * Errors are only thrown when blocking on the returned mono, and checked exceptions are wrapped by block()
+     */
+    private static void assertNotFound(Class<? extends Throwable> expected, Executable executable) {
+        Throwable e = assertThrows(RuntimeException.class, executable);
+        assertInstanceOf(expected, Exceptions.unwrap(e));
+    }
+
     @Test
     public void mergeAndSortRecommendationsTest() {
         Recommendation r1 = new Recommendation(new RecordId("a", "1"), 0.5f);
@@ -146,33 +178,188 @@ public class RecommendServiceTest {
     }
 
     @Test
-    public void testRecordRecommendations() throws RecommendException {
+    public void testRecordRecommendations() {
         SearchApiResponse response = recommendService.getRecommendationsForRecord(
-                RECORD_ID1, 10, 1, null, "test", null).block();
+                RECORD_ID1, 10, 0, null, "test", null).block();
         assertNotNull(response);
         assertTrue(response.isSuccess());
         assertEquals(1, response.getItemsCount());
     }
 
+    @Test
+    public void testRecordRecommendationsContentHash() {
+        SearchApiResponse response = recommendService.getRecommendationsForRecord(
+                RECORD_ID1, 10, 0, null, "test", null).block();
+        assertNotNull(response);
+        assertEquals(recommendService.generateContentHash(List.of(RECOMMENDATION1)), response.getContentHash());
+        assertNotEquals(recommendService.generateContentHash(Collections.emptyList()), response.getContentHash());
+    }
+
     @Test
     public void testRecordRecommendationsNotFound() {
-        assertThrows(RecordNotFoundException.class, () -> recommendService.getRecommendationsForRecord(
-                new RecordId("a", "notfound"), 10, 1, null, "test", null));
+        assertNotFound(RecordNotFoundException.class, () -> recommendService.getRecommendationsForRecord(
+                new RecordId("a", "notfound"), 10, 1, null, "test", null).block());
+    }
+
+    @Test
+    public void testRecordRecommendationsKnownMissing() {
+        RecordId recordId = new RecordId("a", "knownmissing");
+        when(recordFilterService.isKnownMissing(recordId)).thenReturn(true);
+        assertNotFound(RecordNotFoundException.class, () -> recommendService.getRecommendationsForRecord(
+                recordId, 10, 1, null, "test", null).block());
+        verify(searchApiService, never()).checkRecordExists(eq(recordId), any(), any());
+        // the filter may be out of date, so we don't remember its answer
+        verify(notFoundCache, never()).putNotFound(NotFoundCache.Type.RECORD, recordId.getEuropeanaId());
+    }
+
+    @Test
+    public void testRecordRecommendationsCachedNotFound() {
+        RecordId recordId = new RecordId("a", "cachednotfound");
+        when(notFoundCache.isNotFound(NotFoundCache.Type.RECORD, recordId.getEuropeanaId())).thenReturn(true);
+        assertNotFound(RecordNotFoundException.class, () -> recommendService.getRecommendationsForRecord(
+                recordId, 10, 1, null, "test", null).block());
+        verify(milvusService, never()).getVectorForRecord(recordId);
+    }
+
+    @Test
+    public void testRecordRecommendationsNextPageFromCache() {
+        RecordId recordId = new RecordId("a", "paged");
+        Recommendation r1 = new Recommendation(new RecordId("a", "r1"), 0.9f);
+        Recommendation r2 = new Recommendation(new RecordId("a", "r2"), 0.8f);
+        Recommendation r3 = new Recommendation(new RecordId("a", "r3"), 0.7f);
+        when(candidateCache.get(NotFoundCache.Type.RECORD, recordId.getEuropeanaId()))
+                .thenReturn(new CandidateCache.Candidates(List.of(r1, r2, r3), true));
+
+        recommendService.getRecommendationsForRecord(recordId, 2, 1, null, "test", null).block();
+        verify(searchApiService).generateResponse(eq(List.of(r3)), eq(2), any(), any());
+        verify(milvusService, never()).getVectorForRecord(recordId);
+    }
+
+    @Test
+    public void testRecordRecommendationsCandidatesAreCached() {
+        when(candidateCache.getOversampleSize()).thenReturn(100);
+        recommendService.getRecommendationsForRecord(RECORD_ID1, 10, 0, null, "test", null).block();
+        verify(milvusService).getSimilarRecords(any(), eq(100), any(), anyInt());
+        verify(candidateCache).put(NotFoundCache.Type.RECORD, RECORD_ID1.getEuropeanaId(),
+                new CandidateCache.Candidates(List.of(RECOMMENDATION1), true));
+    }
+
+    @Test
+    public void testSeededRecordRecommendationsShareCandidates() {
+        RecordId recordId = new RecordId("a", "seeded");
+        List<Recommendation> candidates = IntStream.range(0, 20)
+                .mapToObj(i -> new Recommendation(new RecordId("a", "r" + i), 1f - i / 100f))
+                .toList();
+        when(candidateCache.getOversampleSize()).thenReturn(20);
+        when(candidateCache.get(NotFoundCache.Type.RECORD, recordId.getEuropeanaId()))
+                .thenReturn(new CandidateCache.Candidates(candidates, true));
+
+        recommendService.getRecommendationsForRecord(recordId, 5, 0, "1", "test", null).block();
+        recommendService.getRecommendationsForRecord(recordId, 5, 0, "1", "test", null).block();
+        List<Recommendation> expected = WeightedSampling.order(candidates, Recommendation::getScore, 1).subList(0, 5);
+        verify(searchApiService, times(2)).generateResponse(eq(expected), eq(5), any(), any());
+
+        recommendService.getRecommendationsForRecord(recordId, 5, 0, "2", "test", null).block();
+        expected = WeightedSampling.order(candidates, Recommendation::getScore, 2).subList(0, 5);
+        verify(searchApiService).generateResponse(eq(expected), eq(5), any(), any());
+        verify(milvusService, never()).getVectorForRecord(recordId);
+    }
+
+    @Test
+    public void testSeededRecordRecommendationsAfterCacheRefresh() {
+        RecordId recordId = new RecordId("a", "refreshed");
+        List<Recommendation> candidates = IntStream.range(0, 50)
+                .mapToObj(i -> new Recommendation(new RecordId("a", "r" + i), 1f - i / 100f))
+                .toList();
+        when(candidateCache.getOversampleSize()).thenReturn(20);
+        // first a small cache entry, after a refresh one with more candidates
+        when(candidateCache.get(NotFoundCache.Type.RECORD, recordId.getEuropeanaId())).thenReturn(
+                new CandidateCache.Candidates(candidates.subList(0, 25), false),
+                new CandidateCache.Candidates(candidates.subList(0, 25), false),
+                new CandidateCache.Candidates(candidates, false),
+                new CandidateCache.Candidates(candidates, false));
+
+        recommendService.getRecommendationsForRecord(recordId, 5, 1, "1", "test", null).block();
+        recommendService.getRecommendationsForRecord(recordId, 5, 4, "1", "test", null).block();
+        recommendService.getRecommendationsForRecord(recordId, 5, 1, "1", "test", null).block();
+        recommendService.getRecommendationsForRecord(recordId, 5, 4, "1", "test", null).block();
+
+        List<Recommendation> sampled = WeightedSampling.order(candidates.subList(0, 20), Recommendation::getScore, 1);
+        verify(searchApiService, times(2)).generateResponse(eq(sampled.subList(5, 10)), eq(5), any(), any());
+        // candidates after the sampled pool are returned in ranked order
+        verify(searchApiService, times(2)).generateResponse(eq(candidates.subList(20, 25)), eq(5), any(), any());
+        verify(milvusService, never()).getVectorForRecord(recordId);
+    }
+
+    @Test
+    public void testRecordsRecommendations() {
+        RecordId recordId2 = new RecordId("a", "2");
+        RecordId recordId3 = new RecordId("a", "3");
+        when(milvusService.getVectorsPerRecord(List.of(RECORD_ID1, recordId3)))
+                .thenReturn(Mono.just(Map.of(RECORD_ID1.getMilvusId(), Arrays.stream(VECTOR1).toList())));
+        // Milvus will always return the record itself as most similar
+        when(milvusService.getSimilarRecordsPerVector(any(), eq(11), anyInt())).thenReturn(Mono.just(List.of(Map.of(
+                RECORD_ID1.getMilvusId(), new Recommendation(RECORD_ID1, 2f),
+                recordId2.getMilvusId(), new Recommendation(recordId2, 1f)))));
+        when(searchApiService.getItems(eq(List.of(new Recommendation(recordId2, 1f))), any(), any()))
+                .thenReturn(Mono.just(Map.of(recordId2.getEuropeanaId(), Map.of("id", recordId2.getEuropeanaId()))));
+
+        BatchRecommendResponse response = recommendService.getRecommendationsForRecords(
+                List.of(RECORD_ID1, recordId3), 10, "test", null).block();
+        assertNotNull(response);
+        assertEquals(2, response.getResultsCount());
+        assertEquals(RECORD_ID1.getEuropeanaId(), response.getResults().get(0).getId());
+        assertEquals(1, response.getResults().get(0).getItemsCount());
+        assertEquals(recordId3.getEuropeanaId(), response.getResults().get(1).getId());
+        assertEquals(0, response.getResults().get(1).getItemsCount());
+    }
+
+    @Test
+    public void testStreamRecordsRecommendations() {
+        RecordId notFound = new RecordId("a", "notfound");
+        List<RecordRecommendations> results = recommendService.streamRecommendationsForRecords(
+                Flux.just(RECORD_ID1, notFound), 10, "test", null).collectList().block();
+        assertNotNull(results);
+        assertEquals(2, results.size());
+        assertEquals(RECORD_ID1.getEuropeanaId(), results.get(0).getId());
+        assertNull(results.get(0).getError());
+        assertEquals(notFound.getEuropeanaId(), results.get(1).getId());
+        assertEquals(0, results.get(1).getItemsCount());
+        assertNotNull(results.get(1).getError());
+        verify(bulkheads, times(2)).execute(eq(ResponseCache.Endpoint.RECORD), any());
+    }
+
+    @Test
+    public void testStreamRecordsRecommendationsBusy() {
+        when(bulkheads.execute(any(), any())).thenReturn(Mono.error(new EndpointBusyException("record")));
+        List<RecordRecommendations> results = recommendService.streamRecommendationsForRecords(
+                Flux.just(RECORD_ID1), 10, "test", null).collectList().block();
+        assertNotNull(results);
+        assertEquals(1, results.size());
+        assertNotNull(results.get(0).getError());
+        verify(milvusService, never()).getVectorForRecord(RECORD_ID1);
     }
 
     @Test
-    public void testSetRecommendations() throws RecommendException {
+    public void testSetRecommendationsNotFoundIsCached() {
+        assertNotFound(SetNotFoundException.class, () -> recommendService.getRecommendationsForSet(
+                "1111", 10, 1, null, "test", null).block());
+        verify(notFoundCache).putNotFound(NotFoundCache.Type.SET, "1111");
+    }
+
+    @Test
+    public void testSetRecommendations() {
         // Mock Embeddings API to return result
         when(embeddingsService.getVectorForSet(SET1)).thenReturn(Mono.just(EMBED_RESPONSE));
         SearchApiResponse response = recommendService.getRecommendationsForSet(
-                SET_ID, 10, 1, null, "test", null).block();
+                SET_ID, 10, 0, null, "test", null).block();
         assertNotNull(response);
         assertTrue(response.isSuccess());
         assertEquals(1, response.getItemsCount());
     }
 
     @Test
-    public void testSetRecommendationsFailingEmbeddings() throws RecommendException {
+    public void testSetRecommendationsFailingEmbeddings() {
         // Mock Embeddings API to fail
         when(embeddingsService.getVectorForSet(SET1)).thenThrow(new RuntimeException("Error accessing Embeddings API"));
         SearchApiResponse response = recommendService.getRecommendationsForSet(
@@ -182,14 +369,80 @@ public class RecommendServiceTest {
         assertEquals(0, response.getItemsCount());
     }
 
+    @Test
+    public void testSetRecommendationsDeadlineReached() {
+        // Embeddings API would return results, but there is no time left to ask
+        when(embeddingsService.getVectorForSet(SET1)).thenReturn(Mono.just(EMBED_RESPONSE));
+        SearchApiResponse response = recommendService.getRecommendationsForSet(SET_ID, 10, 0, null, "test", null)
+                .contextWrite(Deadline.after(Duration.ZERO)::addTo)
+                .block();
+        assertNotNull(response);
+        assertEquals(0, response.getItemsCount());
+        assertTrue(response.isPartial());
+        verify(embeddingsService, never()).getVectorForSet(any());
+        verify(candidateCache, never()).put(any(), any(), any());
+    }
+
+    /**
+     * Set items are in Milvus, so the item branch returns recommendations
+     */
+    private void mockSetWithItems() {
+        when(setApiService.getSetData(eq(SET_WITH_ITEMS_ID), any(), any())).thenReturn(Mono.just(SET_WITH_ITEMS));
+        when(milvusService.getVectorForRecords(any())).thenReturn(Mono.just(List.of(Arrays.stream(VECTOR1).toList())));
+    }
+
+    @Test
+    public void testSetRecommendationsSlowMetadata() {
+        mockSetWithItems();
+        // Embeddings API doesn't respond, so the metadata branch runs out of time
+        when(embeddingsService.getVectorForSet(SET_WITH_ITEMS)).thenReturn(Mono.never());
+
+        StepVerifier.create(recommendService.rankRecommendationsForSet(SET_WITH_ITEMS_ID, 10, 0, null, "test", null)
+                        .contextWrite(Deadline.after(Duration.ofMillis(300))::addTo))
+                .assertNext(result -> {
+                    assertEquals(1, result.size());
+                    assertEquals(RECORD_ID1, result.get(0).getRecordId());
+                })
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        // partial results are not cached
+        verify(candidateCache, never()).put(any(), any(), any());
+    }
+
+    @Test
+    public void testSetRecommendationsFailingMetadata() {
+        mockSetWithItems();
+        when(embeddingsService.getVectorForSet(SET_WITH_ITEMS)).thenReturn(Mono.error(new RuntimeException("Error accessing Embeddings API")));
+
+        StepVerifier.create(recommendService.rankRecommendationsForSet(SET_WITH_ITEMS_ID, 10, 0, null, "test", null))
+                .assertNext(result -> {
+                    assertEquals(1, result.size());
+                    assertEquals(RECORD_ID1, result.get(0).getRecordId());
+                })
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void testSetRecommendationsFailingItems() {
+        mockSetWithItems();
+        when(embeddingsService.getVectorForSet(SET_WITH_ITEMS)).thenReturn(Mono.just(EMBED_RESPONSE));
+        // Milvus is required, so an error in the item branch isn't hidden
+        when(milvusService.getVectorForRecords(any())).thenReturn(Mono.error(new MilvusException("Error accessing Milvus", null)));
+
+        StepVerifier.create(recommendService.rankRecommendationsForSet(SET_WITH_ITEMS_ID, 10, 0, null, "test", null))
+                .expectError(MilvusException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
     @Test
     public void testSetRecommendationsNotFound() {
-        assertThrows(SetNotFoundException.class, () -> recommendService.getRecommendationsForSet(
-                "0000", 10, 1, null, "test", null));
+        assertNotFound(SetNotFoundException.class, () -> recommendService.getRecommendationsForSet(
+                "0000", 10, 1, null, "test", null).block());
     }
 
     @Test
-    public void testEntityRecommendations() throws RecommendException {
+    public void testEntityRecommendations() {
         // Mock Embeddings API to return results
         when(embeddingsService.getVectorForEntity(ENTITY1)).thenReturn(Mono.just(EMBED_RESPONSE));
         SearchApiResponse response = recommendService.getRecommendationsForEntity(
@@ -200,7 +453,7 @@ public class RecommendServiceTest {
     }
 
     @Test
-    public void testEntityRecommendationsFailingEmbeddings() throws RecommendException {
+    public void testEntityRecommendationsFailingEmbeddings() {
         // Mock Embeddings API to fail
         when(embeddingsService.getVectorForEntity(ENTITY1)).thenThrow(new RuntimeException("Error accessing Embeddings API"));
         SearchApiResponse response = recommendService.getRecommendationsForEntity(
@@ -210,9 +463,64 @@ public class RecommendServiceTest {
         assertEquals(0, response.getItemsCount());
     }
 
+    @Test
+    public void testEntityRecommendationsFailingSetApi() {
+        // Mock Embeddings API to return results, but Set API to fail
+        when(embeddingsService.getVectorForEntity(ENTITY1)).thenReturn(Mono.just(EMBED_RESPONSE));
+        when(setApiService.getSetDataForEntity(any(), any(), any())).thenReturn(Mono.error(new RuntimeException("Error accessing Set API")));
+        SearchApiResponse response = recommendService.getRecommendationsForEntity(
+                "agent", 7, 1, "test", null).block();
+        assertNotNull(response);
+        assertTrue(response.isSuccess());
+        assertEquals(1, response.getItemsCount());
+    }
+
+    @Test
+    public void testEntityRecommendationsSlowSetApi() {
+        when(embeddingsService.getVectorForEntity(ENTITY1)).thenReturn(Mono.just(EMBED_RESPONSE));
+        // Set API doesn't respond, so we only use the entity metadata recommendations
+        when(setApiService.getSetDataForEntity(any(), any(), any())).thenReturn(Mono.never());
+
+        StepVerifier.create(recommendService.getRecommendationsForEntity("agent", 7, 1, "test", null)
+                        .contextWrite(Deadline.after(Duration.ofMillis(300))::addTo))
+                .assertNext(response -> {
+                    assertEquals(1, response.getItemsCount());
+                    assertTrue(response.isPartial());
+                })
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void testEntityRecommendationsWithoutSetItems() {
+        List<Float> vector = Arrays.stream(VECTOR1).toList();
+        when(embeddingsService.getVectorForEntity(ENTITY1)).thenReturn(Mono.just(EMBED_RESPONSE));
+        // all metadata recommendations (including the oversampled ones) are also items in the entity set
+        String[] setItems = IntStream.range(0, 101).mapToObj(i -> "/a/" + i).toArray(String[]::new);
+        Set entitySet = new Set("9999", Map.of("en", "best items"), null, null, setItems);
+        when(setApiService.getSetDataForEntity(eq("http://data.europeana.eu/agent/7"), any(), any()))
+                .thenReturn(Mono.just(new SetSearchMockResponse(1, new Set[]{entitySet})));
+        Map<String, Recommendation> inSet = new HashMap<>();
+        for (String setItem : setItems) {
+            RecordId recordId = new RecordId(setItem);
+            inSet.put(recordId.toString(), new Recommendation(recordId, 0.9f));
+        }
+        when(milvusService.getSimilarRecords(eq(List.of(vector)), eq(101), eq(Collections.emptyList()), anyInt()))
+                .thenReturn(Mono.just(inSet));
+        // so we expect a 2nd search that excludes the set items
+        RecordId notInSet = new RecordId("b", "1");
+        when(milvusService.getSimilarRecords(eq(List.of(vector)), eq(1), argThat(ids -> ids != null && ids.size() == 101), anyInt()))
+                .thenReturn(Mono.just(Map.of(notInSet.toString(), new Recommendation(notInSet, 0.8f))));
+
+        List<Recommendation> result = recommendService.rankRecommendationsForEntity("agent", 7, 1, "test", null).block();
+        assertNotNull(result);
+        assertEquals(1, result.size());
+        assertEquals(notInSet, result.get(0).getRecordId());
+    }
+
     @Test
     public void testEntityRecommendationsNotFound() {
-        assertThrows(EntityNotFoundException.class, () -> recommendService.getRecommendationsForEntity(
+        assertNotFound(EntityNotFoundException.class, () -> recommendService.getRecommendationsForEntity(
                 "concept", 999, 1, "test", null).block());
     }
 }
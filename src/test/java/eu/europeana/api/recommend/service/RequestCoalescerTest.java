@@ -0,0 +1,136 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.model.RawSearchApiResponse;
+import eu.europeana.api.recommend.model.SearchApiResponse;
+import eu.europeana.api.recommend.util.Deadline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RequestCoalescerTest {
+
+    private static final ResponseCache.Key KEY1 = new ResponseCache.Key(ResponseCache.Endpoint.RECORD, "1/a", 10, 0, null);
+    private static final ResponseCache.Key KEY2 = new ResponseCache.Key(ResponseCache.Endpoint.RECORD, "1/b", 10, 0, null);
+
+    private final AtomicInteger nrLoads = new AtomicInteger();
+    private final Sinks.One<SearchApiResponse> result = Sinks.one();
+
+    private RequestCoalescer createCoalescer(boolean enabled) {
+        RecommendSettings settings = mock(RecommendSettings.class);
+        when(settings.isRequestCoalescingEnabled()).thenReturn(enabled);
+        return new RequestCoalescer(settings, new SimpleMeterRegistry());
+    }
+
+    // only returns a response when we emit it, so we can simulate requests in flight
+    private ResponseCache.ResponseLoader loader() {
+        return () -> {
+            nrLoads.incrementAndGet();
+            return result.asMono();
+        };
+    }
+
+    private static String toJson(SearchApiResponse response) {
+        assertInstanceOf(RawSearchApiResponse.class, response);
+        return DataBufferUtils.join(((RawSearchApiResponse) response).getBody())
+                .map(dataBuffer -> dataBuffer.toString(StandardCharsets.UTF_8))
+                .block();
+    }
+
+    @Test
+    public void testIdenticalRequestsCoalesced() {
+        RequestCoalescer coalescer = createCoalescer(true);
+        CompletableFuture<SearchApiResponse> request1 = coalescer.get(KEY1, "key1", null, loader()).toFuture();
+        CompletableFuture<SearchApiResponse> request2 = coalescer.get(KEY1, "key1", null, loader()).toFuture();
+        SearchApiResponse response = new SearchApiResponse("key1");
+        result.tryEmitValue(response);
+
+        assertSame(response, request1.join());
+        assertSame(response, request2.join());
+        assertEquals(1, nrLoads.get());
+
+        // request is no longer in flight, so a new request generates a new response
+        coalescer.get(KEY1, "key1", null, loader()).block();
+        assertEquals(2, nrLoads.get());
+    }
+
+    @Test
+    public void testDifferentRequestsNotCoalesced() {
+        RequestCoalescer coalescer = createCoalescer(true);
+        coalescer.get(KEY1, "key1", null, loader()).toFuture();
+        coalescer.get(KEY1, "key2", null, loader()).toFuture();
+        coalescer.get(KEY2, "key1", null, loader()).toFuture();
+        coalescer.get(KEY1, "key1", "token", loader()).toFuture();
+        coalescer.get(KEY1, "key1", "token", loader()).toFuture();
+        // different key, different API key or with token, so every request generates its own response
+        assertEquals(5, nrLoads.get());
+    }
+
+    @Test
+    public void testDifferentBudgetsNotCoalesced() {
+        RequestCoalescer coalescer = createCoalescer(true);
+        CompletableFuture<SearchApiResponse> request1 = coalescer.get(KEY1, "key1", null, loader())
+                .contextWrite(Deadline.after(Duration.ofSeconds(10))::addTo).toFuture();
+        // a caller with a very short timeout doesn't share the response generation of the first caller
+        CompletableFuture<SearchApiResponse> request2 = coalescer.get(KEY1, "key1", null, loader())
+                .contextWrite(Deadline.after(Duration.ofMillis(1))::addTo).toFuture();
+        assertEquals(2, nrLoads.get());
+
+        // callers with the same budget do share the response generation
+        CompletableFuture<SearchApiResponse> request3 = coalescer.get(KEY1, "key1", null, loader())
+                .contextWrite(Deadline.after(Duration.ofSeconds(10))::addTo).toFuture();
+        assertEquals(2, nrLoads.get());
+
+        SearchApiResponse response = new SearchApiResponse("key1");
+        result.tryEmitValue(response);
+        assertSame(response, request1.join());
+        assertSame(response, request2.join());
+        assertSame(response, request3.join());
+    }
+
+    @Test
+    public void testDisabled() {
+        RequestCoalescer coalescer = createCoalescer(false);
+        coalescer.get(KEY1, "key1", null, loader()).toFuture();
+        coalescer.get(KEY1, "key1", null, loader()).toFuture();
+        assertEquals(2, nrLoads.get());
+    }
+
+    @Test
+    public void testErrorNotKept() {
+        RequestCoalescer coalescer = createCoalescer(true);
+        ResponseCache.ResponseLoader failing = () -> {
+            nrLoads.incrementAndGet();
+            return Mono.error(new IllegalStateException("test"));
+        };
+        assertThrows(IllegalStateException.class, () -> coalescer.get(KEY1, "key1", null, failing).block());
+        assertThrows(IllegalStateException.class, () -> coalescer.get(KEY1, "key1", null, failing).block());
+        assertEquals(2, nrLoads.get());
+    }
+
+    @Test
+    public void testRawResponseReadByAll() {
+        RequestCoalescer coalescer = createCoalescer(true);
+        CompletableFuture<SearchApiResponse> request1 = coalescer.get(KEY1, "key1", null, loader()).toFuture();
+        CompletableFuture<SearchApiResponse> request2 = coalescer.get(KEY1, "key1", null, loader()).toFuture();
+        String json = "{\"apikey\":\"key1\",\"success\":true}";
+        result.tryEmitValue(new RawSearchApiResponse("key1", Mono.just(DefaultDataBufferFactory.sharedInstance
+                .wrap(json.getBytes(StandardCharsets.UTF_8)))));
+
+        assertEquals(json, toJson(request1.join()));
+        assertEquals(json, toJson(request2.join()));
+        assertEquals(1, nrLoads.get());
+    }
+}
@@ -0,0 +1,84 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.config.AdaptiveTimeout;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RequestHedgerTest {
+
+    private static final Duration HEDGE_DELAY = Duration.ofMillis(50);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RequestHedger createHedger(double budgetPercentage) {
+        return new RequestHedger("test", null, HEDGE_DELAY, 0.95, budgetPercentage, meterRegistry);
+    }
+
+    /**
+     * First request is slow, second request is fast
+     */
+    private Mono<String> slowThenFast(AtomicInteger requestCount) {
+        if (requestCount.incrementAndGet() == 1) {
+            return Mono.just("slow").delayElement(Duration.ofSeconds(2));
+        }
+        return Mono.just("fast");
+    }
+
+    @Test
+    public void testHedgedRequestWins() {
+        RequestHedger hedger = createHedger(100);
+        AtomicInteger requestCount = new AtomicInteger();
+        assertEquals("fast", hedger.hedge(() -> slowThenFast(requestCount)).block());
+        assertEquals(2, requestCount.get());
+        assertEquals(1, meterRegistry.counter("recommend.backend.hedge.sent", "backend", "test").count());
+        assertEquals(1, meterRegistry.counter("recommend.backend.hedge.won", "backend", "test").count());
+    }
+
+    @Test
+    public void testNoHedgeForFastRequest() {
+        RequestHedger hedger = createHedger(100);
+        AtomicInteger requestCount = new AtomicInteger();
+        assertEquals("ok", hedger.hedge(() -> {
+            requestCount.incrementAndGet();
+            return Mono.just("ok");
+        }).block());
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void testNoHedgeWithoutBudget() {
+        RequestHedger hedger = createHedger(0);
+        AtomicInteger requestCount = new AtomicInteger();
+        assertEquals("slow", hedger.hedge(() -> slowThenFast(requestCount)).block());
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void testHedgeAfterExtraPercentile() {
+        AdaptiveTimeout latency = new AdaptiveTimeout("test", meterRegistry, 0.5, 2,
+                Duration.ofMillis(100), Duration.ofSeconds(10), 0.99);
+        for (int i = 0; i < 100; i++) {
+            latency.record(HEDGE_DELAY.toNanos());
+        }
+        RequestHedger hedger = new RequestHedger("test", latency, null, 0.99, 100, meterRegistry);
+        AtomicInteger requestCount = new AtomicInteger();
+        assertEquals("fast", hedger.hedge(() -> slowThenFast(requestCount)).block());
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void testUntrackedPercentile() {
+        AdaptiveTimeout latency = new AdaptiveTimeout("test", meterRegistry, 0.5, 2,
+                Duration.ofMillis(100), Duration.ofSeconds(10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RequestHedger("test", latency, null, 0.99, 100, meterRegistry));
+    }
+}
@@ -0,0 +1,152 @@
+package eu.europeana.api.recommend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.exception.RecordNotFoundException;
+import eu.europeana.api.recommend.model.RawSearchApiResponse;
+import eu.europeana.api.recommend.model.SearchApiResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ResponseCacheTest {
+
+    private static final ResponseCache.Key KEY1 = new ResponseCache.Key(ResponseCache.Endpoint.RECORD, "1/a", 10, 0, null);
+    private static final ResponseCache.Key KEY2 = new ResponseCache.Key(ResponseCache.Endpoint.RECORD, "1/b", 10, 0, null);
+
+    private final AtomicInteger nrLoads = new AtomicInteger();
+    private final EndpointBulkheads bulkheads = mock(EndpointBulkheads.class);
+    private ValidApikeys validApikeys;
+
+    private ResponseCache createCache(int ttlSeconds) {
+        return createCache(ttlSeconds, 0);
+    }
+
+    private ResponseCache createCache(int ttlSeconds, int prewarmTopN) {
+        RecommendSettings settings = mock(RecommendSettings.class);
+        when(settings.isResponseCacheEnabled()).thenReturn(true);
+        when(settings.getResponseCacheTtl()).thenReturn(ttlSeconds);
+        when(settings.getResponseCacheMaxStale()).thenReturn(3600);
+        when(settings.getResponseCacheMaxSizeMb()).thenReturn(10);
+        // long interval, so pre-warming only happens when a test calls it
+        when(settings.getResponseCachePrewarmTopN()).thenReturn(prewarmTopN);
+        when(settings.getResponseCachePrewarmInterval()).thenReturn(3600);
+        when(settings.getResponseCachePrewarmMaxPerRun()).thenReturn(10);
+        when(settings.getResponseCachePrewarmConcurrency()).thenReturn(1);
+        validApikeys = new ValidApikeys(settings);
+        return new ResponseCache(settings, new ObjectMapper(), validApikeys, bulkheads, new SimpleMeterRegistry());
+    }
+
+    private ResponseCache.ResponseLoader loader(String apikey) {
+        return () -> {
+            nrLoads.incrementAndGet();
+            // Search API accepted the key
+            validApikeys.markValid(apikey);
+            Map<String, Object> item = Map.of("id", "/1/a",
+                    "link", "https://api.europeana.eu/record/v2/1/a.json?wskey=" + apikey);
+            return Mono.just(new SearchApiResponse(apikey, new Map[]{ item }));
+        };
+    }
+
+    private static String toJson(SearchApiResponse response) {
+        assertInstanceOf(RawSearchApiResponse.class, response);
+        return DataBufferUtils.join(((RawSearchApiResponse) response).getBody())
+                .map(dataBuffer -> dataBuffer.toString(StandardCharsets.UTF_8))
+                .block();
+    }
+
+    @Test
+    public void testApikeySubstitution() {
+        ResponseCache cache = createCache(300);
+        String json1 = toJson(cache.get(KEY1, "key1", null, loader("key1")).block());
+        assertTrue(json1.contains("\"apikey\":\"key1\""));
+        // make sure key2 is known to be valid
+        cache.get(KEY2, "key2", null, loader("key2")).block();
+        assertEquals(2, nrLoads.get());
+
+        String json2 = toJson(cache.get(KEY1, "key2", null, loader("key2")).block());
+        assertEquals(2, nrLoads.get());
+        assertTrue(json2.contains("\"apikey\":\"key2\""));
+        assertTrue(json2.contains("wskey=key2"));
+        assertFalse(json2.contains("key1"));
+    }
+
+    @Test
+    public void testUnknownApikeyNotServedFromCache() {
+        ResponseCache cache = createCache(300);
+        cache.get(KEY1, "key1", null, loader("key1")).block();
+        cache.get(KEY1, "unknown", null, loader("unknown")).block();
+        assertEquals(2, nrLoads.get());
+    }
+
+    @Test
+    public void testTokenNotCached() {
+        ResponseCache cache = createCache(300);
+        cache.get(KEY1, "key1", "token", loader("key1")).block();
+        cache.get(KEY1, "key1", "token", loader("key1")).block();
+        assertEquals(2, nrLoads.get());
+    }
+
+    @Test
+    public void testStaleRefreshedInBackground() throws InterruptedException {
+        ResponseCache cache = createCache(0);
+        cache.get(KEY1, "key1", null, loader("key1")).block();
+        // stale response is returned and refreshed
+        assertNotNull(cache.get(KEY1, "key1", null, loader("key1")).block());
+        for (int i = 0; i < 100 && nrLoads.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, nrLoads.get());
+    }
+
+    @Test
+    public void testPopularResponsePrewarmed() {
+        ResponseCache cache = createCache(1, 1);
+        cache.get(KEY1, "key1", null, loader("key1")).block();
+        cache.get(KEY1, "key1", null, loader("key1")).block();
+        cache.get(KEY2, "key1", null, loader("key1")).block();
+        assertEquals(2, nrLoads.get());
+
+        // only the most popular response is refreshed, because it becomes stale before the next check
+        cache.prewarm();
+        assertEquals(3, nrLoads.get());
+        assertTrue(cache.contains(KEY1, "key1", null));
+        cache.close();
+    }
+
+    @Test
+    public void testNoPrewarmWhenEndpointBusy() {
+        ResponseCache cache = createCache(1, 1);
+        cache.get(KEY1, "key1", null, loader("key1")).block();
+        assertEquals(1, nrLoads.get());
+
+        when(bulkheads.isBusy(ResponseCache.Endpoint.RECORD)).thenReturn(true);
+        cache.prewarm();
+        assertEquals(1, nrLoads.get());
+
+        when(bulkheads.isBusy(ResponseCache.Endpoint.RECORD)).thenReturn(false);
+        cache.prewarm();
+        assertEquals(2, nrLoads.get());
+        cache.close();
+    }
+
+    @Test
+    public void testPrewarmErrorInvalidates() {
+        ResponseCache cache = createCache(1, 1);
+        cache.get(KEY1, "key1", null, loader("key1")).block();
+        cache.get(KEY1, "key1", null, () -> Mono.error(new RecordNotFoundException("Record not found"))).block();
+
+        cache.prewarm();
+        assertFalse(cache.contains(KEY1, "key1", null));
+        cache.close();
+    }
+}
@@ -0,0 +1,97 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.config.WebClients;
+import eu.europeana.api.recommend.model.Recommendation;
+import eu.europeana.api.recommend.model.SearchApiResponse;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures Search API response times for generating a recommendation response of 50 items, for different chunk sizes.
+ * This sends real requests to Search API, so it's only run when the SEARCH_API_KEY environment variable is set, e.g.
+ * <pre>SEARCH_API_KEY=[key] mvn test -Dtest=SearchApiChunkBenchmark</pre>
+ * Optionally SEARCH_API_ENDPOINT can be set to test against a different Search API instance.
+ */
+@EnabledIfEnvironmentVariable(named = "SEARCH_API_KEY", matches = ".+")
+public class SearchApiChunkBenchmark {
+
+    private static final Logger LOG = LogManager.getLogger(SearchApiChunkBenchmark.class);
+
+    private static final int NR_RECORDS = 50;
+    private static final int[] CHUNK_SIZES = {0, 5, 10, 25};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 20;
+
+    private final String apikey = System.getenv("SEARCH_API_KEY");
+    private final String endpoint = System.getenv().getOrDefault("SEARCH_API_ENDPOINT", "https://api.europeana.eu/record/");
+
+    @Test
+    public void benchmarkChunkSizes() {
+        WebClient webClient = WebClient.builder()
+                .baseUrl(endpoint)
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(10 * 1024 * 1024))
+                .build();
+        List<Recommendation> recommendations = getRecordIds(webClient);
+
+        LOG.info("Chunk size | median ms | p90 ms | max ms");
+        for (int chunkSize : CHUNK_SIZES) {
+            SearchApiService searchApi = createSearchApiService(webClient, chunkSize);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                searchApi.generateResponse(recommendations, NR_RECORDS, apikey, null).block();
+            }
+            long[] timings = new long[ROUNDS];
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                SearchApiResponse response = searchApi.generateResponse(recommendations, NR_RECORDS, apikey, null).block();
+                timings[i] = (System.nanoTime() - start) / 1_000_000;
+                assertNotNull(response);
+            }
+            Arrays.sort(timings);
+            LOG.info(String.format("%10d | %9d | %6d | %6d", chunkSize, timings[ROUNDS / 2], timings[ROUNDS * 9 / 10],
+                    timings[ROUNDS - 1]));
+        }
+    }
+
+    private List<Recommendation> getRecordIds(WebClient webClient) {
+        SearchApiResponse response = webClient.get()
+                .uri("search.json?query=*&rows=" + NR_RECORDS + "&profile=minimal&wskey=" + apikey)
+                .retrieve()
+                .bodyToMono(SearchApiResponse.class)
+                .block();
+        assertNotNull(response);
+        List<Recommendation> result = new ArrayList<>();
+        float score = 1f;
+        for (Map item : response.getItems()) {
+            String[] id = item.get("id").toString().split("/");
+            result.add(new Recommendation(new RecordId(id[1], id[2]), score));
+            score = score - 0.01f;
+        }
+        return result;
+    }
+
+    private SearchApiService createSearchApiService(WebClient webClient, int chunkSize) {
+        WebClients webClients = mock(WebClients.class);
+        when(webClients.getSearchApiClient()).thenReturn(webClient);
+        RecommendSettings settings = mock(RecommendSettings.class);
+        when(settings.getSearchApiChunkSize()).thenReturn(chunkSize);
+        return new SearchApiService(webClients, settings, CircuitBreakerRegistry.ofDefaults(),
+                BulkheadRegistry.ofDefaults(), new SimpleMeterRegistry(), mock(ItemStoreService.class), mock(ValidApikeys.class));
+    }
+}
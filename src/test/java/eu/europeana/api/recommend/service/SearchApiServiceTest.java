@@ -0,0 +1,103 @@
+package eu.europeana.api.recommend.service;
+
+import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.config.WebClients;
+import eu.europeana.api.recommend.model.Recommendation;
+import eu.europeana.api.recommend.model.SearchApiResponse;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SearchApiServiceTest {
+
+    private static final Recommendation REC1 = new Recommendation(new RecordId("1", "a"), 0.9f);
+    private static final Recommendation REC2 = new Recommendation(new RecordId("1", "b"), 0.8f);
+    private static final Recommendation REC3 = new Recommendation(new RecordId("2", "c"), 0.7f);
+    private static final Recommendation REC4 = new Recommendation(new RecordId("2", "d"), 0.6f);
+
+    @Test
+    public void testMergeResponses() {
+        // chunk responses in random order, and 1 record not found by Search API
+        SearchApiResponse chunk1 = new SearchApiResponse("test", new Map[]{ Map.of("id", "/2/d"), Map.of("id", "/2/c")});
+        SearchApiResponse chunk2 = new SearchApiResponse("test", new Map[]{ Map.of("id", "/1/a")});
+
+        SearchApiResponse merged = SearchApiService.mergeResponses(List.of(REC1, REC2, REC3, REC4),
+                List.of(chunk1, chunk2), "test");
+
+        assertEquals("test", merged.getApikey());
+        assertEquals(3, merged.getItemsCount());
+        assertEquals(3, merged.getTotalResults());
+        assertEquals("/1/a", merged.getItems()[0].get("id"));
+        assertEquals("/2/c", merged.getItems()[1].get("id"));
+        assertEquals("/2/d", merged.getItems()[2].get("id"));
+    }
+
+    /**
+     * Create a service that has all items in its local item store, and a Search API that responds with the provided
+     * status (and counts the requests it gets)
+     */
+    private SearchApiService createServiceWithLocalItems(HttpStatus searchApiStatus, AtomicInteger nrRequests) {
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    nrRequests.incrementAndGet();
+                    return Mono.just(ClientResponse.create(searchApiStatus)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body("{\"success\":" + searchApiStatus.is2xxSuccessful() + ",\"totalResults\":0}")
+                            .build());
+                })
+                .build();
+        WebClients webClients = mock(WebClients.class);
+        when(webClients.getSearchApiClient()).thenReturn(webClient);
+        RecommendSettings settings = mock(RecommendSettings.class);
+        when(settings.getResponseCacheMaxStale()).thenReturn(3600);
+        ItemStoreService itemStore = mock(ItemStoreService.class);
+        when(itemStore.isEnabled()).thenReturn(true);
+        when(itemStore.getItems(any(), any()))
+                .thenReturn(Map.<String, Map<String, Object>>of("/1/a", Map.of("id", "/1/a")));
+        return new SearchApiService(webClients, settings, CircuitBreakerRegistry.ofDefaults(),
+                BulkheadRegistry.ofDefaults(), new SimpleMeterRegistry(), itemStore, new ValidApikeys(settings));
+    }
+
+    @Test
+    public void testLocalItemsApikeyValidatedOnce() {
+        AtomicInteger nrRequests = new AtomicInteger();
+        SearchApiService searchApi = createServiceWithLocalItems(HttpStatus.OK, nrRequests);
+
+        assertEquals(1, searchApi.generateResponse(List.of(REC1), 10, "test", null).block().getItemsCount());
+        assertEquals(1, nrRequests.get());
+        // Search API accepted the key, so we don't need to ask again
+        assertEquals(1, searchApi.generateResponse(List.of(REC1), 10, "test", null).block().getItemsCount());
+        assertEquals(1, nrRequests.get());
+    }
+
+    @Test
+    public void testLocalItemsInvalidApikey() {
+        AtomicInteger nrRequests = new AtomicInteger();
+        SearchApiService searchApi = createServiceWithLocalItems(HttpStatus.UNAUTHORIZED, nrRequests);
+
+        assertThrows(WebClientResponseException.class,
+                () -> searchApi.generateResponse(List.of(REC1), 10, "invalid", null).block());
+        assertThrows(WebClientResponseException.class,
+                () -> searchApi.getItems(List.of(REC1), "invalid", null).block());
+        assertEquals(2, nrRequests.get());
+    }
+}
@@ -0,0 +1,59 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    private static final int NR_ITEMS = 10_000;
+
+    @Test
+    public void testContains() {
+        BloomFilter filter = BloomFilter.create(NR_ITEMS, 0.01);
+        IntStream.range(0, NR_ITEMS).forEach(i -> filter.put("/123/item_" + i));
+
+        // no false negatives
+        IntStream.range(0, NR_ITEMS).forEach(i -> assertTrue(filter.mightContain("/123/item_" + i)));
+
+        // false positives should be around 1%, we allow some margin
+        long falsePositives = IntStream.range(0, NR_ITEMS).filter(i -> filter.mightContain("/456/other_" + i)).count();
+        assertTrue(falsePositives < NR_ITEMS * 0.02, "Too many false positives: " + falsePositives);
+    }
+
+    @Test
+    public void testSaveAndLoad(@TempDir Path tempDir) throws IOException {
+        Path idsFile = tempDir.resolve("ids.txt");
+        Files.write(idsFile, List.of("/1/a", "/1/b", "", "/2/c"), StandardCharsets.UTF_8);
+        Path filterFile = tempDir.resolve("ids.filter");
+
+        BloomFilter.create(idsFile, 0.001).save(filterFile);
+        BloomFilter loaded = BloomFilter.load(filterFile);
+
+        assertTrue(loaded.mightContain("/1/a"));
+        assertTrue(loaded.mightContain("/1/b"));
+        assertTrue(loaded.mightContain("/2/c"));
+        assertFalse(loaded.mightContain("/3/d"));
+    }
+
+    @Test
+    public void testLoadInvalidFile(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("invalid.filter");
+        Files.writeString(file, "this is not a filter");
+        assertThrows(IOException.class, () -> BloomFilter.load(file));
+    }
+
+    @Test
+    public void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(100, 1));
+    }
+}
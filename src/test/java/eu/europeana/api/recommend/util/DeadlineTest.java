@@ -0,0 +1,50 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadlineTest {
+
+    @Test
+    public void testRemaining() {
+        Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remaining().compareTo(Duration.ofMinutes(1)) <= 0);
+        assertTrue(deadline.remaining().compareTo(Duration.ofSeconds(50)) > 0);
+
+        Deadline expired = Deadline.after(Duration.ZERO);
+        assertTrue(expired.isExpired());
+        assertEquals(Duration.ZERO, expired.remaining());
+    }
+
+    @Test
+    public void testLimit() {
+        Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+        assertEquals(Duration.ofSeconds(1), deadline.limit(Duration.ofSeconds(1)));
+        assertTrue(deadline.limit(Duration.ofMinutes(5)).compareTo(Duration.ofMinutes(1)) <= 0);
+        // no timeout means we use the remaining time
+        assertTrue(deadline.limit(Duration.ZERO).compareTo(Duration.ofSeconds(50)) > 0);
+    }
+
+    @Test
+    public void testContext() {
+        assertNull(Deadline.from(Context.empty()));
+        assertFalse(Deadline.isDegraded(Context.empty()));
+
+        Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+        Deadline found = Mono.deferContextual(context -> Mono.justOrEmpty(Deadline.from(context)))
+                .contextWrite(deadline::addTo)
+                .block();
+        assertSame(deadline, found);
+
+        Context context = deadline.addTo(Context.empty());
+        assertFalse(Deadline.isDegraded(context));
+        deadline.markDegraded();
+        assertTrue(Deadline.isDegraded(context));
+    }
+}
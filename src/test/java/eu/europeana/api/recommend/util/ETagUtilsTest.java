@@ -0,0 +1,43 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ETagUtilsTest {
+
+    @Test
+    public void testContentHash() {
+        String hash = ETagUtils.generateContentHash("collection", List.of("/1/a", "/1/b"));
+        assertEquals(hash, ETagUtils.generateContentHash("collection", List.of("/1/a", "/1/b")));
+
+        // different order, ids or version means a different hash
+        assertNotEquals(hash, ETagUtils.generateContentHash("collection", List.of("/1/b", "/1/a")));
+        assertNotEquals(hash, ETagUtils.generateContentHash("collection", List.of("/1/a", "/1/c")));
+        assertNotEquals(hash, ETagUtils.generateContentHash("collection2", List.of("/1/a", "/1/b")));
+        assertNotEquals(ETagUtils.generateContentHash("v", List.of("/1/a", "/1/b")),
+                ETagUtils.generateContentHash("v", List.of("/1/a/1/b")));
+    }
+
+    @Test
+    public void testToETag() {
+        String etag = ETagUtils.toETag("abc", "key1");
+        assertTrue(etag.startsWith("\"abc-") && etag.endsWith("\""));
+        assertEquals(etag, ETagUtils.toETag("abc", "key1"));
+        assertNotEquals(etag, ETagUtils.toETag("abc", "key2"));
+        assertNull(ETagUtils.toETag(null, "key1"));
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(ETagUtils.matches("\"abc\"", "\"abc\""));
+        assertTrue(ETagUtils.matches("W/\"abc\"", "\"abc\""));
+        assertTrue(ETagUtils.matches("\"xyz\", \"abc\"", "\"abc\""));
+        assertTrue(ETagUtils.matches("*", "\"abc\""));
+        assertFalse(ETagUtils.matches("\"xyz\"", "\"abc\""));
+        assertFalse(ETagUtils.matches(null, "\"abc\""));
+        assertFalse(ETagUtils.matches("\"abc\"", null));
+    }
+}
@@ -0,0 +1,77 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HotKeysTest {
+
+    private static void record(HotKeys<String, Integer> hotKeys, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            hotKeys.record(key, i);
+        }
+    }
+
+    @Test
+    public void testMostPopularFirst() {
+        HotKeys<String, Integer> hotKeys = new HotKeys<>(10);
+        record(hotKeys, "a", 5);
+        record(hotKeys, "b", 20);
+        record(hotKeys, "c", 10);
+
+        List<HotKeys.HotKey<String, Integer>> top = hotKeys.getTop(2);
+        assertEquals(2, top.size());
+        assertEquals("b", top.get(0).key());
+        assertEquals(20, top.get(0).count());
+        assertEquals(19, top.get(0).value()); // last recorded value
+        assertEquals("c", top.get(1).key());
+    }
+
+    @Test
+    public void testPopularKeyReplacesLeastPopular() {
+        HotKeys<String, Integer> hotKeys = new HotKeys<>(2);
+        record(hotKeys, "a", 10);
+        record(hotKeys, "b", 2);
+        record(hotKeys, "c", 5);
+
+        assertEquals(2, hotKeys.size());
+        List<HotKeys.HotKey<String, Integer>> top = hotKeys.getTop(2);
+        assertEquals("a", top.get(0).key());
+        assertEquals("c", top.get(1).key());
+    }
+
+    @Test
+    public void testCountsAge() {
+        HotKeys<String, Integer> hotKeys = new HotKeys<>(1);
+        // capacity 1 means counts are halved after every 100 recorded keys
+        record(hotKeys, "a", 99);
+        assertEquals(99, hotKeys.getTop(1).get(0).count());
+        record(hotKeys, "a", 1);
+        assertEquals(50, hotKeys.getTop(1).get(0).count());
+    }
+
+    @Test
+    public void testRemove() {
+        HotKeys<String, Integer> hotKeys = new HotKeys<>(2);
+        record(hotKeys, "a", 10);
+        hotKeys.remove("a");
+        assertTrue(hotKeys.getTop(2).isEmpty());
+    }
+
+    @Test
+    public void testSketchNeverUnderestimates() {
+        CountMinSketch sketch = new CountMinSketch(16, 4);
+        for (long i = 0; i < 100; i++) {
+            sketch.add(HashUtils.mix(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            sketch.add(HashUtils.mix(1000));
+        }
+        assertTrue(sketch.estimate(HashUtils.mix(1000)) >= 5);
+        assertEquals(0, new CountMinSketch(16, 4).estimate(HashUtils.mix(1000)));
+        assertEquals(16, sketch.getWidth());
+        assertEquals(32, new CountMinSketch(17, 4).getWidth());
+    }
+}
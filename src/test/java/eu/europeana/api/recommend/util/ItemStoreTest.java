@@ -0,0 +1,42 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ItemStoreTest {
+
+    private static final String ITEM1 = "{\"id\":\"/1/a\",\"title\":[\"Title A\"],\"type\":\"IMAGE\"}";
+    private static final String ITEM2 = "{\"id\":\"/1/b\",\"title\":[\"Title B\"],\"type\":\"TEXT\"}";
+    private static final String ITEM3 = "{\"id\":\"/2/c\",\"title\":[\"Title C\"],\"type\":\"SOUND\"}";
+
+    @Test
+    public void testCreateAndLoad(@TempDir Path tempDir) throws IOException {
+        Path source = tempDir.resolve("items.jsonl");
+        Files.write(source, List.of(ITEM1, "", "{\"title\":[\"no id\"]}", ITEM2, ITEM3), StandardCharsets.UTF_8);
+        Path file = tempDir.resolve("items.store");
+
+        assertEquals(3, ItemStore.create(source, file));
+        ItemStore store = ItemStore.load(file);
+
+        assertEquals(3, store.size());
+        assertEquals(ITEM1, new String(store.get("/1/a"), StandardCharsets.UTF_8));
+        assertEquals(ITEM2, new String(store.get("/1/b"), StandardCharsets.UTF_8));
+        assertEquals(ITEM3, new String(store.get("/2/c"), StandardCharsets.UTF_8));
+        assertNull(store.get("/3/d"));
+    }
+
+    @Test
+    public void testLoadInvalidFile(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("invalid.store");
+        Files.writeString(file, "this is not an item store");
+        assertThrows(IOException.class, () -> ItemStore.load(file));
+    }
+}
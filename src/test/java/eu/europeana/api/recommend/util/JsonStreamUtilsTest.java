@@ -0,0 +1,44 @@
+package eu.europeana.api.recommend.util;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonStreamUtilsTest {
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadArray() {
+        assertEquals(List.of("/1/a", "/2/b"),
+                JsonStreamUtils.readStrings(() -> toStream("[\"/1/a\", \"/2/b\"]")).collectList().block());
+    }
+
+    @Test
+    public void testReadNewlineDelimited() {
+        assertEquals(List.of("/1/a", "/2/b"),
+                JsonStreamUtils.readStrings(() -> toStream("\"/1/a\"\n\"/2/b\"\n")).collectList().block());
+    }
+
+    @Test
+    public void testReadOnDemand() {
+        // only the requested strings are read, so the invalid json at the end is never parsed
+        assertEquals(List.of("/1/a"),
+                JsonStreamUtils.readStrings(() -> toStream("[\"/1/a\", \"/2/b\", {")).take(1).collectList().block());
+    }
+
+    @Test
+    public void testReadInvalid() {
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> JsonStreamUtils.readStrings(() -> toStream("[\"/1/a\", 2]")).collectList().block());
+        assertInstanceOf(JsonParseException.class, e.getCause());
+    }
+}
@@ -0,0 +1,110 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReactiveBulkheadTest {
+
+    private final AtomicInteger nrStarted = new AtomicInteger();
+
+    // only finishes when we emit a value, so we can simulate tasks in progress
+    private Mono<String> task(Sinks.One<String> result) {
+        return Mono.defer(() -> {
+            nrStarted.incrementAndGet();
+            return result.asMono();
+        });
+    }
+
+    private static CompletableFuture<String> run(ReactiveBulkhead bulkhead, Mono<String> task) {
+        return bulkhead.execute(task, () -> new IllegalStateException("full")).toFuture();
+    }
+
+    @Test
+    public void testWaitInQueue() {
+        ReactiveBulkhead bulkhead = new ReactiveBulkhead("test", 1, 1);
+        Sinks.One<String> result1 = Sinks.one();
+        Sinks.One<String> result2 = Sinks.one();
+        CompletableFuture<String> task1 = run(bulkhead, task(result1));
+        CompletableFuture<String> task2 = run(bulkhead, task(result2));
+        assertEquals(1, nrStarted.get());
+        assertEquals(1, bulkhead.getRunning());
+        assertEquals(1, bulkhead.getQueueDepth());
+
+        // the waiting task starts when the running task is done
+        result1.tryEmitValue("1");
+        assertEquals("1", task1.join());
+        assertEquals(2, nrStarted.get());
+        assertEquals(1, bulkhead.getRunning());
+        assertEquals(0, bulkhead.getQueueDepth());
+
+        result2.tryEmitValue("2");
+        assertEquals("2", task2.join());
+        assertEquals(0, bulkhead.getRunning());
+    }
+
+    @Test
+    public void testRejectWhenQueueFull() {
+        ReactiveBulkhead bulkhead = new ReactiveBulkhead("test", 1, 1);
+        run(bulkhead, task(Sinks.one()));
+        run(bulkhead, task(Sinks.one()));
+        CompletableFuture<String> task3 = run(bulkhead, task(Sinks.one()));
+
+        CompletionException e = assertThrows(CompletionException.class, task3::join);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(1, nrStarted.get());
+        assertEquals(1, bulkhead.getRunning());
+        assertEquals(1, bulkhead.getQueueDepth());
+    }
+
+    @Test
+    public void testFailedTaskReleased() {
+        ReactiveBulkhead bulkhead = new ReactiveBulkhead("test", 1, 0);
+        CompletableFuture<String> task1 = run(bulkhead, Mono.error(new IllegalArgumentException("error")));
+        assertThrows(CompletionException.class, task1::join);
+        assertEquals(0, bulkhead.getRunning());
+
+        assertEquals("ok", run(bulkhead, Mono.just("ok")).join());
+    }
+
+    @Test
+    public void testCancelWaitingTask() {
+        ReactiveBulkhead bulkhead = new ReactiveBulkhead("test", 1, 1);
+        Sinks.One<String> result1 = Sinks.one();
+        run(bulkhead, task(result1));
+        Disposable waiting = bulkhead.execute(task(Sinks.one()), () -> new IllegalStateException("full")).subscribe();
+        assertEquals(1, bulkhead.getQueueDepth());
+
+        waiting.dispose();
+        assertEquals(0, bulkhead.getQueueDepth());
+
+        // the cancelled task is never started, and it doesn't take the place of new tasks
+        result1.tryEmitValue("1");
+        assertEquals(1, nrStarted.get());
+        assertEquals(0, bulkhead.getRunning());
+        assertEquals("ok", run(bulkhead, Mono.just("ok")).join());
+    }
+
+    @Test
+    public void testCancelRunningTask() {
+        ReactiveBulkhead bulkhead = new ReactiveBulkhead("test", 1, 0);
+        Disposable running = bulkhead.execute(task(Sinks.one()), () -> new IllegalStateException("full")).subscribe();
+        assertEquals(1, bulkhead.getRunning());
+
+        running.dispose();
+        assertEquals(0, bulkhead.getRunning());
+    }
+
+    @Test
+    public void testInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new ReactiveBulkhead("test", 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new ReactiveBulkhead("test", 1, -1));
+    }
+}
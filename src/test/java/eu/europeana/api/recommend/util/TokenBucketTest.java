@@ -0,0 +1,56 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    public void testBurstAndRefill() {
+        AtomicLong clock = new AtomicLong(1000);
+        TokenBucket bucket = new TokenBucket(10, 5, clock::get);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryConsume(1), "Request " + i + " rejected");
+        }
+        // bucket empty, next token available after 100 ms
+        long wait = bucket.tryConsume(1);
+        assertEquals(SECOND / 10, wait);
+
+        clock.addAndGet(wait);
+        assertEquals(0, bucket.tryConsume(1));
+        assertTrue(bucket.tryConsume(1) > 0);
+
+        // after a long idle period the bucket is full again, but never more than full
+        clock.addAndGet(10 * SECOND);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryConsume(1));
+        }
+        assertTrue(bucket.tryConsume(1) > 0);
+    }
+
+    @Test
+    public void testMultipleTokens() {
+        AtomicLong clock = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(1, 10, clock::get);
+        assertEquals(0, bucket.tryConsume(8));
+        assertEquals(SECOND, bucket.tryConsume(3));
+        assertEquals(0, bucket.tryConsume(2));
+
+        // more tokens than the capacity costs the complete capacity
+        clock.addAndGet(10 * SECOND);
+        assertEquals(0, bucket.tryConsume(20));
+        assertTrue(bucket.tryConsume(1) > 0);
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(10, 0));
+    }
+}
@@ -0,0 +1,57 @@
+package eu.europeana.api.recommend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeightedSamplingTest {
+
+    private static final List<Integer> ITEMS = IntStream.rangeClosed(1, 100).boxed().toList();
+
+    @Test
+    public void testSameSeedSameOrder() {
+        List<Integer> order1 = WeightedSampling.order(ITEMS, i -> i, 42);
+        List<Integer> order2 = WeightedSampling.order(ITEMS, i -> i, 42);
+        assertEquals(order1, order2);
+        assertNotEquals(order1, WeightedSampling.order(ITEMS, i -> i, 43));
+    }
+
+    @Test
+    public void testNoDuplicatesNoMissing() {
+        List<Integer> order = WeightedSampling.order(ITEMS, i -> i, 1);
+        assertEquals(ITEMS.size(), order.size());
+        assertEquals(new HashSet<>(ITEMS), new HashSet<>(order));
+    }
+
+    @Test
+    public void testHigherWeightPickedMoreOften() {
+        // item 100 has weight 100, item 1 has weight 1
+        int heavyFirst = 0;
+        int lightFirst = 0;
+        for (int seed = 0; seed < 1000; seed++) {
+            List<Integer> order = WeightedSampling.order(List.of(1, 100), i -> i, seed);
+            if (order.get(0) == 100) {
+                heavyFirst++;
+            } else {
+                lightFirst++;
+            }
+        }
+        assertTrue(heavyFirst > lightFirst * 10, "Heavy item first " + heavyFirst + ", light item first " + lightFirst);
+    }
+
+    @Test
+    public void testZeroWeightLast() {
+        List<Integer> order = WeightedSampling.order(List.of(0, 5, 3), i -> i, 7);
+        assertEquals(0, order.get(2));
+    }
+
+    @Test
+    public void testParseSeed() {
+        assertEquals(-12L, WeightedSampling.parseSeed("-12"));
+        assertEquals("123456789012345678901234567890".hashCode(), WeightedSampling.parseSeed("123456789012345678901234567890"));
+    }
+}
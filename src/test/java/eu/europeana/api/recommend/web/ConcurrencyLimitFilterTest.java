@@ -0,0 +1,87 @@
+package eu.europeana.api.recommend.web;
+
+import eu.europeana.api.recommend.config.RecommendSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConcurrencyLimitFilterTest {
+
+    private static final String RECORD_REQUEST = "/recommend/record/1/a.json";
+    private static final String STREAM_REQUEST = "/recommend/records/stream";
+
+    // simulates an asynchronously handled request that is still in progress
+    private static final FilterChain ASYNC_CHAIN = (request, response) -> request.startAsync();
+
+    private static ConcurrencyLimitFilter createFilter(boolean enabled) {
+        RecommendSettings settings = mock(RecommendSettings.class);
+        when(settings.isConcurrencyLimitEnabled()).thenReturn(enabled);
+        when(settings.getConcurrencyLimitInitial()).thenReturn(1);
+        when(settings.getConcurrencyLimitMin()).thenReturn(1);
+        when(settings.getConcurrencyLimitMax()).thenReturn(1);
+        when(settings.getConcurrencyLimitRetryAfter()).thenReturn(2);
+        return new ConcurrencyLimitFilter(settings, new SimpleMeterRegistry());
+    }
+
+    private static MockHttpServletRequest createRequest(String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    @Test
+    public void testRejectAboveLimit() throws Exception {
+        ConcurrencyLimitFilter filter = createFilter(true);
+        MockHttpServletRequest request1 = createRequest(RECORD_REQUEST);
+        filter.doFilter(request1, new MockHttpServletResponse(), ASYNC_CHAIN);
+
+        MockHttpServletResponse response2 = new MockHttpServletResponse();
+        filter.doFilter(createRequest(RECORD_REQUEST), response2, ASYNC_CHAIN);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), response2.getStatus());
+        assertEquals("2", response2.getHeader(HttpHeaders.RETRY_AFTER));
+
+        // after the first request completes, new requests are allowed again
+        request1.getAsyncContext().complete();
+        MockHttpServletResponse response3 = new MockHttpServletResponse();
+        filter.doFilter(createRequest(RECORD_REQUEST), response3, ASYNC_CHAIN);
+        assertEquals(HttpStatus.OK.value(), response3.getStatus());
+    }
+
+    @Test
+    public void testSynchronousRequestReleased() throws Exception {
+        ConcurrencyLimitFilter filter = createFilter(true);
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(createRequest(RECORD_REQUEST), response, (req, res) -> {});
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testStreamNotLimited() throws Exception {
+        ConcurrencyLimitFilter filter = createFilter(true);
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(createRequest(STREAM_REQUEST), response, ASYNC_CHAIN);
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        ConcurrencyLimitFilter filter = createFilter(false);
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(createRequest(RECORD_REQUEST), response, ASYNC_CHAIN);
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+        }
+    }
+}
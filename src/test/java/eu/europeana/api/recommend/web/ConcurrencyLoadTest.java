@@ -0,0 +1,108 @@
+package eu.europeana.api.recommend.web;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test that sends many concurrent record recommendation requests to a running Recommendation API instance and
+ * reports throughput and response time percentiles. Run it once against an instance with platform threads and once
+ * against an instance with <code>spring.threads.virtual.enabled = true</code> (and for the Docker image also
+ * <code>-Dtomcat.virtual.threads=true</code>) to compare both modes.
+ * This sends real requests, so it's only run when the RECOMMEND_API_URL, RECOMMEND_API_KEY and RECOMMEND_RECORD_IDS
+ * (comma-separated, e.g. /123/abc,/456/def) environment variables are set, e.g.
+ * <pre>RECOMMEND_API_URL=http://localhost:8088 RECOMMEND_API_KEY=[key] RECOMMEND_RECORD_IDS=[ids] mvn test -Dtest=ConcurrencyLoadTest</pre>
+ * Optionally set LOAD_TEST_CONCURRENCY (default 500) and LOAD_TEST_REQUESTS (default 10000).
+ */
+@EnabledIfEnvironmentVariable(named = "RECOMMEND_API_URL", matches = ".+")
+@EnabledIfEnvironmentVariable(named = "RECOMMEND_API_KEY", matches = ".+")
+@EnabledIfEnvironmentVariable(named = "RECOMMEND_RECORD_IDS", matches = ".+")
+public class ConcurrencyLoadTest {
+
+    private static final Logger LOG = LogManager.getLogger(ConcurrencyLoadTest.class);
+
+    private static final int WARMUP_REQUESTS = 200;
+
+    private final String baseUrl = System.getenv("RECOMMEND_API_URL");
+    private final String apikey = System.getenv("RECOMMEND_API_KEY");
+    private final List<String> recordIds = Arrays.asList(System.getenv("RECOMMEND_RECORD_IDS").split(","));
+    private final int concurrency = Integer.parseInt(System.getenv().getOrDefault("LOAD_TEST_CONCURRENCY", "500"));
+    private final int nrRequests = Integer.parseInt(System.getenv().getOrDefault("LOAD_TEST_REQUESTS", "10000"));
+
+    @Test
+    public void loadTestRecordRecommendations() throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            run(client, executor, WARMUP_REQUESTS);
+            AtomicInteger errors = new AtomicInteger();
+            long start = System.nanoTime();
+            long[] timings = run(client, executor, nrRequests, errors);
+            long durationMs = (System.nanoTime() - start) / 1_000_000;
+
+            Arrays.sort(timings);
+            LOG.info("Concurrency {}, {} requests in {} ms, {} errors", concurrency, nrRequests, durationMs,
+                    errors.get());
+            LOG.info("Throughput {} requests/s | p50 {} ms | p90 {} ms | p99 {} ms | max {} ms",
+                    String.format("%.1f", nrRequests * 1000.0 / durationMs), percentile(timings, 0.5),
+                    percentile(timings, 0.9), percentile(timings, 0.99), timings[timings.length - 1]);
+            assertTrue(errors.get() < nrRequests, "All requests failed");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long[] run(HttpClient client, ExecutorService executor, int count) throws Exception {
+        return run(client, executor, count, new AtomicInteger());
+    }
+
+    private long[] run(HttpClient client, ExecutorService executor, int count, AtomicInteger errors) throws Exception {
+        List<Future<Long>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/recommend/record"
+                            + recordIds.get(i % recordIds.size()) + ".json?wskey=" + apikey))
+                    .timeout(Duration.ofSeconds(30))
+                    .GET()
+                    .build();
+            results.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() != 200) {
+                        errors.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                }
+                return (System.nanoTime() - start) / 1_000_000;
+            }));
+        }
+        long[] timings = new long[count];
+        for (int i = 0; i < count; i++) {
+            timings[i] = results.get(i).get();
+        }
+        return timings;
+    }
+
+    private static long percentile(long[] sortedTimings, double percentile) {
+        return sortedTimings[Math.min(sortedTimings.length - 1, (int) (sortedTimings.length * percentile))];
+    }
+}
@@ -1,17 +1,42 @@
 package eu.europeana.api.recommend.web;
 
+import eu.europeana.api.recommend.common.RecordId;
 import eu.europeana.api.recommend.config.RecommendSettings;
+import eu.europeana.api.recommend.model.BatchRecommendResponse;
+import eu.europeana.api.recommend.model.Recommendation;
+import eu.europeana.api.recommend.model.SearchApiResponse;
 import eu.europeana.api.recommend.service.MilvusService;
 import eu.europeana.api.recommend.service.RecommendService;
+import eu.europeana.api.recommend.util.ETagUtils;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.ResultActions;
+import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -35,17 +60,33 @@ public class RecommendControllerTest {
     @MockBean
     MilvusService milvusService;
 
+    /**
+     * Recommendation requests are handled asynchronously, so we have to dispatch the result before we can check it
+     */
+    private ResultActions performAsync(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = this.mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return this.mockMvc.perform(asyncDispatch(result));
+    }
+
+    @BeforeEach
+    public void init() {
+        when(recommendService.rankRecommendationsForRecord(any(), anyInt(), anyInt(), any(), any(), any())).thenReturn(Mono.empty());
+        when(recommendService.rankRecommendationsForSet(any(), anyInt(), anyInt(), any(), any(), any())).thenReturn(Mono.empty());
+        when(recommendService.rankRecommendationsForEntity(any(), anyInt(), anyInt(), any(), any())).thenReturn(Mono.empty());
+    }
 
     @Test
     public void testRecordOkApiKey() throws Exception {
-        this.mockMvc.perform(get("/recommend/record/{datasetId}/{localId}", "a", "1")
+        performAsync(get("/recommend/record/{datasetId}/{localId}", "a", "1")
                         .param("wskey", "test"))
                 .andExpect(status().isOk());
     }
 
     @Test
     public void testRecordOkToken() throws Exception {
-        this.mockMvc.perform(get("/recommend/record/{datasetId}/{localId}","a", "1")
+        performAsync(get("/recommend/record/{datasetId}/{localId}","a", "1")
                         .header(AUTH_HEADER, TOKEN))
                 .andExpect(status().isOk());
     }
@@ -78,16 +119,57 @@ public class RecommendControllerTest {
                 .andExpect(status().is4xxClientError());
     }
 
+    @Test
+    public void testRecordETag() throws Exception {
+        List<Recommendation> ranked = List.of(new Recommendation(new RecordId("a", "2"), 1f));
+        SearchApiResponse response = new SearchApiResponse("test");
+        response.setContentHash("abc");
+        when(recommendService.rankRecommendationsForRecord(any(), anyInt(), anyInt(), any(), any(), any())).thenReturn(Mono.just(ranked));
+        when(recommendService.generateResponse(eq(ranked), anyInt(), any(), any())).thenReturn(Mono.just(response));
+        when(recommendService.generateContentHash(ranked)).thenReturn("abc");
+        String etag = ETagUtils.toETag("abc", "test");
+
+        MvcResult result = this.mockMvc.perform(get("/recommend/record/{datasetId}/{localId}", "a", "1")
+                        .param("wskey", "test"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(header().exists(HttpHeaders.CACHE_CONTROL))
+                .andExpect(header().exists(HttpHeaders.VARY));
+
+        // conditional request with the same ETag, we shouldn't retrieve data from Search API again
+        result = this.mockMvc.perform(get("/recommend/record/{datasetId}/{localId}", "a", "1")
+                        .param("wskey", "test")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+        verify(recommendService, times(1)).generateResponse(any(), anyInt(), any(), any());
+
+        // different API key means a different ETag
+        result = this.mockMvc.perform(get("/recommend/record/{datasetId}/{localId}", "a", "1")
+                        .param("wskey", "test2")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void testSetOkApiKey() throws Exception {
-        this.mockMvc.perform(get("/recommend/set/{setId}", 2)
+        performAsync(get("/recommend/set/{setId}", 2)
                         .param("wskey", "test"))
                 .andExpect(status().isOk());
     }
 
     @Test
     public void testSetOkApiToken() throws Exception {
-        this.mockMvc.perform(get("/recommend/set/{setId}", 2)
+        performAsync(get("/recommend/set/{setId}", 2)
                         .header(AUTH_HEADER, TOKEN))
                 .andExpect(status().isOk());
     }
@@ -110,14 +192,14 @@ public class RecommendControllerTest {
 
     @Test
     public void testEntityOkApiKey() throws Exception {
-        this.mockMvc.perform(get("/recommend/entity/{type}/{id}", "agent", "1")
+        performAsync(get("/recommend/entity/{type}/{id}", "agent", "1")
                         .param("wskey", "test"))
                 .andExpect(status().isOk());
     }
 
     @Test
     public void testEntityOkApiToken() throws Exception {
-        this.mockMvc.perform(get("/recommend/entity/{type}/{id}", "concept", "2")
+        performAsync(get("/recommend/entity/{type}/{id}", "concept", "2")
                         .header(AUTH_HEADER, TOKEN))
                 .andExpect(status().isOk());
     }
@@ -129,6 +211,33 @@ public class RecommendControllerTest {
                 .andExpect(status().is(400));
     }
 
+    @Test
+    public void testRecordsOk() throws Exception {
+        when(recommendService.getRecommendationsForRecords(any(), anyInt(), any(), any()))
+                .thenReturn(Mono.just(new BatchRecommendResponse("test", List.of())));
+        performAsync(post("/recommend/records")
+                        .param("wskey", "test")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"/a/1\", \"/a/2\"]"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testRecordsInvalidIds() throws Exception {
+        this.mockMvc.perform(post("/recommend/records")
+                        .param("wskey", "test")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"/a/1\", \"a2\"]"))
+                .andExpect(status().is(400));
+        String tooMany = IntStream.range(0, 21).mapToObj(i -> "\"/a/" + i + "\"")
+                .collect(Collectors.joining(",", "[", "]"));
+        this.mockMvc.perform(post("/recommend/records")
+                        .param("wskey", "test")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(tooMany))
+                .andExpect(status().is(400));
+    }
+
     @Test
     public void testEntityInvalidId() throws Exception {
         mockMvc.perform(get("/recommend/entity/{type}/{id}.json","agent", "x")
@@ -141,7 +250,7 @@ public class RecommendControllerTest {
 
     @Test
     public void testRecordOkWithApiKeyOnlyInHeader() throws Exception {
-        this.mockMvc.perform(get("/recommend/record/{datasetId}/{localId}", "a", "1")
+        performAsync(get("/recommend/record/{datasetId}/{localId}", "a", "1")
                 .header(X_API_KEY_HEADER, "test"))
             .andExpect(status().isOk());
 
@@ -150,14 +259,14 @@ public class RecommendControllerTest {
     @Test
     public void testEntityOkWithApiKeyOnlyInHeader() throws Exception {
 
-        this.mockMvc.perform(get("/recommend/entity/{type}/{id}", "concept", "2")
+        performAsync(get("/recommend/entity/{type}/{id}", "concept", "2")
                 .header(X_API_KEY_HEADER, "test"))
             .andExpect(status().isOk());
     }
 
     @Test
     public void testSetOkWithApiKeyOnlyInHeader() throws Exception {
-        this.mockMvc.perform(get("/recommend/set/{setId}", 2)
+        performAsync(get("/recommend/set/{setId}", 2)
                 .header(X_API_KEY_HEADER, "test"))
             .andExpect(status().isOk());
     }